@@ -0,0 +1,130 @@
+package ru.tinkoff.invest.openapi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventEnvelope;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventHandler;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Контекст streaming с возможностями, которые нельзя выразить через основные методы {@link StreamingContext}:
+ * масштаб цен, фильтрация до декодирования, конверты и пачки событий, обработчики событий. Реализуется контекстом,
+ * который возвращает {@code OkHttpOpenApi#getStreamingContext()}.
+ */
+@SuppressWarnings("ReactiveStreamsPublisherImplementation")
+public interface ExtendedStreamingContext extends StreamingContext, AutoCloseable {
+
+    /**
+     * Установка масштаба цен инструмента. Учитывается, только если цены событий представляются числами с
+     * фиксированной точкой ({@link ru.tinkoff.invest.openapi.model.streaming.FixedPointCandle},
+     * {@link ru.tinkoff.invest.openapi.model.streaming.FixedPointOrderbook}).
+     *
+     * @param figi  Идентификатор инструмента.
+     * @param scale Число знаков после запятой.
+     */
+    void setPriceScale(@NotNull String figi, int scale);
+
+    /**
+     * Подписка на события с предварительным фильтром. Фильтр вызывается до декодирования события и видит только
+     * его заголовок (тип, figi, интервал свечи, глубину стакана), поэтому отброшенные им события не разбираются.
+     * Фильтр вызывается в потоке чтения сокета и должен быть быстрым.
+     *
+     * Подписчики с фильтром {@link ru.tinkoff.invest.openapi.model.streaming.StreamingFilter}, ограничивающим
+     * набор figi, индексируются по этим figi: событие по другому инструменту до них не доходит вовсе.
+     *
+     * @param subscriber Подписчик.
+     * @param filter     Фильтр событий.
+     */
+    void subscribe(@NotNull Subscriber<? super StreamingEvent> subscriber,
+                   @NotNull Predicate<? super StreamingEventEnvelope> filter);
+
+    /**
+     * Подписка на события с предварительным фильтром и заданными параметрами буфера. Подписки без явных параметров
+     * используют {@link StreamingSubscriptionOptions#defaults()}.
+     *
+     * @param subscriber Подписчик.
+     * @param filter     Фильтр событий или null, если нужны все события.
+     * @param options    Параметры буфера подписчика.
+     */
+    void subscribe(@NotNull Subscriber<? super StreamingEvent> subscriber,
+                   @Nullable Predicate<? super StreamingEventEnvelope> filter,
+                   @NotNull StreamingSubscriptionOptions options);
+
+    /**
+     * Поток конвертов событий. Событие из конверта декодируется только при первом обращении к
+     * {@link StreamingEventEnvelope#getEvent()}.
+     *
+     * @return Издатель конвертов.
+     */
+    @NotNull
+    Publisher<StreamingEventEnvelope> envelopes();
+
+    /**
+     * Поток конвертов событий с заданными параметрами буфера для каждого подписчика.
+     *
+     * @param options Параметры буфера подписчика.
+     *
+     * @return Издатель конвертов.
+     */
+    @NotNull
+    Publisher<StreamingEventEnvelope> envelopes(@NotNull StreamingSubscriptionOptions options);
+
+    /**
+     * Поток событий пачками. Пачка отдаётся подписчику, как только в ней набралось maxBatchSize событий или первое её
+     * событие ждёт дольше maxDelayMicros микросекунд. Запросы подписчика ({@code request(n)}) считаются в пачках.
+     *
+     * @param maxBatchSize   Наибольший размер пачки.
+     * @param maxDelayMicros Наибольшее время ожидания события в неполной пачке, в микросекундах.
+     *
+     * @return Издатель пачек событий.
+     */
+    @NotNull
+    Publisher<List<StreamingEvent>> batches(int maxBatchSize, long maxDelayMicros);
+
+    /**
+     * Поток событий пачками с предварительным фильтром и заданными параметрами буфера. Размер буфера считается в
+     * событиях, а не в пачках.
+     *
+     * @param filter         Фильтр событий или null, если нужны все события.
+     * @param maxBatchSize   Наибольший размер пачки.
+     * @param maxDelayMicros Наибольшее время ожидания события в неполной пачке, в микросекундах.
+     * @param options        Параметры буфера подписчика.
+     *
+     * @return Издатель пачек событий.
+     */
+    @NotNull
+    Publisher<List<StreamingEvent>> batches(@Nullable Predicate<? super StreamingEventEnvelope> filter,
+                                            int maxBatchSize,
+                                            long maxDelayMicros,
+                                            @NotNull StreamingSubscriptionOptions options);
+
+    /**
+     * Регистрация обработчика событий - альтернатива подписке для чувствительного к задержкам кода. Обработчик
+     * получает все события, приходящие по открытым подпискам, в потоке их разбора, без очередей и без создания
+     * объектов свечей и стаканов.
+     *
+     * @param handler Обработчик.
+     */
+    void addHandler(@NotNull StreamingEventHandler handler);
+
+    /**
+     * Отмена регистрации обработчика событий.
+     *
+     * @param handler Обработчик.
+     */
+    void removeHandler(@NotNull StreamingEventHandler handler);
+
+    /**
+     * Закрытие контекста: закрываются все соединения, останавливаются его фоновые потоки, подписки отменяются, а
+     * незавершённые массовые отправки завершаются с {@link IllegalStateException}. После закрытия запросы бросают
+     * {@link IllegalStateException}. Повторное закрытие ничего не делает.
+     */
+    @Override
+    void close();
+}
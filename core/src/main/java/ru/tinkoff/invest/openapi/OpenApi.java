@@ -1,6 +1,7 @@
 package ru.tinkoff.invest.openapi;
 
 import org.jetbrains.annotations.NotNull;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventDecoder;
 
 import java.io.Closeable;
 import java.io.FileNotFoundException;
@@ -79,7 +80,79 @@ public abstract class OpenApi implements Closeable {
         final String sandboxHost = prop.getProperty("ru.tinkoff.invest.openapi.host-sandbox");
         final String streamingHost = prop.getProperty("ru.tinkoff.invest.openapi.streaming");
         final int streamingParallelism = Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-parallelism"));
-
-        return new OpenApiConfig(host, sandboxHost, streamingHost, streamingParallelism);
+        final boolean streamingLegacyDecoder =
+                Boolean.parseBoolean(prop.getProperty("ru.tinkoff.invest.openapi.streaming-legacy-decoder", "false"));
+        final StreamingEventDecoder.PriceMode streamingPriceMode = StreamingEventDecoder.PriceMode.valueOf(
+                prop.getProperty("ru.tinkoff.invest.openapi.streaming-price-mode", "decimal").trim().toUpperCase().replace('-', '_'));
+        final int streamingPriceScale = Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-price-scale",
+                Integer.toString(StreamingEventDecoder.DEFAULT_PRICE_SCALE)).trim());
+        final boolean streamingFlatOrderbooks =
+                Boolean.parseBoolean(prop.getProperty("ru.tinkoff.invest.openapi.streaming-flat-orderbooks", "false"));
+        final int streamingDecodeThreads =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-decode-threads", "0").trim());
+        final int streamingDecodeQueueSize =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-decode-queue-size", "65536").trim());
+        final StreamingSubscriptionOptions.OverflowPolicy streamingDecodeOverflowPolicy =
+                StreamingSubscriptionOptions.OverflowPolicy.valueOf(prop.getProperty(
+                        "ru.tinkoff.invest.openapi.streaming-decode-overflow-policy", "block").trim().toUpperCase().replace('-', '_'));
+        final int streamingDrainBatchSize =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-drain-batch-size", "64").trim());
+        final double streamingRebalanceThreshold =
+                Double.parseDouble(prop.getProperty("ru.tinkoff.invest.openapi.streaming-rebalance-threshold", "0").trim());
+        final int streamingMinParallelism =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-min-parallelism",
+                        String.valueOf(streamingParallelism)).trim());
+        final boolean streamingLazyConnect =
+                Boolean.parseBoolean(prop.getProperty("ru.tinkoff.invest.openapi.streaming-lazy-connect", "false").trim());
+        final int streamingSubscriptionsPerConnection =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-subscriptions-per-connection", "100").trim());
+        final int streamingMessagesPerConnection =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-messages-per-connection", "2000").trim());
+        final int streamingRequestsPerSecond =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-requests-per-second", "50").trim());
+        final long streamingAckTimeoutMillis =
+                Long.parseLong(prop.getProperty("ru.tinkoff.invest.openapi.streaming-ack-timeout-millis", "3000").trim());
+        final long streamingReconnectBaseDelayMillis =
+                Long.parseLong(prop.getProperty("ru.tinkoff.invest.openapi.streaming-reconnect-base-delay-millis", "500").trim());
+        final long streamingReconnectMaxDelayMillis =
+                Long.parseLong(prop.getProperty("ru.tinkoff.invest.openapi.streaming-reconnect-max-delay-millis", "30000").trim());
+        final int streamingReconnectAttempts =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-reconnect-attempts", "10").trim());
+        final boolean streamingBackfill =
+                Boolean.parseBoolean(prop.getProperty("ru.tinkoff.invest.openapi.streaming-backfill", "false").trim());
+        final int streamingBackfillParallelism =
+                Integer.parseInt(prop.getProperty("ru.tinkoff.invest.openapi.streaming-backfill-parallelism", "4").trim());
+        final long streamingStaleSubscriptionMillis =
+                Long.parseLong(prop.getProperty("ru.tinkoff.invest.openapi.streaming-stale-subscription-millis", "0").trim());
+        final long streamingStaleShardMillis =
+                Long.parseLong(prop.getProperty("ru.tinkoff.invest.openapi.streaming-stale-shard-millis", "0").trim());
+        final String streamingTradingHours =
+                prop.getProperty("ru.tinkoff.invest.openapi.streaming-trading-hours", "10:00-23:50").trim();
+
+        return OpenApiConfig.builder(host, sandboxHost, streamingHost, streamingParallelism)
+                .streamingLegacyDecoder(streamingLegacyDecoder)
+                .streamingPriceMode(streamingPriceMode)
+                .streamingPriceScale(streamingPriceScale)
+                .streamingFlatOrderbooks(streamingFlatOrderbooks)
+                .streamingDecodeThreads(streamingDecodeThreads)
+                .streamingDecodeQueueSize(streamingDecodeQueueSize)
+                .streamingDecodeOverflowPolicy(streamingDecodeOverflowPolicy)
+                .streamingDrainBatchSize(streamingDrainBatchSize)
+                .streamingRebalanceThreshold(streamingRebalanceThreshold)
+                .streamingMinParallelism(streamingMinParallelism)
+                .streamingLazyConnect(streamingLazyConnect)
+                .streamingSubscriptionsPerConnection(streamingSubscriptionsPerConnection)
+                .streamingMessagesPerConnection(streamingMessagesPerConnection)
+                .streamingRequestsPerSecond(streamingRequestsPerSecond)
+                .streamingAckTimeoutMillis(streamingAckTimeoutMillis)
+                .streamingReconnectBaseDelayMillis(streamingReconnectBaseDelayMillis)
+                .streamingReconnectMaxDelayMillis(streamingReconnectMaxDelayMillis)
+                .streamingReconnectAttempts(streamingReconnectAttempts)
+                .streamingBackfill(streamingBackfill)
+                .streamingBackfillParallelism(streamingBackfillParallelism)
+                .streamingStaleSubscriptionMillis(streamingStaleSubscriptionMillis)
+                .streamingStaleShardMillis(streamingStaleShardMillis)
+                .streamingTradingHours(streamingTradingHours)
+                .build();
     }
 }
@@ -1,20 +1,432 @@
 package ru.tinkoff.invest.openapi;
 
 import org.jetbrains.annotations.NotNull;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventDecoder;
 
 public class OpenApiConfig {
     @NotNull public final String marketApiUrl;
     @NotNull public final String sandboxApiUrl;
     @NotNull public final String streamingUrl;
+    /**
+     * Наибольшее число соединений streaming.
+     */
     public final int streamingParallelism;
+    /**
+     * Разбирать события streaming прежним способом, через промежуточное дерево JSON.
+     */
+    public final boolean streamingLegacyDecoder;
+    /**
+     * Представление цен в событиях свечей и стаканов.
+     */
+    @NotNull public final StreamingEventDecoder.PriceMode streamingPriceMode;
+    /**
+     * Масштаб цен по умолчанию для {@link StreamingEventDecoder.PriceMode#FIXED_POINT}.
+     */
+    public final int streamingPriceScale;
+    /**
+     * Разбирать стаканы в {@link ru.tinkoff.invest.openapi.model.streaming.FixedPointOrderbook} и при BigDecimal-ценах.
+     */
+    public final boolean streamingFlatOrderbooks;
+    /**
+     * Число потоков декодирования событий streaming. При 0 события декодируются в потоках чтения сокетов, при
+     * отрицательном значении используется число доступных процессоров.
+     */
+    public final int streamingDecodeThreads;
+    /**
+     * Вместимость очереди каждого потока декодирования streaming.
+     */
+    public final int streamingDecodeQueueSize;
+    /**
+     * Поведение при переполнении очереди потока декодирования. {@code BLOCK} задерживает поток чтения сокета,
+     * {@code FAIL} переоткрывает соединение, сообщение которого не поместилось.
+     */
+    @NotNull public final StreamingSubscriptionOptions.OverflowPolicy streamingDecodeOverflowPolicy;
+    /**
+     * Наибольшее число сигналов, которое подписка streaming обрабатывает за одну задачу исполнителя, прежде чем
+     * уступить поток другим подпискам.
+     */
+    public final int streamingDrainBatchSize;
+    /**
+     * Во сколько раз нагрузка самого загруженного соединения streaming должна превысить среднюю, чтобы одна из его
+     * подписок была перенесена на наименее загруженное соединение. При 0 перераспределение отключено.
+     */
+    public final double streamingRebalanceThreshold;
+    /**
+     * Наименьшее число соединений streaming, открываемых при запуске. Пул растёт до {@link #streamingParallelism} по мере
+     * роста числа подписок и потока сообщений и сокращается обратно, когда нагрузка падает. По умолчанию равно
+     * {@link #streamingParallelism}: открываются все соединения, и размер пула не меняется.
+     */
+    public final int streamingMinParallelism;
+    /**
+     * Откладывать установку соединения streaming до первого запроса, который на него попадает, или до
+     * {@link StreamingContext#warmUp()}. По умолчанию соединения устанавливаются при создании контекста.
+     */
+    public final boolean streamingLazyConnect;
+    /**
+     * Число подписок на одно соединение streaming, при превышении которого открывается новое соединение.
+     */
+    public final int streamingSubscriptionsPerConnection;
+    /**
+     * Число входящих сообщений в секунду на одно соединение streaming, при превышении которого открывается новое
+     * соединение.
+     */
+    public final int streamingMessagesPerConnection;
+    /**
+     * Наибольшее число запросов в секунду на одно соединение streaming. Запросы сверх этого ждут в очереди
+     * соединения, где встречные подписка и отписка на одну и ту же пару взаимно уничтожаются. Восстановленное
+     * соединение начинает с полным запасом запросов на секунду, но остальные его подписки повторяются с той же
+     * скоростью: N подписок восстанавливаются примерно за N / streamingRequestsPerSecond секунд.
+     */
+    public final int streamingRequestsPerSecond;
+    /**
+     * Сколько миллисекунд после массовой отправки запросов ждать ошибок по ним, прежде чем считать запросы
+     * выполненными.
+     */
+    public final long streamingAckTimeoutMillis;
+    /**
+     * Задержка перед первой попыткой переподключения streaming, в миллисекундах. С каждой следующей неудачной
+     * попыткой задержка удваивается.
+     */
+    public final long streamingReconnectBaseDelayMillis;
+    /**
+     * Наибольшая задержка перед попыткой переподключения streaming, в миллисекундах.
+     */
+    public final long streamingReconnectMaxDelayMillis;
+    /**
+     * Число попыток переподключения соединения streaming подряд, после которого контекст streaming закрывается:
+     * закрываются все его соединения, а подписки отменяются.
+     */
+    public final int streamingReconnectAttempts;
+    /**
+     * Восстанавливать через REST API свечи, пропущенные за время переподключения streaming.
+     */
+    public final boolean streamingBackfill;
+    /**
+     * Наибольшее число одновременных запросов свечей при восстановлении пропущенных свечей.
+     */
+    public final int streamingBackfillParallelism;
+    /**
+     * Время без событий по подписке на свечи или стакан, после которого она переподписывается, в миллисекундах.
+     * 0 - не проверять.
+     */
+    public final long streamingStaleSubscriptionMillis;
+    /**
+     * Время без входящих сообщений на соединении с подписками, после которого оно переоткрывается, в миллисекундах.
+     * 0 - не проверять.
+     */
+    public final long streamingStaleShardMillis;
+    /**
+     * Время торгов по Москве в виде "HH:mm-HH:mm", в течение которого проверяется поступление событий.
+     * Пустая строка - проверять круглосуточно.
+     */
+    @NotNull public final String streamingTradingHours;
+
+    private OpenApiConfig(@NotNull final Builder builder) {
+        this.marketApiUrl = builder.marketApiUrl;
+        this.sandboxApiUrl = builder.sandboxApiUrl;
+        this.streamingUrl = builder.streamingUrl;
+        this.streamingParallelism = builder.streamingParallelism;
+        this.streamingLegacyDecoder = builder.streamingLegacyDecoder;
+        this.streamingPriceMode = builder.streamingPriceMode;
+        this.streamingPriceScale = builder.streamingPriceScale;
+        this.streamingFlatOrderbooks = builder.streamingFlatOrderbooks;
+        this.streamingDecodeThreads = builder.streamingDecodeThreads;
+        this.streamingDecodeQueueSize = builder.streamingDecodeQueueSize;
+        this.streamingDecodeOverflowPolicy = builder.streamingDecodeOverflowPolicy;
+        this.streamingDrainBatchSize = builder.streamingDrainBatchSize;
+        this.streamingRebalanceThreshold = builder.streamingRebalanceThreshold;
+        this.streamingMinParallelism = builder.streamingMinParallelism;
+        this.streamingLazyConnect = builder.streamingLazyConnect;
+        this.streamingSubscriptionsPerConnection = builder.streamingSubscriptionsPerConnection;
+        this.streamingMessagesPerConnection = builder.streamingMessagesPerConnection;
+        this.streamingRequestsPerSecond = builder.streamingRequestsPerSecond;
+        this.streamingAckTimeoutMillis = builder.streamingAckTimeoutMillis;
+        this.streamingReconnectBaseDelayMillis = builder.streamingReconnectBaseDelayMillis;
+        this.streamingReconnectMaxDelayMillis = builder.streamingReconnectMaxDelayMillis;
+        this.streamingReconnectAttempts = builder.streamingReconnectAttempts;
+        this.streamingBackfill = builder.streamingBackfill;
+        this.streamingBackfillParallelism = builder.streamingBackfillParallelism;
+        this.streamingStaleSubscriptionMillis = builder.streamingStaleSubscriptionMillis;
+        this.streamingStaleShardMillis = builder.streamingStaleShardMillis;
+        this.streamingTradingHours = builder.streamingTradingHours;
+    }
 
     public OpenApiConfig(@NotNull final String marketApiUrl,
                          @NotNull final String sandboxApiUrl,
                          @NotNull final String streamingUrl,
                          final int streamingParallelism) {
-        this.marketApiUrl = marketApiUrl;
-        this.sandboxApiUrl = sandboxApiUrl;
-        this.streamingUrl = streamingUrl;
-        this.streamingParallelism = streamingParallelism;
+        this(builder(marketApiUrl, sandboxApiUrl, streamingUrl, streamingParallelism));
+    }
+
+    /**
+     * Построение параметров, не заданных в {@link #OpenApiConfig(String, String, String, int)}. Незаданные параметры
+     * получают те же значения, что и в этом конструкторе.
+     *
+     * @return Построитель параметров.
+     */
+    @NotNull
+    public static Builder builder(@NotNull final String marketApiUrl,
+                                  @NotNull final String sandboxApiUrl,
+                                  @NotNull final String streamingUrl,
+                                  final int streamingParallelism) {
+        return new Builder(marketApiUrl, sandboxApiUrl, streamingUrl, streamingParallelism);
+    }
+
+    /**
+     * Построитель параметров конфигурации. Каждый метод задаёт одноимённое поле {@link OpenApiConfig}.
+     */
+    public static final class Builder {
+        @NotNull private final String marketApiUrl;
+        @NotNull private final String sandboxApiUrl;
+        @NotNull private final String streamingUrl;
+        private final int streamingParallelism;
+        private boolean streamingLegacyDecoder = false;
+        @NotNull private StreamingEventDecoder.PriceMode streamingPriceMode = StreamingEventDecoder.PriceMode.DECIMAL;
+        private int streamingPriceScale = StreamingEventDecoder.DEFAULT_PRICE_SCALE;
+        private boolean streamingFlatOrderbooks = false;
+        private int streamingDecodeThreads = 0;
+        private int streamingDecodeQueueSize = 65536;
+        @NotNull private StreamingSubscriptionOptions.OverflowPolicy streamingDecodeOverflowPolicy =
+                StreamingSubscriptionOptions.OverflowPolicy.BLOCK;
+        private int streamingDrainBatchSize = 64;
+        private double streamingRebalanceThreshold = 0.0;
+        private int streamingMinParallelism;
+        private boolean streamingLazyConnect = false;
+        private int streamingSubscriptionsPerConnection = 100;
+        private int streamingMessagesPerConnection = 2000;
+        private int streamingRequestsPerSecond = 50;
+        private long streamingAckTimeoutMillis = 3000L;
+        private long streamingReconnectBaseDelayMillis = 500L;
+        private long streamingReconnectMaxDelayMillis = 30000L;
+        private int streamingReconnectAttempts = 10;
+        private boolean streamingBackfill = false;
+        private int streamingBackfillParallelism = 4;
+        private long streamingStaleSubscriptionMillis = 0L;
+        private long streamingStaleShardMillis = 0L;
+        @NotNull private String streamingTradingHours = "10:00-23:50";
+
+        private Builder(@NotNull final String marketApiUrl,
+                        @NotNull final String sandboxApiUrl,
+                        @NotNull final String streamingUrl,
+                        final int streamingParallelism) {
+            this.marketApiUrl = marketApiUrl;
+            this.sandboxApiUrl = sandboxApiUrl;
+            this.streamingUrl = streamingUrl;
+            this.streamingParallelism = streamingParallelism;
+            this.streamingMinParallelism = streamingParallelism;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingLegacyDecoder
+         */
+        @NotNull
+        public Builder streamingLegacyDecoder(final boolean streamingLegacyDecoder) {
+            this.streamingLegacyDecoder = streamingLegacyDecoder;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingPriceMode
+         */
+        @NotNull
+        public Builder streamingPriceMode(@NotNull final StreamingEventDecoder.PriceMode streamingPriceMode) {
+            this.streamingPriceMode = streamingPriceMode;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingPriceScale
+         */
+        @NotNull
+        public Builder streamingPriceScale(final int streamingPriceScale) {
+            this.streamingPriceScale = streamingPriceScale;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingFlatOrderbooks
+         */
+        @NotNull
+        public Builder streamingFlatOrderbooks(final boolean streamingFlatOrderbooks) {
+            this.streamingFlatOrderbooks = streamingFlatOrderbooks;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingDecodeThreads
+         */
+        @NotNull
+        public Builder streamingDecodeThreads(final int streamingDecodeThreads) {
+            this.streamingDecodeThreads = streamingDecodeThreads;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingDecodeQueueSize
+         */
+        @NotNull
+        public Builder streamingDecodeQueueSize(final int streamingDecodeQueueSize) {
+            this.streamingDecodeQueueSize = streamingDecodeQueueSize;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingDecodeOverflowPolicy
+         */
+        @NotNull
+        public Builder streamingDecodeOverflowPolicy(
+                @NotNull final StreamingSubscriptionOptions.OverflowPolicy streamingDecodeOverflowPolicy) {
+            this.streamingDecodeOverflowPolicy = streamingDecodeOverflowPolicy;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingDrainBatchSize
+         */
+        @NotNull
+        public Builder streamingDrainBatchSize(final int streamingDrainBatchSize) {
+            this.streamingDrainBatchSize = streamingDrainBatchSize;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingRebalanceThreshold
+         */
+        @NotNull
+        public Builder streamingRebalanceThreshold(final double streamingRebalanceThreshold) {
+            this.streamingRebalanceThreshold = streamingRebalanceThreshold;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingMinParallelism
+         */
+        @NotNull
+        public Builder streamingMinParallelism(final int streamingMinParallelism) {
+            this.streamingMinParallelism = streamingMinParallelism;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingLazyConnect
+         */
+        @NotNull
+        public Builder streamingLazyConnect(final boolean streamingLazyConnect) {
+            this.streamingLazyConnect = streamingLazyConnect;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingSubscriptionsPerConnection
+         */
+        @NotNull
+        public Builder streamingSubscriptionsPerConnection(final int streamingSubscriptionsPerConnection) {
+            this.streamingSubscriptionsPerConnection = streamingSubscriptionsPerConnection;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingMessagesPerConnection
+         */
+        @NotNull
+        public Builder streamingMessagesPerConnection(final int streamingMessagesPerConnection) {
+            this.streamingMessagesPerConnection = streamingMessagesPerConnection;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingRequestsPerSecond
+         */
+        @NotNull
+        public Builder streamingRequestsPerSecond(final int streamingRequestsPerSecond) {
+            this.streamingRequestsPerSecond = streamingRequestsPerSecond;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingAckTimeoutMillis
+         */
+        @NotNull
+        public Builder streamingAckTimeoutMillis(final long streamingAckTimeoutMillis) {
+            this.streamingAckTimeoutMillis = streamingAckTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingReconnectBaseDelayMillis
+         */
+        @NotNull
+        public Builder streamingReconnectBaseDelayMillis(final long streamingReconnectBaseDelayMillis) {
+            this.streamingReconnectBaseDelayMillis = streamingReconnectBaseDelayMillis;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingReconnectMaxDelayMillis
+         */
+        @NotNull
+        public Builder streamingReconnectMaxDelayMillis(final long streamingReconnectMaxDelayMillis) {
+            this.streamingReconnectMaxDelayMillis = streamingReconnectMaxDelayMillis;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingReconnectAttempts
+         */
+        @NotNull
+        public Builder streamingReconnectAttempts(final int streamingReconnectAttempts) {
+            this.streamingReconnectAttempts = streamingReconnectAttempts;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingBackfill
+         */
+        @NotNull
+        public Builder streamingBackfill(final boolean streamingBackfill) {
+            this.streamingBackfill = streamingBackfill;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingBackfillParallelism
+         */
+        @NotNull
+        public Builder streamingBackfillParallelism(final int streamingBackfillParallelism) {
+            this.streamingBackfillParallelism = streamingBackfillParallelism;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingStaleSubscriptionMillis
+         */
+        @NotNull
+        public Builder streamingStaleSubscriptionMillis(final long streamingStaleSubscriptionMillis) {
+            this.streamingStaleSubscriptionMillis = streamingStaleSubscriptionMillis;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingStaleShardMillis
+         */
+        @NotNull
+        public Builder streamingStaleShardMillis(final long streamingStaleShardMillis) {
+            this.streamingStaleShardMillis = streamingStaleShardMillis;
+            return this;
+        }
+
+        /**
+         * @see OpenApiConfig#streamingTradingHours
+         */
+        @NotNull
+        public Builder streamingTradingHours(@NotNull final String streamingTradingHours) {
+            this.streamingTradingHours = streamingTradingHours;
+            return this;
+        }
+
+        @NotNull
+        public OpenApiConfig build() {
+            return new OpenApiConfig(this);
+        }
     }
 }
@@ -0,0 +1,117 @@
+package ru.tinkoff.invest.openapi;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Общие подписки streaming для нескольких потребителей в одном процессе.
+ *
+ * Подписки учитываются по {@code onOffPairId}: запрос подписки уходит на сервер только при первой ссылке на неё, а
+ * запрос отписки - только при закрытии последней. Так несколько стратегий, подписанных на одни и те же свечи или
+ * стаканы, получают события из одной подписки на сервере, и отписка одной из них не обрывает поток для остальных.
+ * Каждая ссылка - отдельный {@link Lease}, поэтому потребитель может снять только свои ссылки.
+ *
+ * Подписки, оформленные в обход этого объекта напрямую через {@link StreamingContext}, не учитываются.
+ */
+public final class SharedStreamingSubscriptions {
+
+    private final StreamingContext context;
+    // Guarded by `this`; requests are sent under the same lock so the server sees them in counting order
+    private final Map<String, Integer> references;
+
+    /**
+     * @param context Контекст streaming, через который отправляются запросы.
+     */
+    public SharedStreamingSubscriptions(@NotNull final StreamingContext context) {
+        this.context = context;
+        this.references = new HashMap<>();
+    }
+
+    /**
+     * Ссылка на общую подписку. Закрытие снимает ровно одну ссылку; повторное закрытие ничего не делает.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final String onOffPairId;
+        @NotNull private final StreamingRequest.DeactivatingRequest unsubscribeRequest;
+        // Guarded by the owning `SharedStreamingSubscriptions`
+        private boolean closed;
+
+        private Lease(@NotNull final String onOffPairId,
+                      @NotNull final StreamingRequest.DeactivatingRequest unsubscribeRequest) {
+            this.onOffPairId = onOffPairId;
+            this.unsubscribeRequest = unsubscribeRequest;
+        }
+
+        @NotNull
+        public String getOnOffPairId() {
+            return onOffPairId;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    /**
+     * Добавление ссылки на подписку. Запрос подписки отправляется на сервер, только если ссылка первая.
+     *
+     * @param request Запрос подписки на свечи, стакан или информацию об инструменте.
+     *
+     * @return Ссылка, закрытие которой снимает её с подписки.
+     *
+     * @throws UnsupportedOperationException Если для запроса неизвестен парный запрос отписки
+     *                                       ({@link StreamingRequest.ActivatingRequest#toUnsubscribe()}).
+     */
+    @NotNull
+    public synchronized Lease subscribe(@NotNull final StreamingRequest.ActivatingRequest request) {
+        final StreamingRequest.DeactivatingRequest unsubscribeRequest = request.toUnsubscribe();
+        final String onOffPairId = request.onOffPairId();
+        final Integer count = references.get(onOffPairId);
+        if (count != null) {
+            references.put(onOffPairId, count + 1);
+        } else {
+            context.sendRequest(request);
+            references.put(onOffPairId, 1);
+        }
+        return new Lease(onOffPairId, unsubscribeRequest);
+    }
+
+    /**
+     * Число ссылок на подписку.
+     *
+     * @param onOffPairId Идентификатор пары запросов подписки и отписки.
+     *
+     * @return Число ссылок или 0, если подписки нет.
+     */
+    public synchronized int getReferenceCount(@NotNull final String onOffPairId) {
+        final Integer count = references.get(onOffPairId);
+        return count == null ? 0 : count;
+    }
+
+    @NotNull
+    public StreamingContext getContext() {
+        return context;
+    }
+
+    // The unsubscribe request is sent only when the last lease is closed
+    private synchronized void release(@NotNull final Lease lease) {
+        if (lease.closed) {
+            return;
+        }
+        lease.closed = true;
+        final int count = references.get(lease.onOffPairId);
+        if (count > 1) {
+            references.put(lease.onOffPairId, count - 1);
+            return;
+        }
+
+        references.remove(lease.onOffPairId);
+        context.sendRequest(lease.unsubscribeRequest);
+    }
+}
@@ -2,11 +2,109 @@ package ru.tinkoff.invest.openapi;
 
 import org.jetbrains.annotations.NotNull;
 import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
 
 import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
 import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Контекст streaming.
+ *
+ * Все методы, кроме {@link #sendRequest(StreamingRequest)} и {@link #subscribe(Subscriber)}, имеют реализации по
+ * умолчанию, чтобы сторонние реализации интерфейса не приходилось менять при его расширении. Возможности, которые
+ * нельзя выразить через эти два метода, вынесены в {@link ExtendedStreamingContext}.
+ */
 @SuppressWarnings("ReactiveStreamsPublisherImplementation")
 public interface StreamingContext extends Publisher<StreamingEvent> {
     void sendRequest(@NotNull StreamingRequest request);
+
+    /**
+     * Установка соединений заранее. При {@link OpenApiConfig#streamingLazyConnect} без этого соединение
+     * устанавливается при первом запросе, который на него попадает, поэтому контекст, через который ничего не
+     * запрашивают, не открывает ни одного соединения.
+     *
+     * По умолчанию ничего не делает.
+     */
+    default void warmUp() {
+    }
+
+    /**
+     * Массовая отправка запросов, например подписка на весь рынок при запуске.
+     *
+     * Перед отправкой пул соединений расширяется под число подписок, запросы распределяются по соединениям так же,
+     * как в {@link #sendRequest(StreamingRequest)}, и отправляются не быстрее
+     * {@link OpenApiConfig#streamingRequestsPerSecond} запросов в секунду на соединение. Запросам без идентификатора
+     * присваивается сгенерированный: по нему ошибки streaming сопоставляются с запросами. Сервер не подтверждает
+     * успешные запросы, поэтому запрос считается выполненным, если ошибка по нему не пришла в течение
+     * {@link OpenApiConfig#streamingAckTimeoutMillis} миллисекунд после отправки последнего запроса. Подписка, по
+     * которой пришла ошибка, не восстанавливается при переподключении. Запрос, который отменил или заменил другой
+     * запрос по той же паре {@code onOffPairId}, пока оба ждали отправки, не отправляется и получает итог
+     * {@link StreamingRequestOutcome.Status#COALESCED}.
+     *
+     * По умолчанию запросы отправляются по одному через {@link #sendRequest(StreamingRequest)}, а ошибки по ним не
+     * отслеживаются: все запросы получают итог {@link StreamingRequestOutcome.Status#ACCEPTED}.
+     *
+     * @param requests Запросы. Идентификаторы, заданные в запросах, не должны повторяться.
+     *
+     * @return Итоги запросов в порядке их следования в {@code requests}.
+     *
+     * @throws IllegalArgumentException Если идентификатор запроса повторяется или уже используется другой
+     *                                  незавершённой массовой отправкой.
+     */
+    @NotNull
+    default CompletableFuture<List<StreamingRequestOutcome>> sendRequests(
+            @NotNull final Collection<? extends StreamingRequest> requests) {
+        final List<StreamingRequestOutcome> outcomes = new ArrayList<>(requests.size());
+        for (final StreamingRequest request : requests) {
+            sendRequest(request);
+            outcomes.add(new StreamingRequestOutcome(request, StreamingRequestOutcome.Status.ACCEPTED, null));
+        }
+        return CompletableFuture.completedFuture(outcomes);
+    }
+
+    /**
+     * Дублирование подписок инструмента на двух соединениях. Подписки на свечи и стаканы инструмента, оформленные
+     * после включения, отправляются на два разных соединения, а из двух копий каждого события подписчикам и
+     * обработчикам доставляется пришедшая первой. Это сглаживает задержки отдельного соединения ценой двойного
+     * трафика по инструменту. Отписка снимает обе копии. Требует {@link OpenApiConfig#streamingParallelism} не
+     * меньше 2. После выключения копии событий больше не отбрасываются, поэтому уже продублированные подписки до
+     * отписки доставляют каждое событие дважды.
+     *
+     * По умолчанию ничего не делает: подписки не дублируются.
+     *
+     * @param figi   Идентификатор инструмента.
+     * @param hedged Дублировать ли новые подписки.
+     */
+    default void setHedged(@NotNull final String figi, final boolean hedged) {
+    }
+
+    /**
+     * Текущая длина очередей стадии декодирования, по одной на каждый поток декодирования. Каждая очередь вмещает не
+     * больше {@link OpenApiConfig#streamingDecodeQueueSize} сообщений.
+     *
+     * @return Длины очередей или пустой массив, если сообщения декодируются в потоках чтения сокетов.
+     */
+    @NotNull
+    default int[] getDecodeQueueDepths() {
+        return new int[0];
+    }
+
+    /**
+     * Состояние соединений streaming: время установки соединения, скорость сообщений и время последнего события по
+     * каждой подписке.
+     *
+     * По умолчанию возвращает пустой список.
+     *
+     * @return Состояние каждого используемого соединения.
+     */
+    @NotNull
+    default List<StreamingShardHealth> getHealth() {
+        return Collections.emptyList();
+    }
 }
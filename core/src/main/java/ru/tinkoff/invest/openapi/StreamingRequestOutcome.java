@@ -0,0 +1,82 @@
+package ru.tinkoff.invest.openapi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.util.Optional;
+
+/**
+ * Итог одного запроса из {@link StreamingContext#sendRequests(java.util.Collection)}.
+ */
+public final class StreamingRequestOutcome {
+
+    public enum Status {
+        /**
+         * Запрос отправлен, и ошибка по нему не пришла.
+         */
+        ACCEPTED,
+        /**
+         * Сервер ответил на запрос ошибкой.
+         */
+        REJECTED,
+        /**
+         * Запрос не отправлялся: пока он ждал в очереди, его отменил противоположный запрос по той же паре
+         * {@code onOffPairId} или заменил повторный.
+         */
+        COALESCED
+    }
+
+    /**
+     * Запрос в том виде, в котором он был передан.
+     */
+    private final StreamingRequest request;
+
+    /**
+     * Итог запроса.
+     */
+    private final Status status;
+
+    /**
+     * Ошибка по запросу.
+     */
+    private final StreamingEvent.Error error;
+
+    /**
+     * @param request Запрос в том виде, в котором он был передан.
+     * @param status  Итог запроса.
+     * @param error   Ошибка по запросу или null, если запрос не отклонён.
+     */
+    public StreamingRequestOutcome(@NotNull final StreamingRequest request,
+                                   @NotNull final Status status,
+                                   @Nullable final StreamingEvent.Error error) {
+        this.request = request;
+        this.status = status;
+        this.error = error;
+    }
+
+    @NotNull
+    public StreamingRequest getRequest() {
+        return request;
+    }
+
+    @NotNull
+    public Status getStatus() {
+        return status;
+    }
+
+    @NotNull
+    public Optional<StreamingEvent.Error> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingRequestOutcome(request = " + request +
+                ", status = " + status +
+                ", error = " + error +
+                ")";
+    }
+}
@@ -0,0 +1,120 @@
+package ru.tinkoff.invest.openapi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Состояние одного соединения streaming на момент запроса.
+ *
+ * Время последнего события по подписке учитывает только события, пришедшие по этому соединению: у копий подписки,
+ * продублированной на двух соединениях, оно своё.
+ */
+public final class StreamingShardHealth {
+
+    /**
+     * Номер соединения, начиная с 1.
+     */
+    private final int shard;
+
+    /**
+     * Соединение открыто.
+     */
+    private final boolean connected;
+
+    /**
+     * Время установки соединения (от запроса до открытия сокета) в миллисекундах.
+     */
+    private final long handshakeRttMillis;
+
+    /**
+     * Скорость входящих сообщений в секунду.
+     */
+    private final double messageRate;
+
+    /**
+     * Время последнего входящего сообщения.
+     */
+    private final Instant lastMessageAt;
+
+    /**
+     * Время последнего события по каждой подписке соединения. Подписки, по которым событий ещё не было, отсутствуют.
+     */
+    private final Map<String, Instant> lastEventAt;
+
+    /**
+     * Подписки, по которым события перестали приходить.
+     */
+    private final List<String> staleSubscriptions;
+
+    /**
+     * @param shard              Номер соединения, начиная с 1.
+     * @param connected          Соединение открыто.
+     * @param handshakeRttMillis Время установки соединения в миллисекундах или -1, если соединение ещё не открывалось.
+     * @param messageRate        Скорость входящих сообщений в секунду.
+     * @param lastMessageAt      Время последнего входящего сообщения или null, если сообщений не было.
+     * @param lastEventAt        Время последнего события по подпискам (по onOffPairId).
+     * @param staleSubscriptions Подписки (onOffPairId), по которым события перестали приходить.
+     */
+    public StreamingShardHealth(final int shard,
+                                final boolean connected,
+                                final long handshakeRttMillis,
+                                final double messageRate,
+                                @Nullable final Instant lastMessageAt,
+                                @NotNull final Map<String, Instant> lastEventAt,
+                                @NotNull final List<String> staleSubscriptions) {
+        this.shard = shard;
+        this.connected = connected;
+        this.handshakeRttMillis = handshakeRttMillis;
+        this.messageRate = messageRate;
+        this.lastMessageAt = lastMessageAt;
+        this.lastEventAt = Collections.unmodifiableMap(lastEventAt);
+        this.staleSubscriptions = Collections.unmodifiableList(staleSubscriptions);
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getHandshakeRttMillis() {
+        return handshakeRttMillis;
+    }
+
+    public double getMessageRate() {
+        return messageRate;
+    }
+
+    @Nullable
+    public Instant getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    @NotNull
+    public Map<String, Instant> getLastEventAt() {
+        return lastEventAt;
+    }
+
+    @NotNull
+    public List<String> getStaleSubscriptions() {
+        return staleSubscriptions;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingShardHealth(shard = " + shard +
+                ", connected = " + connected +
+                ", handshakeRttMillis = " + handshakeRttMillis +
+                ", messageRate = " + messageRate +
+                ", lastMessageAt = " + lastMessageAt +
+                ", staleSubscriptions = " + staleSubscriptions +
+                ")";
+    }
+}
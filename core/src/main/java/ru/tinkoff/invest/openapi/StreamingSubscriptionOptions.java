@@ -0,0 +1,125 @@
+package ru.tinkoff.invest.openapi;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Параметры буферизации событий для подписчика streaming.
+ *
+ * События, которые подписчик ещё не запросил, копятся в буфере фиксированного размера. Что делать, когда буфер
+ * заполнен, определяет {@link OverflowPolicy}.
+ *
+ * В режиме прореживания (conflation) из стаканов и информации об инструменте в буфере остаётся только последнее
+ * недоставленное событие на каждый figi (и глубину стакана): отставший подписчик сразу получает актуальное состояние,
+ * а не всю историю изменений. Свечи и ошибки доставляются без потерь. Этот режим подходит для риск-менеджмента и
+ * отображения, но не для кода, которому важна каждая сделка.
+ */
+public final class StreamingSubscriptionOptions {
+
+    /**
+     * Поведение при переполнении буфера подписчика.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Ждать освобождения места. Ожидание происходит в потоке разбора сообщений, поэтому задерживает и остальных
+         * подписчиков того же соединения.
+         */
+        BLOCK,
+        /**
+         * Отбросить новое событие.
+         */
+        DROP_NEWEST,
+        /**
+         * Отбросить самое старое событие в буфере.
+         */
+        DROP_OLDEST,
+        /**
+         * Завершить подписку с ошибкой.
+         */
+        FAIL
+    }
+
+    /**
+     * Размер буфера по умолчанию.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+    private static final StreamingSubscriptionOptions DEFAULTS =
+            new StreamingSubscriptionOptions(DEFAULT_BUFFER_SIZE, OverflowPolicy.FAIL, false);
+
+    /**
+     * Размер буфера.
+     */
+    private final int bufferSize;
+
+    /**
+     * Поведение при переполнении буфера.
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Прореживание стаканов и информации об инструменте.
+     */
+    private final boolean conflating;
+
+    /**
+     * @param bufferSize     Размер буфера, округляется вверх до степени двойки.
+     * @param overflowPolicy Поведение при переполнении буфера.
+     * @param conflating     Оставлять в буфере только последний стакан и последнюю информацию по инструменту.
+     */
+    public StreamingSubscriptionOptions(final int bufferSize,
+                                        @NotNull final OverflowPolicy overflowPolicy,
+                                        final boolean conflating) {
+        if (bufferSize < 1 || bufferSize > (1 << 30)) {
+            throw new IllegalArgumentException("Размер буфера должен быть от 1 до 2^30");
+        }
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.conflating = conflating;
+    }
+
+    /**
+     * @param bufferSize     Размер буфера, округляется вверх до степени двойки.
+     * @param overflowPolicy Поведение при переполнении буфера.
+     */
+    public StreamingSubscriptionOptions(final int bufferSize, @NotNull final OverflowPolicy overflowPolicy) {
+        this(bufferSize, overflowPolicy, false);
+    }
+
+    /**
+     * Параметры по умолчанию: буфер на {@link #DEFAULT_BUFFER_SIZE} событий, при переполнении подписка завершается с
+     * ошибкой.
+     */
+    @NotNull
+    public static StreamingSubscriptionOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Параметры по умолчанию с прореживанием стаканов и информации об инструменте.
+     */
+    @NotNull
+    public static StreamingSubscriptionOptions conflating() {
+        return new StreamingSubscriptionOptions(DEFAULT_BUFFER_SIZE, OverflowPolicy.FAIL, true);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @NotNull
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public boolean isConflating() {
+        return conflating;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingSubscriptionOptions(bufferSize = " + bufferSize +
+                ", overflowPolicy = " + overflowPolicy +
+                ", conflating = " + conflating +
+                ")";
+    }
+}
@@ -0,0 +1,232 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+
+/**
+ * Операции над числами с фиксированной точкой, представленными мантиссой типа long и масштабом (числом знаков после
+ * запятой).
+ */
+public final class FixedPoint {
+
+    /**
+     * Максимальный поддерживаемый масштаб.
+     */
+    public static final int MAX_SCALE = 18;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[MAX_SCALE + 1];
+
+    static {
+        long power = 1;
+        for (int i = 0; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = power;
+            DOUBLE_POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Разбор десятичного числа из текста в мантиссу с заданным масштабом. Лишние знаки после запятой округляются
+     * по правилу HALF_UP.
+     *
+     * @param chars  Буфер с текстом числа.
+     * @param offset Начало числа в буфере.
+     * @param length Длина числа.
+     * @param scale  Масштаб результата.
+     *
+     * @return Мантисса числа.
+     *
+     * @throws NumberFormatException Если текст не является числом или его целая часть без учёта экспоненты не
+     *                               помещается в long.
+     * @throws ArithmeticException   Если текст - корректное число, но его мантисса в заданном масштабе не
+     *                               помещается в long; в меньшем масштабе она может поместиться.
+     */
+    public static long parse(@NotNull final char[] chars, final int offset, final int length, final int scale) {
+        checkScale(scale);
+
+        final int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+
+        long unscaled = 0;
+        int unscaledScale = 0;
+        int firstDroppedDigit = -1;
+        boolean seenDot = false;
+        boolean seenDigit = false;
+        for (; i < end; i++) {
+            final char ch = chars[i];
+            if (ch >= '0' && ch <= '9') {
+                seenDigit = true;
+                if (unscaled <= (Long.MAX_VALUE - 9) / 10) {
+                    unscaled = unscaled * 10 + (ch - '0');
+                    if (seenDot) unscaledScale++;
+                } else if (seenDot) {
+                    if (firstDroppedDigit < 0) firstDroppedDigit = ch - '0';
+                } else {
+                    throw new NumberFormatException("Число не помещается в long: " + new String(chars, offset, length));
+                }
+            } else if (ch == '.' && !seenDot) {
+                seenDot = true;
+            } else if (ch == 'e' || ch == 'E') {
+                break;
+            } else {
+                throw new NumberFormatException("Некорректное число: " + new String(chars, offset, length));
+            }
+        }
+        if (!seenDigit) {
+            throw new NumberFormatException("Некорректное число: " + new String(chars, offset, length));
+        }
+
+        int exponent = 0;
+        if (i < end) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                throw new NumberFormatException("Некорректное число: " + new String(chars, offset, length));
+            }
+            for (; i < end; i++) {
+                final char ch = chars[i];
+                if (ch < '0' || ch > '9') {
+                    throw new NumberFormatException("Некорректное число: " + new String(chars, offset, length));
+                }
+                if (exponent < 1000) exponent = exponent * 10 + (ch - '0');
+            }
+            if (negativeExponent) exponent = -exponent;
+        }
+
+        long result = rescaleUnsigned(unscaled, scale - unscaledScale + exponent);
+        if (scale - unscaledScale + exponent == 0 && firstDroppedDigit >= 5) {
+            result++;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Перевод мантиссы из одного масштаба в другой с округлением по правилу HALF_UP.
+     *
+     * @param mantissa  Мантисса.
+     * @param fromScale Исходный масштаб.
+     * @param toScale   Требуемый масштаб.
+     *
+     * @return Мантисса в требуемом масштабе.
+     *
+     * @throws ArithmeticException Если результат не помещается в long.
+     */
+    public static long rescale(final long mantissa, final int fromScale, final int toScale) {
+        checkScale(fromScale);
+        checkScale(toScale);
+
+        if (mantissa < 0) {
+            return -rescaleUnsigned(-mantissa, toScale - fromScale);
+        } else {
+            return rescaleUnsigned(mantissa, toScale - fromScale);
+        }
+    }
+
+    /**
+     * Приближённое значение числа в виде double.
+     *
+     * @param mantissa Мантисса.
+     * @param scale    Масштаб.
+     *
+     * @return Значение числа.
+     */
+    public static double toDouble(final long mantissa, final int scale) {
+        checkScale(scale);
+        return mantissa / DOUBLE_POWERS_OF_TEN[scale];
+    }
+
+    /**
+     * Точное значение числа в виде BigDecimal.
+     *
+     * @param mantissa Мантисса.
+     * @param scale    Масштаб.
+     *
+     * @return Значение числа.
+     */
+    @NotNull
+    public static BigDecimal toBigDecimal(final long mantissa, final int scale) {
+        checkScale(scale);
+        return BigDecimal.valueOf(mantissa, scale);
+    }
+
+    /**
+     * Собственный масштаб десятичного числа: число знаков после запятой с учётом экспоненты, ограниченное
+     * диапазоном от 0 до {@link #MAX_SCALE}. Корректность текста не проверяется - это делает {@link #parse}.
+     *
+     * @param chars  Буфер с текстом числа.
+     * @param offset Начало числа в буфере.
+     * @param length Длина числа.
+     *
+     * @return Масштаб, в котором число представляется без потери знаков (если помещается в long).
+     */
+    static int naturalScale(@NotNull final char[] chars, final int offset, final int length) {
+        final int end = offset + length;
+        int fraction = 0;
+        boolean seenDot = false;
+        int i = offset;
+        for (; i < end; i++) {
+            final char ch = chars[i];
+            if (ch >= '0' && ch <= '9') {
+                if (seenDot) fraction++;
+            } else if (ch == '.') {
+                seenDot = true;
+            } else if (ch == 'e' || ch == 'E') {
+                break;
+            }
+        }
+
+        int exponent = 0;
+        if (i < end) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            for (; i < end; i++) {
+                final char ch = chars[i];
+                if (ch >= '0' && ch <= '9' && exponent < 1000) exponent = exponent * 10 + (ch - '0');
+            }
+            if (negativeExponent) exponent = -exponent;
+        }
+
+        return Math.max(0, Math.min(MAX_SCALE, fraction - exponent));
+    }
+
+    static void checkScale(final int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Масштаб должен быть от 0 до " + MAX_SCALE);
+        }
+    }
+
+    private static long rescaleUnsigned(final long value, final int shift) {
+        if (shift == 0 || value == 0) {
+            return value;
+        } else if (shift > 0) {
+            if (shift > MAX_SCALE) {
+                throw new ArithmeticException("Число не помещается в long");
+            }
+            return Math.multiplyExact(value, POWERS_OF_TEN[shift]);
+        } else if (-shift > MAX_SCALE) {
+            return 0;
+        } else {
+            final long divisor = POWERS_OF_TEN[-shift];
+            final long quotient = value / divisor;
+            return (value % divisor) * 2 >= divisor ? quotient + 1 : quotient;
+        }
+    }
+}
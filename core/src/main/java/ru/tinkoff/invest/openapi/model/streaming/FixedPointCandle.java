@@ -0,0 +1,250 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+/**
+ * Модель события с изменением свечи, в которой цены хранятся в виде мантисс с фиксированной точкой.
+ *
+ * Все цены события имеют один и тот же масштаб {@link #getScale()}, поэтому их можно сравнивать и складывать как
+ * обычные long. Объём торгов хранится в целых лотах.
+ */
+public class FixedPointCandle extends StreamingEvent {
+
+    /**
+     * Мантисса цены открытия.
+     */
+    private final long openPrice;
+
+    /**
+     * Мантисса цены закрытия.
+     */
+    private final long closingPrice;
+
+    /**
+     * Мантисса максимальной цены.
+     */
+    private final long highestPrice;
+
+    /**
+     * Мантисса минимальной цены.
+     */
+    private final long lowestPrice;
+
+    /**
+     * Объём торгов.
+     */
+    private final long tradingValue;
+
+    /**
+     * Масштаб цен.
+     */
+    private final int scale;
+
+    /**
+     * Дата/время формирования свечи в наносекундах от начала эпохи.
+     */
+    private final long epochNanos;
+
+    /**
+     * Дата/время формирования свечи. Строится из epochNanos при первом обращении.
+     */
+    private ZonedDateTime dateTime;
+
+    /**
+     * Временной интервал свечи.
+     */
+    private final CandleInterval interval;
+
+    /**
+     * Идентификатор инструмента.
+     */
+    private final String figi;
+
+    /**
+     * Свеча восстановлена через REST API после переподключения, а не получена из streaming.
+     */
+    private final boolean backfilled;
+
+    public FixedPointCandle(final long openPrice,
+                            final long closingPrice,
+                            final long highestPrice,
+                            final long lowestPrice,
+                            final long tradingValue,
+                            final int scale,
+                            final long epochNanos,
+                            @NotNull final CandleInterval interval,
+                            @NotNull final String figi) {
+        this(openPrice, closingPrice, highestPrice, lowestPrice, tradingValue, scale, epochNanos, interval, figi, false);
+    }
+
+    public FixedPointCandle(final long openPrice,
+                            final long closingPrice,
+                            final long highestPrice,
+                            final long lowestPrice,
+                            final long tradingValue,
+                            final int scale,
+                            final long epochNanos,
+                            @NotNull final CandleInterval interval,
+                            @NotNull final String figi,
+                            final boolean backfilled) {
+        FixedPoint.checkScale(scale);
+        this.openPrice = openPrice;
+        this.closingPrice = closingPrice;
+        this.highestPrice = highestPrice;
+        this.lowestPrice = lowestPrice;
+        this.tradingValue = tradingValue;
+        this.scale = scale;
+        this.epochNanos = epochNanos;
+        this.interval = interval;
+        this.figi = figi;
+        this.backfilled = backfilled;
+    }
+
+    public long getOpenPrice() {
+        return openPrice;
+    }
+
+    public long getClosingPrice() {
+        return closingPrice;
+    }
+
+    public long getHighestPrice() {
+        return highestPrice;
+    }
+
+    public long getLowestPrice() {
+        return lowestPrice;
+    }
+
+    public long getTradingValue() {
+        return tradingValue;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Дата/время формирования свечи.
+     *
+     * @return Время в часовом поясе UTC.
+     */
+    @NotNull
+    public ZonedDateTime getDateTime() {
+        ZonedDateTime result = dateTime;
+        if (result == null) {
+            // ZonedDateTime неизменяем, поэтому гонка здесь безопасна: в худшем случае объект построится дважды
+            result = Timestamps.toDateTime(epochNanos);
+            dateTime = result;
+        }
+        return result;
+    }
+
+    /**
+     * Дата/время формирования свечи в наносекундах от начала эпохи.
+     *
+     * @return Число наносекунд.
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    /**
+     * Дата/время формирования свечи в миллисекундах от начала эпохи.
+     *
+     * @return Число миллисекунд.
+     */
+    public long getEpochMillis() {
+        return Timestamps.toEpochMillis(epochNanos);
+    }
+
+    @NotNull
+    public CandleInterval getInterval() {
+        return interval;
+    }
+
+    @NotNull
+    public String getFigi() {
+        return figi;
+    }
+
+    /**
+     * @return true, если свеча восстановлена через REST API после переподключения, а не получена из streaming.
+     */
+    public boolean isBackfilled() {
+        return backfilled;
+    }
+
+    /**
+     * Перевод мантиссы цены этого события в double.
+     *
+     * @param price Мантисса цены.
+     *
+     * @return Приближённое значение цены.
+     */
+    public double priceAsDouble(final long price) {
+        return FixedPoint.toDouble(price, scale);
+    }
+
+    /**
+     * Перевод мантиссы цены этого события в BigDecimal.
+     *
+     * @param price Мантисса цены.
+     *
+     * @return Точное значение цены.
+     */
+    @NotNull
+    public BigDecimal priceAsDecimal(final long price) {
+        return FixedPoint.toBigDecimal(price, scale);
+    }
+
+    @Override
+    public String toString() {
+        return "FixedPointCandle(openPrice = " + priceAsDecimal(openPrice) +
+                ", closingPrice = " + priceAsDecimal(closingPrice) +
+                ", highestPrice = " + priceAsDecimal(highestPrice) +
+                ", lowestPrice = " + priceAsDecimal(lowestPrice) +
+                ", tradingValue = " + tradingValue +
+                ", dateTime = " + getDateTime() +
+                ", interval = " + interval +
+                ", figi = " + figi +
+                (backfilled ? ", backfilled" : "") +
+                ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FixedPointCandle)) {
+            return false;
+        }
+
+        final FixedPointCandle other = (FixedPointCandle) o;
+
+        return this.openPrice == other.openPrice &&
+                this.closingPrice == other.closingPrice &&
+                this.highestPrice == other.highestPrice &&
+                this.lowestPrice == other.lowestPrice &&
+                this.tradingValue == other.tradingValue &&
+                this.scale == other.scale &&
+                this.epochNanos == other.epochNanos &&
+                this.interval == other.interval &&
+                this.figi.equals(other.figi);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(openPrice);
+        result = 31 * result + Long.hashCode(closingPrice);
+        result = 31 * result + Long.hashCode(highestPrice);
+        result = 31 * result + Long.hashCode(lowestPrice);
+        result = 31 * result + Long.hashCode(tradingValue);
+        result = 31 * result + scale;
+        result = 31 * result + Long.hashCode(epochNanos);
+        result = 31 * result + interval.hashCode();
+        result = 31 * result + figi.hashCode();
+        return result;
+    }
+}
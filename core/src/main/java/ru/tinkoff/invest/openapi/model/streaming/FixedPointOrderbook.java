@@ -0,0 +1,342 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Модель события с изменением стакана, в которой цены хранятся в виде мантисс с фиксированной точкой.
+ *
+ * Важно: экземпляр может быть изменяемым. Экземпляр, переданный в
+ * {@link StreamingEventDecoder#decode(String, FixedPointOrderbook)}, и экземпляр, который получают обработчики
+ * {@link StreamingEventHandler#onOrderbook}, переиспользуются: следующее сообщение перезаписывает их содержимое. Такой
+ * экземпляр нельзя хранить или передавать в другие потоки - сохранять нужно его копию {@link #copy()}. Подписчики
+ * streaming ({@code StreamingContext.subscribe}) и {@code decode} без переиспользуемого экземпляра всегда получают
+ * новый экземпляр, который после публикации не изменяется.
+ *
+ * Цены и количества уровней лежат в параллельных массивах примитивов. Все цены имеют масштаб {@link #getScale()},
+ * количества хранятся в целых лотах.
+ */
+public class FixedPointOrderbook extends StreamingEvent {
+
+    /**
+     * Максимальная глубина стакана в streaming.
+     */
+    public static final int MAX_DEPTH = 20;
+
+    /**
+     * Глубина стакана.
+     */
+    private int depth;
+
+    /**
+     * Масштаб цен.
+     */
+    private int scale;
+
+    /**
+     * Мантиссы цен предложений о покупке.
+     */
+    private long[] bidPrices;
+
+    /**
+     * Количества в предложениях о покупке.
+     */
+    private long[] bidQuantities;
+
+    /**
+     * Число предложений о покупке.
+     */
+    private int bidCount;
+
+    /**
+     * Мантиссы цен предложений о продаже.
+     */
+    private long[] askPrices;
+
+    /**
+     * Количества в предложениях о продаже.
+     */
+    private long[] askQuantities;
+
+    /**
+     * Число предложений о продаже.
+     */
+    private int askCount;
+
+    /**
+     * Идентификатор инструмента.
+     */
+    private String figi;
+
+    // Scales the level prices were parsed at, until `complete` brings them to `scale`
+    private int[] bidScales;
+    private int[] askScales;
+
+    /**
+     * Создание события. Массивы не копируются: вызывающая сторона не должна изменять их после передачи.
+     */
+    public FixedPointOrderbook(final int depth,
+                               final int scale,
+                               @NotNull final long[] bidPrices,
+                               @NotNull final long[] bidQuantities,
+                               final int bidCount,
+                               @NotNull final long[] askPrices,
+                               @NotNull final long[] askQuantities,
+                               final int askCount,
+                               @NotNull final String figi) {
+        FixedPoint.checkScale(scale);
+        if (bidCount > bidPrices.length || bidCount > bidQuantities.length ||
+                askCount > askPrices.length || askCount > askQuantities.length) {
+            throw new IllegalArgumentException("Число уровней стакана превышает размер массивов");
+        }
+        this.depth = depth;
+        this.scale = scale;
+        this.bidPrices = bidPrices;
+        this.bidQuantities = bidQuantities;
+        this.bidCount = bidCount;
+        this.askPrices = askPrices;
+        this.askQuantities = askQuantities;
+        this.askCount = askCount;
+        this.figi = figi;
+    }
+
+    /**
+     * Создание пустого события для переиспользования.
+     */
+    public FixedPointOrderbook() {
+        this(0, 0, new long[MAX_DEPTH], new long[MAX_DEPTH], 0, new long[MAX_DEPTH], new long[MAX_DEPTH], 0, "");
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int bidCount() {
+        return bidCount;
+    }
+
+    public long bidPrice(final int i) {
+        checkIndex(i, bidCount);
+        return bidPrices[i];
+    }
+
+    public long bidQty(final int i) {
+        checkIndex(i, bidCount);
+        return bidQuantities[i];
+    }
+
+    public int askCount() {
+        return askCount;
+    }
+
+    public long askPrice(final int i) {
+        checkIndex(i, askCount);
+        return askPrices[i];
+    }
+
+    public long askQty(final int i) {
+        checkIndex(i, askCount);
+        return askQuantities[i];
+    }
+
+    /**
+     * Лучшая (наибольшая) цена покупки.
+     *
+     * @return Мантисса цены.
+     *
+     * @throws IndexOutOfBoundsException Если предложений о покупке нет.
+     */
+    public long bestBid() {
+        return bidPrice(0);
+    }
+
+    /**
+     * Лучшая (наименьшая) цена продажи.
+     *
+     * @return Мантисса цены.
+     *
+     * @throws IndexOutOfBoundsException Если предложений о продаже нет.
+     */
+    public long bestAsk() {
+        return askPrice(0);
+    }
+
+    @NotNull
+    public String getFigi() {
+        return figi;
+    }
+
+    /**
+     * Получение независимой копии события, например, чтобы сохранить переиспользуемое событие.
+     *
+     * @return Копия события.
+     */
+    @NotNull
+    public FixedPointOrderbook copy() {
+        return new FixedPointOrderbook(
+                depth,
+                scale,
+                Arrays.copyOf(bidPrices, bidCount),
+                Arrays.copyOf(bidQuantities, bidCount),
+                bidCount,
+                Arrays.copyOf(askPrices, askCount),
+                Arrays.copyOf(askQuantities, askCount),
+                askCount,
+                figi
+        );
+    }
+
+    /**
+     * Перевод мантиссы цены этого события в double.
+     *
+     * @param price Мантисса цены.
+     *
+     * @return Приближённое значение цены.
+     */
+    public double priceAsDouble(final long price) {
+        return FixedPoint.toDouble(price, scale);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("FixedPointOrderbook(depth = ").append(depth);
+        sb.append(", bids = ");
+        appendLevels(sb, bidPrices, bidQuantities, bidCount);
+        sb.append(", asks = ");
+        appendLevels(sb, askPrices, askQuantities, askCount);
+        sb.append(", figi = ").append(figi);
+        sb.append(')');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FixedPointOrderbook)) {
+            return false;
+        }
+
+        final FixedPointOrderbook other = (FixedPointOrderbook) o;
+
+        return this.depth == other.depth &&
+                this.scale == other.scale &&
+                sameLevels(this.bidPrices, this.bidQuantities, this.bidCount,
+                        other.bidPrices, other.bidQuantities, other.bidCount) &&
+                sameLevels(this.askPrices, this.askQuantities, this.askCount,
+                        other.askPrices, other.askQuantities, other.askCount) &&
+                this.figi.equals(other.figi);
+    }
+
+    /**
+     * Хеш текущего содержимого. У переиспользуемого экземпляра он меняется вместе с содержимым, поэтому ключом
+     * хеш-таблицы может быть только копия {@link #copy()}.
+     */
+    @Override
+    public int hashCode() {
+        int result = depth;
+        result = 31 * result + scale;
+        result = 31 * result + levelsHash(bidPrices, bidQuantities, bidCount);
+        result = 31 * result + levelsHash(askPrices, askQuantities, askCount);
+        result = 31 * result + figi.hashCode();
+        return result;
+    }
+
+    void reset() {
+        this.depth = 0;
+        this.bidCount = 0;
+        this.askCount = 0;
+        this.figi = "";
+    }
+
+    void addBid(final long price, final int priceScale, final long quantity) {
+        if (bidCount == bidPrices.length || bidCount == bidQuantities.length) {
+            bidPrices = Arrays.copyOf(bidPrices, bidCount * 2 + 1);
+            bidQuantities = Arrays.copyOf(bidQuantities, bidCount * 2 + 1);
+        }
+        if (bidScales == null || bidCount == bidScales.length) {
+            bidScales = bidScales == null ? new int[bidPrices.length] : Arrays.copyOf(bidScales, bidPrices.length);
+        }
+        bidPrices[bidCount] = price;
+        bidScales[bidCount] = priceScale;
+        bidQuantities[bidCount] = quantity;
+        bidCount++;
+    }
+
+    void addAsk(final long price, final int priceScale, final long quantity) {
+        if (askCount == askPrices.length || askCount == askQuantities.length) {
+            askPrices = Arrays.copyOf(askPrices, askCount * 2 + 1);
+            askQuantities = Arrays.copyOf(askQuantities, askCount * 2 + 1);
+        }
+        if (askScales == null || askCount == askScales.length) {
+            askScales = askScales == null ? new int[askPrices.length] : Arrays.copyOf(askScales, askPrices.length);
+        }
+        askPrices[askCount] = price;
+        askScales[askCount] = priceScale;
+        askQuantities[askCount] = quantity;
+        askCount++;
+    }
+
+    /**
+     * Приведение цен уровней, разобранных каждая в своём масштабе, к масштабу инструмента.
+     *
+     * @throws ArithmeticException Если цена не помещается в масштаб инструмента.
+     */
+    void complete(final int depth, final int scale, @NotNull final String figi) {
+        FixedPoint.checkScale(scale);
+        for (int i = 0; i < bidCount; i++) {
+            bidPrices[i] = FixedPoint.rescale(bidPrices[i], bidScales[i], scale);
+        }
+        for (int i = 0; i < askCount; i++) {
+            askPrices[i] = FixedPoint.rescale(askPrices[i], askScales[i], scale);
+        }
+        this.depth = depth;
+        this.scale = scale;
+        this.figi = figi;
+    }
+
+    private void appendLevels(@NotNull final StringBuilder sb,
+                              @NotNull final long[] prices,
+                              @NotNull final long[] quantities,
+                              final int count) {
+        sb.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('[').append(FixedPoint.toBigDecimal(prices[i], scale).toPlainString())
+                    .append(", ").append(quantities[i]).append(']');
+        }
+        sb.append(']');
+    }
+
+    private static boolean sameLevels(@NotNull final long[] prices, @NotNull final long[] quantities, final int count,
+                                      @NotNull final long[] otherPrices, @NotNull final long[] otherQuantities,
+                                      final int otherCount) {
+        if (count != otherCount) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (prices[i] != otherPrices[i] || quantities[i] != otherQuantities[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int levelsHash(@NotNull final long[] prices, @NotNull final long[] quantities, final int count) {
+        int result = count;
+        for (int i = 0; i < count; i++) {
+            result = 31 * result + Long.hashCode(prices[i]);
+            result = 31 * result + Long.hashCode(quantities[i]);
+        }
+        return result;
+    }
+
+    private static void checkIndex(final int i, final int count) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Уровень " + i + " вне стакана из " + count + " уровней");
+        }
+    }
+}
@@ -60,9 +60,14 @@ public abstract class StreamingEvent {
         private final BigDecimal tradingValue;
 
         /**
-         * Дата/время формирования свечи.
+         * Дата/время формирования свечи в наносекундах от начала эпохи.
          */
-        private final ZonedDateTime dateTime;
+        private final long epochNanos;
+
+        /**
+         * Дата/время формирования свечи. Строится из epochNanos при первом обращении.
+         */
+        private ZonedDateTime dateTime;
 
         /**
          * Временной интервал свечи.
@@ -74,6 +79,11 @@ public abstract class StreamingEvent {
          */
         private final String figi;
 
+        /**
+         * Свеча восстановлена через REST API после переподключения, а не получена из streaming.
+         */
+        private final boolean backfilled;
+
         @JsonCreator
         public Candle(@JsonProperty(value = "o", required = true)
                       @NotNull
@@ -104,9 +114,49 @@ public abstract class StreamingEvent {
             this.highestPrice = highestPrice;
             this.lowestPrice = lowestPrice;
             this.tradingValue = tradingValue;
+            this.epochNanos = Timestamps.toEpochNanos(dateTime);
             this.dateTime = dateTime;
             this.interval = interval;
             this.figi = figi;
+            this.backfilled = false;
+        }
+
+        /**
+         * Создание события со временем в наносекундах от начала эпохи. {@link ZonedDateTime} будет построен в часовом
+         * поясе UTC только при вызове {@link #getDateTime()}.
+         */
+        public Candle(@NotNull final BigDecimal openPrice,
+                      @NotNull final BigDecimal closingPrice,
+                      @NotNull final BigDecimal highestPrice,
+                      @NotNull final BigDecimal lowestPrice,
+                      @NotNull final BigDecimal tradingValue,
+                      final long epochNanos,
+                      @NotNull final CandleInterval interval,
+                      @NotNull final String figi) {
+            this(openPrice, closingPrice, highestPrice, lowestPrice, tradingValue, epochNanos, interval, figi, false);
+        }
+
+        /**
+         * Создание события со временем в наносекундах от начала эпохи и признаком восстановленной свечи.
+         */
+        public Candle(@NotNull final BigDecimal openPrice,
+                      @NotNull final BigDecimal closingPrice,
+                      @NotNull final BigDecimal highestPrice,
+                      @NotNull final BigDecimal lowestPrice,
+                      @NotNull final BigDecimal tradingValue,
+                      final long epochNanos,
+                      @NotNull final CandleInterval interval,
+                      @NotNull final String figi,
+                      final boolean backfilled) {
+            this.openPrice = openPrice;
+            this.closingPrice = closingPrice;
+            this.highestPrice = highestPrice;
+            this.lowestPrice = lowestPrice;
+            this.tradingValue = tradingValue;
+            this.epochNanos = epochNanos;
+            this.interval = interval;
+            this.figi = figi;
+            this.backfilled = backfilled;
         }
 
         @NotNull
@@ -134,9 +184,38 @@ public abstract class StreamingEvent {
             return tradingValue;
         }
 
+        /**
+         * Дата/время формирования свечи.
+         *
+         * @return Время; для событий из streaming - в часовом поясе UTC.
+         */
         @NotNull
         public ZonedDateTime getDateTime() {
-            return dateTime;
+            ZonedDateTime result = dateTime;
+            if (result == null) {
+                // ZonedDateTime неизменяем, поэтому гонка здесь безопасна: в худшем случае объект построится дважды
+                result = Timestamps.toDateTime(epochNanos);
+                dateTime = result;
+            }
+            return result;
+        }
+
+        /**
+         * Дата/время формирования свечи в наносекундах от начала эпохи.
+         *
+         * @return Число наносекунд.
+         */
+        public long getEpochNanos() {
+            return epochNanos;
+        }
+
+        /**
+         * Дата/время формирования свечи в миллисекундах от начала эпохи.
+         *
+         * @return Число миллисекунд.
+         */
+        public long getEpochMillis() {
+            return Timestamps.toEpochMillis(epochNanos);
         }
 
         @NotNull
@@ -149,6 +228,13 @@ public abstract class StreamingEvent {
             return figi;
         }
 
+        /**
+         * @return true, если свеча восстановлена через REST API после переподключения, а не получена из streaming.
+         */
+        public boolean isBackfilled() {
+            return backfilled;
+        }
+
         @Override
         public String toString() {
             return "Candle(openPrice = " + openPrice +
@@ -156,9 +242,10 @@ public abstract class StreamingEvent {
                     ", highestPrice = " + highestPrice +
                     ", lowestPrice = " + lowestPrice +
                     ", tradingValue = " + tradingValue +
-                    ", dateTime = " + dateTime +
+                    ", dateTime = " + getDateTime() +
                     ", interval = " + interval +
                     ", figi = " + figi +
+                    (backfilled ? ", backfilled" : "") +
                     ")";
         }
 
@@ -173,7 +260,7 @@ public abstract class StreamingEvent {
             if (!this.closingPrice.equals(other.closingPrice)) {
                 return false;
             }
-            if (!this.dateTime.equals(other.dateTime)) {
+            if (this.epochNanos != other.epochNanos) {
                 return false;
             }
             if (!this.figi.equals(other.figi)) {
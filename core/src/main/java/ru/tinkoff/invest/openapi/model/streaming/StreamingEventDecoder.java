@@ -0,0 +1,1088 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.DateTimeException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Декодер событий, приходящих из streaming.
+ *
+ * В отличие от десериализатора, подключённого к {@link StreamingEvent} через аннотацию, читает поля "event" и
+ * "payload" за один проход по токенам парсера и сразу собирает модели событий, не строя промежуточное дерево и не
+ * сериализуя "payload" повторно. Экземпляр потокобезопасен.
+ *
+ * В режиме {@link PriceMode#FIXED_POINT} свечи и стаканы разбираются сразу в {@link FixedPointCandle} и
+ * {@link FixedPointOrderbook}, минуя BigDecimal. Масштаб цен задаётся для каждого инструмента отдельно через
+ * {@link #setPriceScale(String, int)}, для остальных используется масштаб по умолчанию. Цена сначала разбирается в
+ * собственном масштабе числа, так как figi в сообщении может идти после цен, и затем приводится к масштабу
+ * инструмента: масштаб одного инструмента не влияет на разбор остальных. Стаканы можно получать в
+ * виде {@link FixedPointOrderbook} и при BigDecimal-ценах свечей (флаг flatOrderbooks), а через
+ * {@link #decode(String, FixedPointOrderbook)} - разбирать их в заранее созданный экземпляр.
+ *
+ * Метод {@link #decode(String, StreamingEventHandler)} передаёт свечи и стаканы обработчику без создания объектов
+ * событий: свеча разбирается в примитивы, стакан - в экземпляр {@link FixedPointOrderbook}, закреплённый за потоком.
+ * Значения figi во всех режимах берутся из пула строк.
+ */
+public class StreamingEventDecoder {
+
+    /**
+     * Способ представления цен в событиях свечей и стаканов.
+     */
+    public enum PriceMode {
+        /**
+         * Цены в BigDecimal ({@link StreamingEvent.Candle}, {@link StreamingEvent.Orderbook}).
+         */
+        DECIMAL,
+        /**
+         * Цены в мантиссах с фиксированной точкой ({@link FixedPointCandle}, {@link FixedPointOrderbook}).
+         */
+        FIXED_POINT
+    }
+
+    /**
+     * Масштаб цен по умолчанию для режима {@link PriceMode#FIXED_POINT}.
+     */
+    public static final int DEFAULT_PRICE_SCALE = 6;
+
+    private static final String[] CANDLE_FIELDS = {"o", "c", "h", "l", "v"};
+
+    private static final StreamingEventType[] EVENT_TYPES = StreamingEventType.values();
+
+    private static final CandleInterval[] INTERVALS = CandleInterval.values();
+
+    private static final int FIGI_POOL_CAPACITY = 16384;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Промежуточные значения, переиспользуемые декодером в пределах потока.
+     */
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private final PriceMode priceMode;
+    private final boolean flatOrderbooks;
+    private final int defaultPriceScale;
+    private final ConcurrentHashMap<String, Integer> priceScales;
+    private final StringPool figiPool;
+
+    /**
+     * @param priceMode         Представление цен в свечах и стаканах.
+     * @param defaultPriceScale Масштаб цен инструментов, для которых он не задан явно.
+     * @param flatOrderbooks    Разбирать стаканы в {@link FixedPointOrderbook} независимо от priceMode.
+     */
+    public StreamingEventDecoder(@NotNull final PriceMode priceMode,
+                                 final int defaultPriceScale,
+                                 final boolean flatOrderbooks) {
+        FixedPoint.checkScale(defaultPriceScale);
+        this.priceMode = priceMode;
+        this.flatOrderbooks = flatOrderbooks || priceMode == PriceMode.FIXED_POINT;
+        this.defaultPriceScale = defaultPriceScale;
+        this.priceScales = new ConcurrentHashMap<>();
+        this.figiPool = new StringPool(FIGI_POOL_CAPACITY);
+    }
+
+    public StreamingEventDecoder(@NotNull final PriceMode priceMode, final int defaultPriceScale) {
+        this(priceMode, defaultPriceScale, false);
+    }
+
+    public StreamingEventDecoder() {
+        this(PriceMode.DECIMAL, DEFAULT_PRICE_SCALE, false);
+    }
+
+    @NotNull
+    public PriceMode getPriceMode() {
+        return priceMode;
+    }
+
+    /**
+     * Установка масштаба цен инструмента для режима {@link PriceMode#FIXED_POINT}.
+     *
+     * @param figi  Идентификатор инструмента.
+     * @param scale Число знаков после запятой (от 0 до {@link FixedPoint#MAX_SCALE}).
+     */
+    public void setPriceScale(@NotNull final String figi, final int scale) {
+        FixedPoint.checkScale(scale);
+        priceScales.put(figi, scale);
+    }
+
+    /**
+     * Получение масштаба цен инструмента для режима {@link PriceMode#FIXED_POINT}.
+     *
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Число знаков после запятой.
+     */
+    public int getPriceScale(@NotNull final String figi) {
+        final Integer scale = priceScales.get(figi);
+        return scale == null ? defaultPriceScale : scale;
+    }
+
+    /**
+     * Построение события свечи, полученной не из streaming (например, через REST API), в том же представлении цен,
+     * что и у декодированных событий.
+     *
+     * @param backfilled Признак свечи, восстановленной после переподключения.
+     *
+     * @return {@link StreamingEvent.Candle} или {@link FixedPointCandle} в зависимости от {@link #getPriceMode()}.
+     *
+     * @throws IllegalArgumentException Если для {@link FixedPointCandle} объём торгов не целое число лотов или не
+     *                                  помещается в long.
+     */
+    @NotNull
+    public StreamingEvent candle(@NotNull final BigDecimal openPrice,
+                                 @NotNull final BigDecimal closingPrice,
+                                 @NotNull final BigDecimal highestPrice,
+                                 @NotNull final BigDecimal lowestPrice,
+                                 @NotNull final BigDecimal tradingValue,
+                                 final long epochNanos,
+                                 @NotNull final CandleInterval interval,
+                                 @NotNull final String figi,
+                                 final boolean backfilled) {
+        if (priceMode == PriceMode.DECIMAL) {
+            return new StreamingEvent.Candle(openPrice, closingPrice, highestPrice, lowestPrice, tradingValue,
+                    epochNanos, interval, figi, backfilled);
+        }
+        final int scale = getPriceScale(figi);
+        final long lots;
+        try {
+            lots = tradingValue.longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Объём торгов должен быть целым числом лотов: " + tradingValue, ex);
+        }
+        return new FixedPointCandle(
+                mantissa(openPrice, scale),
+                mantissa(closingPrice, scale),
+                mantissa(highestPrice, scale),
+                mantissa(lowestPrice, scale),
+                lots,
+                scale,
+                epochNanos,
+                interval,
+                figi,
+                backfilled
+        );
+    }
+
+    private static long mantissa(@NotNull final BigDecimal price, final int scale) {
+        return price.setScale(scale, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Декодирование события из текста сообщения.
+     *
+     * @param text Текст сообщения.
+     *
+     * @return Событие.
+     */
+    @NotNull
+    public StreamingEvent decode(@NotNull final String text) throws IOException {
+        try (final JsonParser p = jsonFactory.createParser(text)) {
+            return decode(p, null, null);
+        }
+    }
+
+    /**
+     * Декодирование события из текста сообщения с переиспользованием стакана. Если сообщение оказывается стаканом и
+     * стаканы разбираются в {@link FixedPointOrderbook}, то результатом будет переданный экземпляр с новым
+     * содержимым; прочие события создаются как обычно.
+     *
+     * @param text  Текст сообщения.
+     * @param reuse Переиспользуемый стакан.
+     *
+     * @return Событие.
+     */
+    @NotNull
+    public StreamingEvent decode(@NotNull final String text,
+                                 @Nullable final FixedPointOrderbook reuse) throws IOException {
+        try (final JsonParser p = jsonFactory.createParser(text)) {
+            return decode(p, reuse, null);
+        }
+    }
+
+    /**
+     * Декодирование сообщения с передачей события обработчику. Свечи и стаканы разбираются без создания объектов
+     * событий; стакан, переданный обработчику, переиспользуется при следующем вызове в том же потоке.
+     *
+     * Исключения, выброшенные обработчиком, пробрасываются вызывающей стороне.
+     *
+     * @param text    Текст сообщения.
+     * @param handler Обработчик.
+     */
+    public void decode(@NotNull final String text, @NotNull final StreamingEventHandler handler) throws IOException {
+        try (final JsonParser p = jsonFactory.createParser(text)) {
+            decode(p, null, handler);
+        }
+    }
+
+    /**
+     * Декодирование сообщения с передачей события обработчику, как {@link #decode(String, StreamingEventHandler)}, и
+     * извлечение его заголовка за тот же проход. Свечи и стаканы в конверт не попадают: при вызове
+     * {@link StreamingEventEnvelope#getEvent()} они декодируются из текста заново.
+     *
+     * @param text    Текст сообщения.
+     * @param handler Обработчик.
+     *
+     * @return Конверт события.
+     */
+    @NotNull
+    public StreamingEventEnvelope envelope(@NotNull final String text,
+                                           @NotNull final StreamingEventHandler handler) throws IOException {
+        final Scratch local = scratch.get();
+        // A handler that decodes another message on the same thread must not overwrite the header being collected
+        final HeaderCapture capture = local.header.target == null ? local.header : new HeaderCapture();
+        capture.target = handler;
+        try (final JsonParser p = jsonFactory.createParser(text)) {
+            decode(p, null, capture);
+            return new StreamingEventEnvelope(text, capture.eventType, capture.figi, capture.interval, capture.depth,
+                    capture.epochNanos, this, capture.event);
+        } finally {
+            capture.clear();
+        }
+    }
+
+    /**
+     * Декодирование события из парсера, стоящего перед объектом сообщения или на его начале.
+     *
+     * @param p Парсер.
+     *
+     * @return Событие.
+     */
+    @NotNull
+    public StreamingEvent decode(@NotNull final JsonParser p) throws IOException {
+        return decode(p, null, null);
+    }
+
+    /**
+     * @return Событие или null, если оно было передано обработчику в виде примитивов.
+     */
+    @Nullable
+    private StreamingEvent decode(@NotNull final JsonParser p,
+                                  @Nullable final FixedPointOrderbook reuse,
+                                  @Nullable final StreamingEventHandler handler) throws IOException {
+        if (!p.hasCurrentToken()) {
+            p.nextToken();
+        }
+        if (!p.hasToken(JsonToken.START_OBJECT)) {
+            throw new JsonParseException(p, "Expected JSON object.");
+        }
+
+        StreamingEventType eventType = null;
+        StreamingEvent result = null;
+        boolean payloadRead = false;
+        TokenBuffer deferredPayload = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            final JsonToken value = p.nextToken();
+
+            if ("event".equals(field)) {
+                eventType = readEventType(p);
+            } else if ("payload".equals(field)) {
+                if (value != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(p, "No data field 'payload'.");
+                }
+                if (eventType != null) {
+                    result = readPayload(eventType, p, reuse, handler);
+                    payloadRead = true;
+                } else {
+                    // "payload" пришёл раньше "event" - откладываем его разбор до того, как станет известен тип
+                    deferredPayload = new TokenBuffer(p);
+                    deferredPayload.copyCurrentStructure(p);
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+
+        if (eventType == null) {
+            throw new JsonParseException(p, "No type field 'event'.");
+        }
+        if (!payloadRead) {
+            if (deferredPayload == null) {
+                throw new JsonParseException(p, "No data field 'payload'.");
+            }
+            try (final JsonParser bp = deferredPayload.asParser()) {
+                bp.nextToken();
+                result = readPayload(eventType, bp, reuse, handler);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Извлечение заголовка события без разбора цен; из времён читается только время свечи. Разбор прекращается, как только найдены все поля
+     * заголовка; полностью сообщение декодируется при первом вызове {@link StreamingEventEnvelope#getEvent()}.
+     *
+     * @param text Текст сообщения.
+     *
+     * @return Конверт события.
+     */
+    @NotNull
+    public StreamingEventEnvelope envelope(@NotNull final String text) throws IOException {
+        try (final JsonParser p = jsonFactory.createParser(text)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Expected JSON object.");
+            }
+
+            StreamingEventType eventType = null;
+            String figi = null;
+            CandleInterval interval = null;
+            int depth = 0;
+            boolean seenDepth = false;
+            long epochNanos = 0L;
+            boolean seenTime = false;
+            boolean seenPayload = false;
+
+            scan:
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                final JsonToken value = p.nextToken();
+
+                if ("event".equals(field)) {
+                    eventType = readEventType(p);
+                } else if ("payload".equals(field)) {
+                    if (value != JsonToken.START_OBJECT) {
+                        throw new JsonParseException(p, "No data field 'payload'.");
+                    }
+                    seenPayload = true;
+                    if (eventType == StreamingEventType.ERROR) {
+                        break;
+                    }
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        final String payloadField = p.getCurrentName();
+                        p.nextToken();
+                        switch (payloadField) {
+                            case "figi":
+                                figi = readFigi(p);
+                                break;
+                            case "interval":
+                                interval = readInterval(p);
+                                break;
+                            case "depth":
+                                depth = p.getValueAsInt();
+                                seenDepth = true;
+                                break;
+                            case "time":
+                                // A candle's own time is part of its header
+                                epochNanos = readEpochNanos(p);
+                                seenTime = true;
+                                break;
+                            default:
+                                p.skipChildren();
+                        }
+                        if (eventType != null && figi != null) {
+                            if (eventType == StreamingEventType.INSTRUMENT_INFO ||
+                                    (eventType == StreamingEventType.CANDLE && interval != null && seenTime) ||
+                                    (eventType == StreamingEventType.ORDERBOOK && seenDepth)) {
+                                break scan;
+                            }
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+
+                if (eventType != null && seenPayload) {
+                    break;
+                }
+            }
+
+            if (eventType == null) {
+                throw new JsonParseException(p, "No type field 'event'.");
+            }
+            if (!seenPayload) {
+                throw new JsonParseException(p, "No data field 'payload'.");
+            }
+
+            return new StreamingEventEnvelope(text, eventType, figi, interval, depth,
+                    eventType == StreamingEventType.CANDLE ? epochNanos : 0L, this, null);
+        }
+    }
+
+    @Nullable
+    private StreamingEvent readPayload(@NotNull final StreamingEventType eventType,
+                                       @NotNull final JsonParser p,
+                                       @Nullable final FixedPointOrderbook reuse,
+                                       @Nullable final StreamingEventHandler handler) throws IOException {
+        switch (eventType) {
+            case CANDLE:
+                if (handler != null) {
+                    final CandleFields candle = readCandleFields(p);
+                    handler.onCandle(candle.figi, candle.interval, candle.openPrice, candle.closingPrice,
+                            candle.highestPrice, candle.lowestPrice, candle.tradingValue, candle.scale,
+                            candle.epochNanos);
+                    return null;
+                }
+                return priceMode == PriceMode.FIXED_POINT ? readFixedPointCandle(p) : readCandle(p);
+            case ORDERBOOK:
+                if (handler != null) {
+                    handler.onOrderbook(readFixedPointOrderbook(p, scratch.get().orderbook));
+                    return null;
+                }
+                return flatOrderbooks
+                        ? readFixedPointOrderbook(p, reuse == null ? new FixedPointOrderbook() : reuse)
+                        : readOrderbook(p);
+            case INSTRUMENT_INFO:
+                final StreamingEvent.InstrumentInfo instrumentInfo = readInstrumentInfo(p);
+                if (handler != null) {
+                    handler.onInstrumentInfo(instrumentInfo);
+                }
+                return instrumentInfo;
+            case ERROR:
+                final StreamingEvent.Error error = readError(p);
+                if (handler != null) {
+                    handler.onError(error);
+                }
+                return error;
+            default:
+                throw new JsonParseException(p, "Unknown event type.");
+        }
+    }
+
+    @NotNull
+    private StreamingEvent.Candle readCandle(@NotNull final JsonParser p) throws IOException {
+        BigDecimal openPrice = null;
+        BigDecimal closingPrice = null;
+        BigDecimal highestPrice = null;
+        BigDecimal lowestPrice = null;
+        BigDecimal tradingValue = null;
+        long epochNanos = 0;
+        boolean seenTime = false;
+        CandleInterval interval = null;
+        String figi = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            switch (field) {
+                case "o":
+                    openPrice = readDecimal(p);
+                    break;
+                case "c":
+                    closingPrice = readDecimal(p);
+                    break;
+                case "h":
+                    highestPrice = readDecimal(p);
+                    break;
+                case "l":
+                    lowestPrice = readDecimal(p);
+                    break;
+                case "v":
+                    tradingValue = readDecimal(p);
+                    break;
+                case "time":
+                    epochNanos = readEpochNanos(p);
+                    seenTime = true;
+                    break;
+                case "interval":
+                    interval = readInterval(p);
+                    break;
+                case "figi":
+                    figi = readFigi(p);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        if (!seenTime) {
+            throw new JsonParseException(p, "Missing required field 'time'.");
+        }
+
+        return new StreamingEvent.Candle(
+                required(openPrice, "o", p),
+                required(closingPrice, "c", p),
+                required(highestPrice, "h", p),
+                required(lowestPrice, "l", p),
+                required(tradingValue, "v", p),
+                epochNanos,
+                required(interval, "interval", p),
+                required(figi, "figi", p)
+        );
+    }
+
+    @NotNull
+    private StreamingEvent.Orderbook readOrderbook(@NotNull final JsonParser p) throws IOException {
+        Integer depth = null;
+        List<BigDecimal[]> bids = null;
+        List<BigDecimal[]> asks = null;
+        String figi = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            switch (field) {
+                case "depth":
+                    depth = p.getValueAsInt();
+                    break;
+                case "bids":
+                    bids = readLevels(p);
+                    break;
+                case "asks":
+                    asks = readLevels(p);
+                    break;
+                case "figi":
+                    figi = readFigi(p);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        return new StreamingEvent.Orderbook(
+                required(depth, "depth", p),
+                required(bids, "bids", p),
+                required(asks, "asks", p),
+                required(figi, "figi", p)
+        );
+    }
+
+    @NotNull
+    private FixedPointCandle readFixedPointCandle(@NotNull final JsonParser p) throws IOException {
+        final CandleFields candle = readCandleFields(p);
+        return new FixedPointCandle(
+                candle.openPrice,
+                candle.closingPrice,
+                candle.highestPrice,
+                candle.lowestPrice,
+                candle.tradingValue,
+                candle.scale,
+                candle.epochNanos,
+                candle.interval,
+                candle.figi
+        );
+    }
+
+    /**
+     * Разбор свечи в мантиссы масштаба инструмента. Результат лежит в буфере потока и действителен до следующего
+     * вызова в этом потоке.
+     */
+    @NotNull
+    private CandleFields readCandleFields(@NotNull final JsonParser p) throws IOException {
+        final int[] fromScales = scratch.get().priceScales;
+        long openPrice = 0;
+        long closingPrice = 0;
+        long highestPrice = 0;
+        long lowestPrice = 0;
+        long tradingValue = 0;
+        int seen = 0;
+        long epochNanos = 0;
+        boolean seenTime = false;
+        CandleInterval interval = null;
+        String figi = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            switch (field) {
+                case "o":
+                    openPrice = readPrice(p, fromScales, 0);
+                    seen |= 1;
+                    break;
+                case "c":
+                    closingPrice = readPrice(p, fromScales, 1);
+                    seen |= 1 << 1;
+                    break;
+                case "h":
+                    highestPrice = readPrice(p, fromScales, 2);
+                    seen |= 1 << 2;
+                    break;
+                case "l":
+                    lowestPrice = readPrice(p, fromScales, 3);
+                    seen |= 1 << 3;
+                    break;
+                case "v":
+                    tradingValue = readFixedPoint(p, 0);
+                    seen |= 1 << 4;
+                    break;
+                case "time":
+                    epochNanos = readEpochNanos(p);
+                    seenTime = true;
+                    break;
+                case "interval":
+                    interval = readInterval(p);
+                    break;
+                case "figi":
+                    figi = readFigi(p);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        for (int i = 0; i < CANDLE_FIELDS.length; i++) {
+            if ((seen & (1 << i)) == 0) {
+                throw new JsonParseException(p, "Missing required field '" + CANDLE_FIELDS[i] + "'.");
+            }
+        }
+        if (!seenTime) {
+            throw new JsonParseException(p, "Missing required field 'time'.");
+        }
+        required(figi, "figi", p);
+        final int scale = getPriceScale(figi);
+
+        final CandleFields candle = scratch.get().candle;
+        candle.openPrice = rescale(openPrice, fromScales[0], scale, p);
+        candle.closingPrice = rescale(closingPrice, fromScales[1], scale, p);
+        candle.highestPrice = rescale(highestPrice, fromScales[2], scale, p);
+        candle.lowestPrice = rescale(lowestPrice, fromScales[3], scale, p);
+        candle.tradingValue = tradingValue;
+        candle.scale = scale;
+        candle.epochNanos = epochNanos;
+        candle.interval = required(interval, "interval", p);
+        candle.figi = figi;
+
+        return candle;
+    }
+
+    @NotNull
+    private FixedPointOrderbook readFixedPointOrderbook(@NotNull final JsonParser p,
+                                                       @NotNull final FixedPointOrderbook target) throws IOException {
+        final int[] fromScales = scratch.get().priceScales;
+        Integer depth = null;
+        boolean seenBids = false;
+        boolean seenAsks = false;
+        String figi = null;
+
+        target.reset();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            switch (field) {
+                case "depth":
+                    depth = p.getValueAsInt();
+                    break;
+                case "bids":
+                    readFixedPointLevels(p, fromScales, target, true);
+                    seenBids = true;
+                    break;
+                case "asks":
+                    readFixedPointLevels(p, fromScales, target, false);
+                    seenAsks = true;
+                    break;
+                case "figi":
+                    figi = readFigi(p);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        if (!seenBids) {
+            throw new JsonParseException(p, "Missing required field 'bids'.");
+        }
+        if (!seenAsks) {
+            throw new JsonParseException(p, "Missing required field 'asks'.");
+        }
+        required(depth, "depth", p);
+        required(figi, "figi", p);
+        try {
+            target.complete(depth, getPriceScale(figi), figi);
+        } catch (ArithmeticException ex) {
+            throw new JsonParseException(p, "Decimal value does not fit price scale.", ex);
+        }
+
+        return target;
+    }
+
+    @NotNull
+    private StreamingEvent.InstrumentInfo readInstrumentInfo(@NotNull final JsonParser p) throws IOException {
+        String tradeStatus = null;
+        BigDecimal minPriceIncrement = null;
+        Integer lot = null;
+        BigDecimal accruedInterest = null;
+        BigDecimal limitUp = null;
+        BigDecimal limitDown = null;
+        String figi = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            switch (field) {
+                case "trade_status":
+                    tradeStatus = p.getValueAsString();
+                    break;
+                case "min_price_increment":
+                    minPriceIncrement = readDecimal(p);
+                    break;
+                case "lot":
+                    lot = p.getValueAsInt();
+                    break;
+                case "accrued_interest":
+                    accruedInterest = readDecimal(p);
+                    break;
+                case "limit_up":
+                    limitUp = readDecimal(p);
+                    break;
+                case "limit_down":
+                    limitDown = readDecimal(p);
+                    break;
+                case "figi":
+                    figi = readFigi(p);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        return new StreamingEvent.InstrumentInfo(
+                required(tradeStatus, "trade_status", p),
+                required(minPriceIncrement, "min_price_increment", p),
+                required(lot, "lot", p),
+                accruedInterest,
+                limitUp,
+                limitDown,
+                required(figi, "figi", p)
+        );
+    }
+
+    @NotNull
+    private StreamingEvent.Error readError(@NotNull final JsonParser p) throws IOException {
+        String error = null;
+        String requestId = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            switch (field) {
+                case "error":
+                    error = p.getValueAsString();
+                    break;
+                case "request_id":
+                    requestId = p.getValueAsString();
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        return new StreamingEvent.Error(required(error, "error", p), requestId);
+    }
+
+    @NotNull
+    private List<BigDecimal[]> readLevels(@NotNull final JsonParser p) throws IOException {
+        if (!p.hasToken(JsonToken.START_ARRAY)) {
+            throw new JsonParseException(p, "Expected array of orderbook levels.");
+        }
+
+        final List<BigDecimal[]> levels = new ArrayList<>();
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+            BigDecimal[] level = new BigDecimal[2];
+            int size = 0;
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                if (size == level.length) {
+                    level = Arrays.copyOf(level, size * 2);
+                }
+                level[size++] = readDecimal(p);
+            }
+            levels.add(size == level.length ? level : Arrays.copyOf(level, size));
+        }
+
+        return levels;
+    }
+
+    private static void readFixedPointLevels(@NotNull final JsonParser p,
+                                             @NotNull final int[] fromScales,
+                                             @NotNull final FixedPointOrderbook target,
+                                             final boolean bids) throws IOException {
+        if (!p.hasToken(JsonToken.START_ARRAY)) {
+            throw new JsonParseException(p, "Expected array of orderbook levels.");
+        }
+
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+            if (p.nextToken() == JsonToken.END_ARRAY) {
+                throw new JsonParseException(p, "Expected orderbook level [price, quantity].");
+            }
+            final long price = readPrice(p, fromScales, 0);
+            if (p.nextToken() == JsonToken.END_ARRAY) {
+                throw new JsonParseException(p, "Expected orderbook level [price, quantity].");
+            }
+            final long quantity = readFixedPoint(p, 0);
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                p.skipChildren();
+            }
+            if (bids) {
+                target.addBid(price, fromScales[0], quantity);
+            } else {
+                target.addAsk(price, fromScales[0], quantity);
+            }
+        }
+    }
+
+    private static long readFixedPoint(@NotNull final JsonParser p, final int scale) throws IOException {
+        switch (p.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+            case VALUE_STRING:
+                try {
+                    return FixedPoint.parse(p.getTextCharacters(), p.getTextOffset(), p.getTextLength(), scale);
+                } catch (NumberFormatException | ArithmeticException ex) {
+                    throw new JsonParseException(p, "Malformed decimal value.", ex);
+                }
+            default:
+                throw new JsonParseException(p, "Expected decimal value.");
+        }
+    }
+
+    /**
+     * Разбор цены в собственном масштабе числа ({@link FixedPoint#naturalScale}). Если при этом мантисса не
+     * помещается в long (слишком много значащих цифр), масштаб уменьшается с округлением лишних знаков.
+     *
+     * @param scales Массив, в элемент index которого записывается масштаб разобранной цены.
+     */
+    private static long readPrice(@NotNull final JsonParser p,
+                                  @NotNull final int[] scales,
+                                  final int index) throws IOException {
+        switch (p.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+            case VALUE_STRING:
+                final char[] chars = p.getTextCharacters();
+                final int offset = p.getTextOffset();
+                final int length = p.getTextLength();
+                int scale = FixedPoint.naturalScale(chars, offset, length);
+                while (true) {
+                    try {
+                        final long mantissa = FixedPoint.parse(chars, offset, length, scale);
+                        scales[index] = scale;
+                        return mantissa;
+                    } catch (ArithmeticException ex) {
+                        if (scale == 0) {
+                            throw new JsonParseException(p, "Malformed decimal value.", ex);
+                        }
+                        scale--;
+                    } catch (NumberFormatException ex) {
+                        throw new JsonParseException(p, "Malformed decimal value.", ex);
+                    }
+                }
+            default:
+                throw new JsonParseException(p, "Expected decimal value.");
+        }
+    }
+
+    private static long rescale(final long mantissa,
+                                final int fromScale,
+                                final int toScale,
+                                @NotNull final JsonParser p) throws JsonParseException {
+        try {
+            return FixedPoint.rescale(mantissa, fromScale, toScale);
+        } catch (ArithmeticException ex) {
+            throw new JsonParseException(p, "Decimal value does not fit price scale.", ex);
+        }
+    }
+
+    @Nullable
+    private static BigDecimal readDecimal(@NotNull final JsonParser p) throws IOException {
+        switch (p.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return p.getDecimalValue();
+            case VALUE_STRING:
+                try {
+                    return new BigDecimal(p.getText().trim());
+                } catch (NumberFormatException ex) {
+                    throw new JsonParseException(p, "Malformed decimal value.", ex);
+                }
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException(p, "Expected decimal value.");
+        }
+    }
+
+    /**
+     * Разбор времени. Обычный формат streaming разбирается прямо из буфера парсера; прочие варианты ISO-8601
+     * (например, с идентификатором часового пояса) - через {@link DateTimeFormatter#ISO_ZONED_DATE_TIME}.
+     */
+    private static long readEpochNanos(@NotNull final JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_STRING) {
+            try {
+                return Timestamps.parseEpochNanos(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            } catch (DateTimeException ignored) {
+                // ниже будет предпринята попытка разобрать время в общем виде
+            }
+        }
+
+        final String text = p.getValueAsString();
+        if (text == null) {
+            throw new JsonParseException(p, "Missing required field 'time'.");
+        }
+
+        try {
+            return Timestamps.toEpochNanos(ZonedDateTime.parse(text, DateTimeFormatter.ISO_ZONED_DATE_TIME));
+        } catch (DateTimeException | ArithmeticException ex) {
+            throw new JsonParseException(p, "Malformed date/time value.", ex);
+        }
+    }
+
+    @Nullable
+    private static CandleInterval readInterval(@NotNull final JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_STRING) {
+            for (final CandleInterval interval : INTERVALS) {
+                if (textEquals(p, interval.getValue())) {
+                    return interval;
+                }
+            }
+            throw new JsonParseException(p, "Unknown candle interval.");
+        }
+
+        final String text = p.getValueAsString();
+        if (text == null) {
+            return null;
+        }
+
+        final CandleInterval interval = CandleInterval.fromValue(text);
+        if (interval == null) {
+            throw new JsonParseException(p, "Unknown candle interval.");
+        }
+        return interval;
+    }
+
+    @NotNull
+    private static StreamingEventType readEventType(@NotNull final JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(p, "No type field 'event'.");
+        }
+        for (final StreamingEventType eventType : EVENT_TYPES) {
+            if (textEquals(p, eventType.getValue())) {
+                return eventType;
+            }
+        }
+        throw new JsonParseException(p, "Unknown event type.");
+    }
+
+    @Nullable
+    private String readFigi(@NotNull final JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) {
+            return p.getValueAsString();
+        }
+        return figiPool.intern(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+    }
+
+    /**
+     * Сравнение текущего строкового значения парсера со строкой без создания строки из буфера парсера.
+     */
+    private static boolean textEquals(@NotNull final JsonParser p, @NotNull final String value) throws IOException {
+        final int length = p.getTextLength();
+        if (length != value.length()) {
+            return false;
+        }
+        final char[] chars = p.getTextCharacters();
+        final int offset = p.getTextOffset();
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NotNull
+    private static <T> T required(@Nullable final T value,
+                                  @NotNull final String field,
+                                  @NotNull final JsonParser p) throws JsonParseException {
+        if (value == null) {
+            throw new JsonParseException(p, "Missing required field '" + field + "'.");
+        }
+        return value;
+    }
+
+    private static final class CandleFields {
+        long openPrice;
+        long closingPrice;
+        long highestPrice;
+        long lowestPrice;
+        long tradingValue;
+        int scale;
+        long epochNanos;
+        CandleInterval interval;
+        String figi;
+    }
+
+    // Forwards events to the target handler and keeps the envelope header of the last one
+    private static final class HeaderCapture implements StreamingEventHandler {
+        StreamingEventHandler target;
+        StreamingEventType eventType;
+        String figi;
+        CandleInterval interval;
+        int depth;
+        long epochNanos;
+        StreamingEvent event;
+
+        @Override
+        public void onCandle(@NotNull final String figi,
+                             @NotNull final CandleInterval interval,
+                             final long openPrice,
+                             final long closingPrice,
+                             final long highestPrice,
+                             final long lowestPrice,
+                             final long tradingValue,
+                             final int scale,
+                             final long epochNanos) {
+            this.eventType = StreamingEventType.CANDLE;
+            this.figi = figi;
+            this.interval = interval;
+            this.epochNanos = epochNanos;
+            target.onCandle(figi, interval, openPrice, closingPrice, highestPrice, lowestPrice, tradingValue, scale,
+                    epochNanos);
+        }
+
+        @Override
+        public void onOrderbook(@NotNull final FixedPointOrderbook orderbook) {
+            // The orderbook instance is reused by the next message, so only its header is kept
+            this.eventType = StreamingEventType.ORDERBOOK;
+            this.figi = orderbook.getFigi();
+            this.depth = orderbook.getDepth();
+            target.onOrderbook(orderbook);
+        }
+
+        @Override
+        public void onInstrumentInfo(@NotNull final StreamingEvent.InstrumentInfo instrumentInfo) {
+            this.eventType = StreamingEventType.INSTRUMENT_INFO;
+            this.figi = instrumentInfo.getFigi();
+            this.event = instrumentInfo;
+            target.onInstrumentInfo(instrumentInfo);
+        }
+
+        @Override
+        public void onError(@NotNull final StreamingEvent.Error error) {
+            this.eventType = StreamingEventType.ERROR;
+            this.event = error;
+            target.onError(error);
+        }
+
+        void clear() {
+            target = null;
+            eventType = null;
+            figi = null;
+            interval = null;
+            depth = 0;
+            epochNanos = 0L;
+            event = null;
+        }
+    }
+
+    private static final class Scratch {
+        final CandleFields candle = new CandleFields();
+        final HeaderCapture header = new HeaderCapture();
+        // Scales the prices of the message being decoded were parsed at: o, c, h, l of a candle or one level price
+        final int[] priceScales = new int[4];
+        final FixedPointOrderbook orderbook = new FixedPointOrderbook();
+    }
+}
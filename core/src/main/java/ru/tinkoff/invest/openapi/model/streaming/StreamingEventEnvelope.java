@@ -0,0 +1,202 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Конверт события из streaming.
+ *
+ * Содержит только заголовок события (тип, figi, интервал и время свечи или глубину стакана), который извлекается из
+ * сообщения без разбора цен и времени. Само событие декодируется при первом вызове {@link #getEvent()}, поэтому
+ * конверты, отброшенные фильтрами или подписчиками, не тратят время на разбор BigDecimal и дат.
+ */
+public final class StreamingEventEnvelope {
+
+    /**
+     * Исходный текст сообщения.
+     */
+    private final String text;
+
+    /**
+     * Тип события.
+     */
+    private final StreamingEventType eventType;
+
+    /**
+     * Идентификатор инструмента.
+     */
+    private final String figi;
+
+    /**
+     * Временной интервал свечи.
+     */
+    private final CandleInterval interval;
+
+    /**
+     * Глубина стакана.
+     */
+    private final int depth;
+
+    /**
+     * Время формирования свечи в наносекундах от начала эпохи.
+     */
+    private final long epochNanos;
+
+    private final StreamingEventDecoder decoder;
+    private volatile StreamingEvent event;
+    private volatile IOException failure;
+
+    StreamingEventEnvelope(@Nullable final String text,
+                           @NotNull final StreamingEventType eventType,
+                           @Nullable final String figi,
+                           @Nullable final CandleInterval interval,
+                           final int depth,
+                           final long epochNanos,
+                           @Nullable final StreamingEventDecoder decoder,
+                           @Nullable final StreamingEvent event) {
+        this.text = text;
+        this.eventType = eventType;
+        this.figi = figi;
+        this.interval = interval;
+        this.depth = depth;
+        this.epochNanos = epochNanos;
+        this.decoder = decoder;
+        this.event = event;
+    }
+
+    /**
+     * Создание конверта для уже декодированного события.
+     *
+     * @param event Событие.
+     *
+     * @return Конверт.
+     */
+    @NotNull
+    public static StreamingEventEnvelope of(@NotNull final StreamingEvent event) {
+        if (event instanceof StreamingEvent.Candle) {
+            final StreamingEvent.Candle candle = (StreamingEvent.Candle) event;
+            return new StreamingEventEnvelope(null, StreamingEventType.CANDLE, candle.getFigi(),
+                    candle.getInterval(), 0, candle.getEpochNanos(), null, event);
+        } else if (event instanceof FixedPointCandle) {
+            final FixedPointCandle candle = (FixedPointCandle) event;
+            return new StreamingEventEnvelope(null, StreamingEventType.CANDLE, candle.getFigi(),
+                    candle.getInterval(), 0, candle.getEpochNanos(), null, event);
+        } else if (event instanceof StreamingEvent.Orderbook) {
+            final StreamingEvent.Orderbook orderbook = (StreamingEvent.Orderbook) event;
+            return new StreamingEventEnvelope(null, StreamingEventType.ORDERBOOK, orderbook.getFigi(),
+                    null, orderbook.getDepth(), 0L, null, event);
+        } else if (event instanceof FixedPointOrderbook) {
+            final FixedPointOrderbook orderbook = (FixedPointOrderbook) event;
+            return new StreamingEventEnvelope(null, StreamingEventType.ORDERBOOK, orderbook.getFigi(),
+                    null, orderbook.getDepth(), 0L, null, event);
+        } else if (event instanceof StreamingEvent.InstrumentInfo) {
+            final StreamingEvent.InstrumentInfo info = (StreamingEvent.InstrumentInfo) event;
+            return new StreamingEventEnvelope(null, StreamingEventType.INSTRUMENT_INFO, info.getFigi(),
+                    null, 0, 0L, null, event);
+        } else if (event instanceof StreamingEvent.Error) {
+            return new StreamingEventEnvelope(null, StreamingEventType.ERROR, null, null, 0, 0L, null, event);
+        } else {
+            throw new IllegalArgumentException("Неизвестный тип события " + event.getClass().getName());
+        }
+    }
+
+    /**
+     * Исходный текст сообщения.
+     *
+     * @return Текст или null, если конверт создан для уже декодированного события.
+     */
+    @Nullable
+    public String getText() {
+        return text;
+    }
+
+    @NotNull
+    public StreamingEventType getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Идентификатор инструмента.
+     *
+     * @return figi или null для событий об ошибке.
+     */
+    @Nullable
+    public String getFigi() {
+        return figi;
+    }
+
+    /**
+     * Временной интервал свечи.
+     *
+     * @return Интервал или null, если событие не является свечой.
+     */
+    @Nullable
+    public CandleInterval getInterval() {
+        return interval;
+    }
+
+    /**
+     * Глубина стакана.
+     *
+     * @return Глубина или 0, если событие не является стаканом.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Время формирования свечи.
+     *
+     * @return Время в наносекундах от начала эпохи или 0, если событие не является свечой.
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public boolean isDecoded() {
+        return event != null;
+    }
+
+    /**
+     * Получение события. При первом вызове событие декодируется, последующие вызовы возвращают тот же экземпляр.
+     *
+     * @return Событие.
+     *
+     * @throws IOException Если сообщение не удалось декодировать.
+     */
+    @NotNull
+    public StreamingEvent getEvent() throws IOException {
+        StreamingEvent result = event;
+        if (result == null) {
+            synchronized (this) {
+                result = event;
+                if (result == null) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    try {
+                        result = decoder.decode(text);
+                    } catch (IOException ex) {
+                        failure = ex;
+                        throw ex;
+                    }
+                    event = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("StreamingEventEnvelope(");
+        sb.append("eventType=").append(eventType);
+        if (figi != null) sb.append(", figi='").append(figi).append('\'');
+        if (interval != null) sb.append(", interval=").append(interval);
+        if (eventType == StreamingEventType.ORDERBOOK) sb.append(", depth=").append(depth);
+        sb.append(')');
+        return sb.toString();
+    }
+}
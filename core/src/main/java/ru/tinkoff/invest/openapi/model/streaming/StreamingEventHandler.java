@@ -0,0 +1,69 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Обработчик событий streaming с типизированными методами, альтернатива подписке через
+ * {@link org.reactivestreams.Subscriber}.
+ *
+ * Свечи передаются примитивами, а стаканы - переиспользуемым экземпляром {@link FixedPointOrderbook}, поэтому на
+ * обработку очередного сообщения о свече или стакане объекты событий не создаются. Цены - мантиссы с фиксированной
+ * точкой в масштабе инструмента (см. {@link StreamingEventDecoder#setPriceScale(String, int)} и {@link FixedPoint}),
+ * объёмы - в целых лотах. Значения figi берутся из пула ограниченного размера и для одного инструмента обычно
+ * являются одной и той же строкой, но вытесненное из пула значение создаётся заново, поэтому сравнивать figi нужно
+ * через {@link String#equals(Object)}.
+ *
+ * Методы вызываются в потоке, разбирающем сообщения, и должны возвращать управление как можно быстрее. Переданный
+ * стакан действителен только во время вызова; чтобы сохранить его, нужно воспользоваться
+ * {@link FixedPointOrderbook#copy()}.
+ */
+public interface StreamingEventHandler {
+
+    /**
+     * Изменение свечи.
+     *
+     * @param figi         Идентификатор инструмента.
+     * @param interval     Временной интервал свечи.
+     * @param openPrice    Мантисса цены открытия.
+     * @param closingPrice Мантисса цены закрытия.
+     * @param highestPrice Мантисса максимальной цены.
+     * @param lowestPrice  Мантисса минимальной цены.
+     * @param tradingValue Объём торгов в лотах.
+     * @param scale        Масштаб цен.
+     * @param epochNanos   Время формирования свечи в наносекундах от начала эпохи.
+     */
+    default void onCandle(@NotNull final String figi,
+                          @NotNull final CandleInterval interval,
+                          final long openPrice,
+                          final long closingPrice,
+                          final long highestPrice,
+                          final long lowestPrice,
+                          final long tradingValue,
+                          final int scale,
+                          final long epochNanos) {
+    }
+
+    /**
+     * Изменение стакана.
+     *
+     * @param orderbook Стакан, действительный только во время вызова.
+     */
+    default void onOrderbook(@NotNull final FixedPointOrderbook orderbook) {
+    }
+
+    /**
+     * Изменение информации об инструменте. Такие события редки, поэтому передаются обычной моделью.
+     *
+     * @param instrumentInfo Событие.
+     */
+    default void onInstrumentInfo(@NotNull final StreamingEvent.InstrumentInfo instrumentInfo) {
+    }
+
+    /**
+     * Ошибка, присланная сервером.
+     *
+     * @param error Событие.
+     */
+    default void onError(@NotNull final StreamingEvent.Error error) {
+    }
+}
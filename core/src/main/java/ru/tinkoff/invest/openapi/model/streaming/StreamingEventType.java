@@ -0,0 +1,38 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Тип события, приходящего из streaming.
+ */
+public enum StreamingEventType {
+    CANDLE("candle"),
+    ORDERBOOK("orderbook"),
+    INSTRUMENT_INFO("instrument_info"),
+    ERROR("error");
+
+    private final String value;
+
+    StreamingEventType(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+    @Nullable
+    public static StreamingEventType fromValue(String text) {
+        for (StreamingEventType b : StreamingEventType.values()) {
+            if (String.valueOf(b.value).equals(text)) {
+                return b;
+            }
+        }
+        return null;
+    }
+}
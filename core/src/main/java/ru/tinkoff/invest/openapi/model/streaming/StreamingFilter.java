@@ -0,0 +1,152 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Фильтр событий streaming по наборам figi, типов событий и интервалов свечей.
+ *
+ * В отличие от произвольного {@link Predicate}, условия такого фильтра известны заранее, поэтому подписчики с ним
+ * индексируются по figi и получают на проверку только события по своим инструментам. Отсутствующее ограничение
+ * (null) пропускает любое значение. Ограничение по figi не действует на события без figi (ошибки), а ограничение по
+ * интервалу - на события, не являющиеся свечами. Экземпляры неизменяемы.
+ */
+public final class StreamingFilter implements Predicate<StreamingEventEnvelope> {
+
+    private static final StreamingFilter ALL = new StreamingFilter(null, null, null);
+
+    /**
+     * Идентификаторы инструментов.
+     */
+    private final Set<String> figis;
+
+    /**
+     * Типы событий.
+     */
+    private final Set<StreamingEventType> eventTypes;
+
+    /**
+     * Интервалы свечей.
+     */
+    private final Set<CandleInterval> intervals;
+
+    private StreamingFilter(@Nullable final Set<String> figis,
+                            @Nullable final Set<StreamingEventType> eventTypes,
+                            @Nullable final Set<CandleInterval> intervals) {
+        this.figis = figis;
+        this.eventTypes = eventTypes;
+        this.intervals = intervals;
+    }
+
+    /**
+     * Фильтр, пропускающий все события.
+     */
+    @NotNull
+    public static StreamingFilter all() {
+        return ALL;
+    }
+
+    /**
+     * Фильтр, пропускающий события по заданным инструментам.
+     *
+     * @param figis Идентификаторы инструментов.
+     */
+    @NotNull
+    public static StreamingFilter forFigis(@NotNull final String... figis) {
+        return ALL.withFigis(Arrays.asList(figis));
+    }
+
+    /**
+     * Фильтр, пропускающий события по заданным инструментам.
+     *
+     * @param figis Идентификаторы инструментов.
+     */
+    @NotNull
+    public static StreamingFilter forFigis(@NotNull final Collection<String> figis) {
+        return ALL.withFigis(figis);
+    }
+
+    /**
+     * Копия фильтра с другим набором инструментов.
+     *
+     * @param figis Идентификаторы инструментов.
+     */
+    @NotNull
+    public StreamingFilter withFigis(@NotNull final Collection<String> figis) {
+        return new StreamingFilter(Collections.unmodifiableSet(new HashSet<>(figis)), eventTypes, intervals);
+    }
+
+    /**
+     * Копия фильтра с другим набором типов событий.
+     *
+     * @param eventTypes Типы событий.
+     */
+    @NotNull
+    public StreamingFilter withEventTypes(@NotNull final StreamingEventType... eventTypes) {
+        final EnumSet<StreamingEventType> set = EnumSet.noneOf(StreamingEventType.class);
+        set.addAll(Arrays.asList(eventTypes));
+        return new StreamingFilter(figis, Collections.unmodifiableSet(set), intervals);
+    }
+
+    /**
+     * Копия фильтра с другим набором интервалов свечей.
+     *
+     * @param intervals Интервалы свечей.
+     */
+    @NotNull
+    public StreamingFilter withIntervals(@NotNull final CandleInterval... intervals) {
+        final EnumSet<CandleInterval> set = EnumSet.noneOf(CandleInterval.class);
+        set.addAll(Arrays.asList(intervals));
+        return new StreamingFilter(figis, eventTypes, Collections.unmodifiableSet(set));
+    }
+
+    /**
+     * @return Идентификаторы инструментов или null, если ограничения нет.
+     */
+    @Nullable
+    public Set<String> getFigis() {
+        return figis;
+    }
+
+    /**
+     * @return Типы событий или null, если ограничения нет.
+     */
+    @Nullable
+    public Set<StreamingEventType> getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * @return Интервалы свечей или null, если ограничения нет.
+     */
+    @Nullable
+    public Set<CandleInterval> getIntervals() {
+        return intervals;
+    }
+
+    @Override
+    public boolean test(@NotNull final StreamingEventEnvelope envelope) {
+        if (eventTypes != null && !eventTypes.contains(envelope.getEventType())) {
+            return false;
+        }
+        final String figi = envelope.getFigi();
+        if (figis != null && figi != null && !figis.contains(figi)) {
+            return false;
+        }
+        final CandleInterval interval = envelope.getInterval();
+        return intervals == null || interval == null || intervals.contains(interval);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("StreamingFilter(");
+        sb.append("figis=").append(figis);
+        sb.append(", eventTypes=").append(eventTypes);
+        sb.append(", intervals=").append(intervals);
+        sb.append(')');
+        return sb.toString();
+    }
+}
@@ -1,5 +1,7 @@
 package ru.tinkoff.invest.openapi.model.streaming;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import org.jetbrains.annotations.NotNull;
@@ -31,6 +33,8 @@ public abstract class StreamingRequest {
     }
 
     @Nullable
+    @JsonProperty("request_id")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public String getRequestId() {
         return requestId;
     }
@@ -38,10 +42,36 @@ public abstract class StreamingRequest {
     @NotNull
     public abstract String onOffPairId();
 
+    /**
+     * Копия запроса с другим идентификатором.
+     *
+     * Запросы SDK переопределяют этот метод. По умолчанию запрос возвращается как есть, если идентификатор не
+     * меняется, иначе бросается {@link UnsupportedOperationException}.
+     *
+     * @param requestId Идентификатор подписки. Сервер возвращает его в ошибках по этому запросу.
+     */
+    @NotNull
+    public StreamingRequest withRequestId(@Nullable final String requestId) {
+        if (Objects.equals(this.requestId, requestId)) {
+            return this;
+        }
+        throw new UnsupportedOperationException("Запрос не поддерживает смену идентификатора: " + this);
+    }
+
     public abstract static class ActivatingRequest extends StreamingRequest {
         protected ActivatingRequest(String requestId) {
             super(requestId);
         }
+
+        /**
+         * Парный запрос на отписку.
+         *
+         * Запросы SDK переопределяют этот метод. По умолчанию бросается {@link UnsupportedOperationException}.
+         */
+        @NotNull
+        public DeactivatingRequest toUnsubscribe() {
+            throw new UnsupportedOperationException("Неизвестен запрос отписки для " + this);
+        }
     }
     public abstract static class DeactivatingRequest extends StreamingRequest {
         protected DeactivatingRequest(String requestId) {
@@ -97,6 +127,18 @@ public abstract class StreamingRequest {
                     ")";
         }
 
+        @NotNull
+        @Override
+        public CandleUnsubscribeRequest toUnsubscribe() {
+            return new CandleUnsubscribeRequest(figi, interval);
+        }
+
+        @NotNull
+        @Override
+        public CandleSubscribeRequest withRequestId(@Nullable final String requestId) {
+            return new CandleSubscribeRequest(figi, interval, requestId);
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("CandleSubscribeRequest(");
@@ -156,6 +198,12 @@ public abstract class StreamingRequest {
                     ")";
         }
 
+        @NotNull
+        @Override
+        public CandleUnsubscribeRequest withRequestId(@Nullable final String requestId) {
+            return new CandleUnsubscribeRequest(figi, interval, requestId);
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("CandleUnsubscribeRequest(");
@@ -200,6 +248,18 @@ public abstract class StreamingRequest {
                     ")";
         }
 
+        @NotNull
+        @Override
+        public InstrumentInfoUnsubscribeRequest toUnsubscribe() {
+            return new InstrumentInfoUnsubscribeRequest(figi);
+        }
+
+        @NotNull
+        @Override
+        public InstrumentInfoSubscribeRequest withRequestId(@Nullable final String requestId) {
+            return new InstrumentInfoSubscribeRequest(figi, requestId);
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("InstrumentInfoSubscribeRequest(");
@@ -244,6 +304,12 @@ public abstract class StreamingRequest {
                     ")";
         }
 
+        @NotNull
+        @Override
+        public InstrumentInfoUnsubscribeRequest withRequestId(@Nullable final String requestId) {
+            return new InstrumentInfoUnsubscribeRequest(figi, requestId);
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("InstrumentInfoUnsubscribeRequest(");
@@ -303,6 +369,18 @@ public abstract class StreamingRequest {
                     ")";
         }
 
+        @NotNull
+        @Override
+        public OrderbookUnsubscribeRequest toUnsubscribe() {
+            return new OrderbookUnsubscribeRequest(figi, depth);
+        }
+
+        @NotNull
+        @Override
+        public OrderbookSubscribeRequest withRequestId(@Nullable final String requestId) {
+            return new OrderbookSubscribeRequest(figi, depth, requestId);
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("OrderbookSubscribeRequest(");
@@ -363,6 +441,12 @@ public abstract class StreamingRequest {
                     ")";
         }
 
+        @NotNull
+        @Override
+        public OrderbookUnsubscribeRequest withRequestId(@Nullable final String requestId) {
+            return new OrderbookUnsubscribeRequest(figi, depth, requestId);
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("OrderbookUnsubscribeRequest(");
@@ -0,0 +1,68 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Пул строк для значений, которые повторяются из сообщения в сообщение (figi).
+ *
+ * Строка ищется прямо по символам буфера парсера, поэтому для уже встречавшегося значения новая строка не создаётся.
+ * Таблица фиксированного размера с открытой адресацией; при переполнении цепочки проб слот перезаписывается. Запись в
+ * таблицу из разных потоков не синхронизирована: в худшем случае одно и то же значение будет создано дважды, а
+ * строки неизменяемы, так что читатель всегда видит строку целиком.
+ */
+final class StringPool {
+
+    private static final int MAX_PROBES = 8;
+
+    private final String[] table;
+    private final int mask;
+
+    /**
+     * @param capacity Размер таблицы, округляется вверх до степени двойки.
+     */
+    StringPool(final int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.table = new String[size];
+        this.mask = size - 1;
+    }
+
+    @NotNull
+    String intern(@NotNull final char[] chars, final int offset, final int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        final int start = (hash ^ (hash >>> 16)) & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int slot = (start + probe) & mask;
+            final String candidate = table[slot];
+            if (candidate == null) {
+                return table[slot] = new String(chars, offset, length);
+            }
+            if (candidate.hashCode() == hash && matches(candidate, chars, offset, length)) {
+                return candidate;
+            }
+        }
+
+        return table[start] = new String(chars, offset, length);
+    }
+
+    private static boolean matches(@NotNull final String candidate,
+                                   @NotNull final char[] chars,
+                                   final int offset,
+                                   final int length) {
+        if (candidate.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
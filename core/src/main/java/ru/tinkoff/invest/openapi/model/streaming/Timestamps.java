@@ -0,0 +1,226 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Работа с временем событий в виде числа наносекунд от начала эпохи.
+ *
+ * Streaming присылает время в фиксированном формате вида "2019-08-07T15:35:00.029721253Z" (дробная часть и смещение
+ * могут отличаться), поэтому оно разбирается вручную, без {@link java.time.format.DateTimeFormatter} и без создания
+ * объектов. {@link ZonedDateTime} строится только по запросу и всегда в часовом поясе UTC - так же, как это делает
+ * JavaTimeModule по умолчанию.
+ */
+public final class Timestamps {
+
+    /**
+     * Часовой пояс, в котором строится время событий.
+     */
+    public static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    private Timestamps() {
+    }
+
+    /**
+     * Разбор времени формата "yyyy-MM-ddTHH:mm:ss[.n]{Z|+HH:mm[:ss]|-HH:mm[:ss]}".
+     *
+     * @param chars  Буфер с текстом.
+     * @param offset Начало текста в буфере.
+     * @param length Длина текста.
+     *
+     * @return Число наносекунд от начала эпохи.
+     *
+     * @throws DateTimeParseException Если текст имеет другой формат или содержит неверную дату.
+     */
+    public static long parseEpochNanos(@NotNull final char[] chars, final int offset, final int length) {
+        final int end = offset + length;
+        if (length < 20 ||
+                chars[offset + 4] != '-' ||
+                chars[offset + 7] != '-' ||
+                (chars[offset + 10] != 'T' && chars[offset + 10] != 't') ||
+                chars[offset + 13] != ':' ||
+                chars[offset + 16] != ':') {
+            throw malformed(chars, offset, length, 0);
+        }
+
+        final int year = digits(chars, offset, 4, offset, length);
+        final int month = digits(chars, offset + 5, 2, offset, length);
+        final int day = digits(chars, offset + 8, 2, offset, length);
+        final int hour = digits(chars, offset + 11, 2, offset, length);
+        final int minute = digits(chars, offset + 14, 2, offset, length);
+        final int second = digits(chars, offset + 17, 2, offset, length);
+
+        int i = offset + 19;
+        long nanos = 0;
+        if (chars[i] == '.') {
+            i++;
+            int fractionDigits = 0;
+            while (i < end && chars[i] >= '0' && chars[i] <= '9') {
+                nanos = nanos * 10 + (chars[i] - '0');
+                fractionDigits++;
+                i++;
+            }
+            if (fractionDigits == 0 || fractionDigits > 9) {
+                throw malformed(chars, offset, length, i - offset);
+            }
+            for (; fractionDigits < 9; fractionDigits++) {
+                nanos *= 10;
+            }
+        }
+
+        if (i == end) {
+            throw malformed(chars, offset, length, i - offset);
+        }
+        final int offsetSeconds;
+        final char zone = chars[i];
+        if (zone == 'Z' || zone == 'z') {
+            offsetSeconds = 0;
+            i++;
+        } else if (zone == '+' || zone == '-') {
+            if (end - i < 6 || chars[i + 3] != ':') {
+                throw malformed(chars, offset, length, i - offset);
+            }
+            int total = digits(chars, i + 1, 2, offset, length) * 3600 + digits(chars, i + 4, 2, offset, length) * 60;
+            i += 6;
+            if (i < end && chars[i] == ':') {
+                if (end - i < 3) {
+                    throw malformed(chars, offset, length, i - offset);
+                }
+                total += digits(chars, i + 1, 2, offset, length);
+                i += 3;
+            }
+            if (total > 18 * 3600) {
+                throw malformed(chars, offset, length, i - offset);
+            }
+            offsetSeconds = zone == '-' ? -total : total;
+        } else {
+            throw malformed(chars, offset, length, i - offset);
+        }
+        if (i != end) {
+            throw malformed(chars, offset, length, i - offset);
+        }
+
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) ||
+                hour > 23 || minute > 59 || second > 59) {
+            throw malformed(chars, offset, length, 0);
+        }
+
+        final long epochSecond = epochDay(year, month, day) * SECONDS_PER_DAY +
+                hour * 3600 + minute * 60 + second - offsetSeconds;
+        try {
+            return Math.addExact(Math.multiplyExact(epochSecond, NANOS_PER_SECOND), nanos);
+        } catch (ArithmeticException ex) {
+            throw new DateTimeParseException("Время вне допустимого диапазона", new String(chars, offset, length),
+                    0, ex);
+        }
+    }
+
+    /**
+     * Разбор времени формата "yyyy-MM-ddTHH:mm:ss[.n]{Z|+HH:mm[:ss]|-HH:mm[:ss]}".
+     *
+     * @param text Текст.
+     *
+     * @return Число наносекунд от начала эпохи.
+     *
+     * @throws DateTimeParseException Если текст имеет другой формат или содержит неверную дату.
+     */
+    public static long parseEpochNanos(@NotNull final String text) {
+        return parseEpochNanos(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Перевод времени в число наносекунд от начала эпохи.
+     *
+     * @param dateTime Время.
+     *
+     * @return Число наносекунд от начала эпохи.
+     *
+     * @throws ArithmeticException Если время не помещается в long.
+     */
+    public static long toEpochNanos(@NotNull final ZonedDateTime dateTime) {
+        return Math.addExact(Math.multiplyExact(dateTime.toEpochSecond(), NANOS_PER_SECOND), dateTime.getNano());
+    }
+
+    /**
+     * Построение времени в часовом поясе UTC.
+     *
+     * @param epochNanos Число наносекунд от начала эпохи.
+     *
+     * @return Время.
+     */
+    @NotNull
+    public static ZonedDateTime toDateTime(final long epochNanos) {
+        final Instant instant = Instant.ofEpochSecond(
+                Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                Math.floorMod(epochNanos, NANOS_PER_SECOND)
+        );
+        return ZonedDateTime.ofInstant(instant, UTC);
+    }
+
+    /**
+     * Перевод в число миллисекунд от начала эпохи.
+     *
+     * @param epochNanos Число наносекунд от начала эпохи.
+     *
+     * @return Число миллисекунд от начала эпохи.
+     */
+    public static long toEpochMillis(final long epochNanos) {
+        return Math.floorDiv(epochNanos, 1_000_000L);
+    }
+
+    private static int digits(@NotNull final char[] chars,
+                              final int from,
+                              final int count,
+                              final int offset,
+                              final int length) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            final char ch = chars[i];
+            if (ch < '0' || ch > '9') {
+                throw malformed(chars, offset, length, i - offset);
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(final int year, final int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Days from 1970-01-01 in the proleptic Gregorian calendar (Howard Hinnant's days_from_civil)
+    private static long epochDay(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(y, 400);
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468L;
+    }
+
+    @NotNull
+    private static DateTimeParseException malformed(@NotNull final char[] chars,
+                                                    final int offset,
+                                                    final int length,
+                                                    final int errorIndex) {
+        return new DateTimeParseException("Неподдерживаемый формат времени", new String(chars, offset, length),
+                errorIndex);
+    }
+}
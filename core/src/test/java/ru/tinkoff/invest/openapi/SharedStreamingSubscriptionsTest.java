@@ -0,0 +1,97 @@
+package ru.tinkoff.invest.openapi;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SharedStreamingSubscriptionsTest {
+
+    private static final StreamingRequest.CandleSubscribeRequest CANDLE =
+            StreamingRequest.subscribeCandle("BBG0013HGFT4", CandleInterval._1MIN);
+
+    private final List<StreamingRequest> sent = new ArrayList<>();
+    private final StreamingContext context = new StreamingContext() {
+        @Override
+        public void sendRequest(@NotNull final StreamingRequest request) {
+            sent.add(request);
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super StreamingEvent> subscriber) {
+            throw new UnsupportedOperationException();
+        }
+    };
+    private final SharedStreamingSubscriptions shared = new SharedStreamingSubscriptions(context);
+
+    @Test
+    public void onlyFirstLeaseSubscribes() {
+        shared.subscribe(CANDLE);
+        shared.subscribe(CANDLE);
+
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0) instanceof StreamingRequest.CandleSubscribeRequest);
+        assertEquals(2, shared.getReferenceCount(CANDLE.onOffPairId()));
+    }
+
+    @Test
+    public void onlyLastLeaseUnsubscribes() {
+        final SharedStreamingSubscriptions.Lease first = shared.subscribe(CANDLE);
+        final SharedStreamingSubscriptions.Lease second = shared.subscribe(CANDLE);
+
+        first.close();
+        assertEquals(1, sent.size());
+        assertEquals(1, shared.getReferenceCount(CANDLE.onOffPairId()));
+
+        second.close();
+        assertEquals(2, sent.size());
+        final StreamingRequest.CandleUnsubscribeRequest unsubscribe =
+                (StreamingRequest.CandleUnsubscribeRequest) sent.get(1);
+        assertEquals(CANDLE.onOffPairId(), unsubscribe.onOffPairId());
+        assertEquals(0, shared.getReferenceCount(CANDLE.onOffPairId()));
+    }
+
+    @Test
+    public void repeatedCloseDropsOneReference() {
+        final SharedStreamingSubscriptions.Lease first = shared.subscribe(CANDLE);
+        shared.subscribe(CANDLE);
+
+        first.close();
+        first.close();
+
+        assertEquals(1, shared.getReferenceCount(CANDLE.onOffPairId()));
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void closedSubscriptionCanBeTakenAgain() {
+        try (SharedStreamingSubscriptions.Lease lease = shared.subscribe(CANDLE)) {
+            assertEquals(1, shared.getReferenceCount(lease.getOnOffPairId()));
+        }
+        shared.subscribe(CANDLE);
+
+        assertEquals(3, sent.size());
+        assertEquals(1, shared.getReferenceCount(CANDLE.onOffPairId()));
+    }
+
+    @Test
+    public void lastOrderbookLeaseSendsItsUnsubscribe() {
+        final StreamingRequest.OrderbookSubscribeRequest orderbook = StreamingRequest.subscribeOrderbook("FIGI", 20);
+        shared.subscribe(orderbook).close();
+
+        assertEquals(2, sent.size());
+        final StreamingRequest.OrderbookUnsubscribeRequest unsubscribe =
+                (StreamingRequest.OrderbookUnsubscribeRequest) sent.get(1);
+        assertEquals(20, unsubscribe.getDepth());
+        assertEquals(orderbook.onOffPairId(), unsubscribe.onOffPairId());
+    }
+}
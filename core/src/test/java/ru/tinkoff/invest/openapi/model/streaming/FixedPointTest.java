@@ -0,0 +1,88 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FixedPointTest {
+
+    private static long parse(final String text, final int scale) {
+        return FixedPoint.parse(text.toCharArray(), 0, text.length(), scale);
+    }
+
+    private static int naturalScale(final String text) {
+        return FixedPoint.naturalScale(text.toCharArray(), 0, text.length());
+    }
+
+    @Test
+    public void parsesPlainNumbers() {
+        assertEquals(6406L, parse("64.06", 2));
+        assertEquals(64060000L, parse("64.06", 6));
+        assertEquals(64L, parse("64", 0));
+        assertEquals(500L, parse("0.5", 3));
+        assertEquals(12L, parse("+12", 0));
+    }
+
+    @Test
+    public void parsesNegatives() {
+        assertEquals(-6406L, parse("-64.06", 2));
+        assertEquals(-1L, parse("-0.005", 2));
+        assertEquals(-12L, parse("-0.0123", 3));
+    }
+
+    @Test
+    public void roundsExtraDigitsHalfUp() {
+        assertEquals(641L, parse("64.05", 1));
+        assertEquals(640L, parse("64.049", 1));
+        assertEquals(-641L, parse("-64.05", 1));
+    }
+
+    @Test
+    public void parsesExponents() {
+        assertEquals(1500L, parse("1.5e3", 0));
+        assertEquals(1500L, parse("1.5E+3", 0));
+        assertEquals(15L, parse("1.5e-3", 4));
+        assertEquals(2L, parse("15e-1", 0));
+        assertEquals(0L, parse("1e-30", 6));
+    }
+
+    @Test
+    public void rejectsOverflow() {
+        assertThrows(NumberFormatException.class, () -> parse("123456789012345678901", 0));
+        assertThrows(ArithmeticException.class, () -> parse("64.06", FixedPoint.MAX_SCALE));
+        assertThrows(ArithmeticException.class, () -> parse("1e19", 0));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.rescale(Long.MAX_VALUE / 2, 0, 1));
+    }
+
+    @Test
+    public void rejectsMalformedText() {
+        assertThrows(NumberFormatException.class, () -> parse("", 2));
+        assertThrows(NumberFormatException.class, () -> parse("-", 2));
+        assertThrows(NumberFormatException.class, () -> parse("1.2.3", 2));
+        assertThrows(NumberFormatException.class, () -> parse("12a", 2));
+        assertThrows(NumberFormatException.class, () -> parse("1e", 2));
+        assertThrows(NumberFormatException.class, () -> parse("1e+x", 2));
+        assertThrows(IllegalArgumentException.class, () -> parse("1", FixedPoint.MAX_SCALE + 1));
+    }
+
+    @Test
+    public void naturalScaleCountsFractionAndExponent() {
+        assertEquals(0, naturalScale("64"));
+        assertEquals(2, naturalScale("-64.06"));
+        assertEquals(4, naturalScale("1.5e-3"));
+        assertEquals(0, naturalScale("1.5e3"));
+        assertEquals(FixedPoint.MAX_SCALE, naturalScale("0.1234567890123456789012"));
+    }
+
+    @Test
+    public void rescalesBothWays() {
+        assertEquals(640600L, FixedPoint.rescale(6406L, 2, 4));
+        assertEquals(641L, FixedPoint.rescale(64060L, 3, 1));
+        assertEquals(-641L, FixedPoint.rescale(-64060L, 3, 1));
+        assertEquals(new BigDecimal("64.06"), FixedPoint.toBigDecimal(6406L, 2));
+        assertEquals(64.06, FixedPoint.toDouble(6406L, 2), 1e-12);
+    }
+}
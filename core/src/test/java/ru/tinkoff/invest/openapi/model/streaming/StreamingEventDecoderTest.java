@@ -0,0 +1,291 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingEventDecoderTest {
+
+    private static final String CANDLE = "{\"event\":\"candle\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+            "\"payload\":{\"o\":64.0575,\"c\":64.0601,\"h\":64.0605,\"l\":64.0575,\"v\":209," +
+            "\"time\":\"2019-08-07T15:35:00Z\",\"interval\":\"1min\",\"figi\":\"BBG0013HGFT4\"}}";
+
+    private static final String ORDERBOOK = "{\"event\":\"orderbook\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+            "\"payload\":{\"figi\":\"BBG0013HGFT4\",\"depth\":2,\"bids\":[[64.0575,10],[64.05,3]]," +
+            "\"asks\":[[64.0605,7],[64.07,1]]}}";
+
+    @Test
+    public void decodesCandle() throws Exception {
+        final StreamingEvent.Candle candle = (StreamingEvent.Candle) new StreamingEventDecoder().decode(CANDLE);
+
+        assertEquals(new BigDecimal("64.0575"), candle.getOpenPrice());
+        assertEquals(new BigDecimal("64.0601"), candle.getClosingPrice());
+        assertEquals(new BigDecimal("64.0605"), candle.getHighestPrice());
+        assertEquals(new BigDecimal("64.0575"), candle.getLowestPrice());
+        assertEquals(new BigDecimal("209"), candle.getTradingValue());
+        assertEquals(1565192100000000000L, candle.getEpochNanos());
+        assertEquals(CandleInterval._1MIN, candle.getInterval());
+        assertEquals("BBG0013HGFT4", candle.getFigi());
+    }
+
+    @Test
+    public void decodesPayloadArrivingBeforeEvent() throws Exception {
+        final StreamingEventDecoder decoder = new StreamingEventDecoder();
+        final String payloadFirst = "{\"payload\":{\"o\":64.0575,\"c\":64.0601,\"h\":64.0605,\"l\":64.0575," +
+                "\"v\":209,\"time\":\"2019-08-07T15:35:00Z\",\"interval\":\"1min\",\"figi\":\"BBG0013HGFT4\"}," +
+                "\"time\":\"2019-08-07T15:35:00.029721253Z\",\"event\":\"candle\"}";
+
+        assertEquals(decoder.decode(CANDLE), decoder.decode(payloadFirst));
+    }
+
+    @Test
+    public void decodesDeferredPayloadInFixedPointMode() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 4);
+        final String payloadFirst = "{\"payload\":{\"figi\":\"BBG0013HGFT4\",\"depth\":2," +
+                "\"bids\":[[64.0575,10],[64.05,3]],\"asks\":[[64.0605,7],[64.07,1]]},\"event\":\"orderbook\"}";
+
+        final FixedPointOrderbook orderbook = (FixedPointOrderbook) decoder.decode(payloadFirst);
+
+        assertEquals(orderbook, decoder.decode(ORDERBOOK));
+        assertEquals(2, orderbook.bidCount());
+        assertEquals(640575L, orderbook.bestBid());
+        assertEquals(10L, orderbook.bidQty(0));
+        assertEquals(640500L, orderbook.bidPrice(1));
+        assertEquals(640700L, orderbook.askPrice(1));
+    }
+
+    @Test
+    public void decodesErrorWithPayloadFirst() throws Exception {
+        final StreamingEvent.Error error = (StreamingEvent.Error) new StreamingEventDecoder()
+                .decode("{\"payload\":{\"error\":\"Subscription failed\",\"request_id\":\"42\"}," +
+                        "\"event\":\"error\"}");
+
+        assertEquals("Subscription failed", error.getError());
+        assertEquals("42", error.getRequestId());
+    }
+
+    @Test
+    public void rejectsMalformedMessages() {
+        final StreamingEventDecoder decoder = new StreamingEventDecoder();
+
+        assertThrows(JsonParseException.class, () -> decoder.decode("{\"payload\":{\"error\":\"x\"}}"));
+        assertThrows(JsonParseException.class, () -> decoder.decode("{\"event\":\"candle\"}"));
+        assertThrows(JsonParseException.class, () -> decoder.decode("{\"event\":\"trade\",\"payload\":{}}"));
+        assertThrows(JsonParseException.class, () -> decoder.decode(CANDLE.replace("\"v\":209,", "")));
+        assertThrows(JsonParseException.class, () -> decoder.decode(CANDLE.replace("1min", "7min")));
+        assertThrows(JsonParseException.class, () -> decoder.decode("[]"));
+    }
+
+    @Test
+    public void envelopeReadsHeaderWithoutDecoding() throws Exception {
+        final StreamingEventDecoder decoder = new StreamingEventDecoder();
+
+        final StreamingEventEnvelope candle = decoder.envelope(CANDLE);
+        assertEquals(StreamingEventType.CANDLE, candle.getEventType());
+        assertEquals("BBG0013HGFT4", candle.getFigi());
+        assertEquals(CandleInterval._1MIN, candle.getInterval());
+        assertEquals(1565192100000000000L, candle.getEpochNanos());
+        assertEquals(decoder.decode(CANDLE), candle.getEvent());
+
+        final StreamingEventEnvelope orderbook = decoder.envelope(ORDERBOOK);
+        assertEquals(StreamingEventType.ORDERBOOK, orderbook.getEventType());
+        assertEquals(2, orderbook.getDepth());
+        assertEquals(0L, orderbook.getEpochNanos());
+        assertNull(orderbook.getInterval());
+        assertTrue(orderbook.getEvent() instanceof StreamingEvent.Orderbook);
+    }
+
+    @Test
+    public void fixedPointCandleUsesScaleOfItsInstrument() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        decoder.setPriceScale("BBG0013HGFT4", 2);
+
+        final FixedPointCandle candle = (FixedPointCandle) decoder.decode(CANDLE);
+
+        assertEquals(2, candle.getScale());
+        assertEquals(6406L, candle.getOpenPrice());
+        assertEquals(6406L, candle.getClosingPrice());
+        assertEquals(6406L, candle.getHighestPrice());
+        assertEquals(6406L, candle.getLowestPrice());
+        assertEquals(209L, candle.getTradingValue());
+    }
+
+    @Test
+    public void builtCandleKeepsWholeLotsOnly() {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 2);
+        final BigDecimal price = new BigDecimal("64.06");
+
+        final FixedPointCandle candle = (FixedPointCandle) decoder.candle(price, price, price, price,
+                new BigDecimal("209"), 0L, CandleInterval._1MIN, "BBG0013HGFT4", true);
+        assertEquals(209L, candle.getTradingValue());
+
+        assertThrows(IllegalArgumentException.class, () -> decoder.candle(price, price, price, price,
+                new BigDecimal("209.5"), 0L, CandleInterval._1MIN, "BBG0013HGFT4", true));
+    }
+
+    @Test
+    public void equalFixedPointCandlesHaveEqualHashes() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+
+        final StreamingEvent first = decoder.decode(CANDLE);
+        final StreamingEvent second = decoder.decode(CANDLE);
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(1, new HashSet<>(Arrays.asList(first, second)).size());
+    }
+
+    @Test
+    public void reusedOrderbookHashFollowsItsContent() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        final FixedPointOrderbook reused = new FixedPointOrderbook();
+
+        decoder.decode(ORDERBOOK, reused);
+        final FixedPointOrderbook saved = reused.copy();
+        assertEquals(saved, reused);
+        assertEquals(saved.hashCode(), reused.hashCode());
+        assertEquals(saved.hashCode(), ((FixedPointOrderbook) decoder.decode(ORDERBOOK)).hashCode());
+
+        decoder.decode(ORDERBOOK.replace("[64.05,3]", "[64.05,4]"), reused);
+        assertNotEquals(saved, reused);
+        assertEquals(3L, saved.bidQty(1));
+    }
+
+    @Test
+    public void highScaleOfOneInstrumentDoesNotBreakOthers() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        decoder.setPriceScale("OTHER", FixedPoint.MAX_SCALE);
+
+        final FixedPointCandle candle = (FixedPointCandle) decoder.decode(CANDLE);
+        assertEquals(6, candle.getScale());
+        assertEquals(64057500L, candle.getOpenPrice());
+
+        final FixedPointOrderbook orderbook = (FixedPointOrderbook) decoder.decode(ORDERBOOK);
+        assertEquals(6, orderbook.getScale());
+        assertEquals(64057500L, orderbook.bestBid());
+        assertEquals(64060500L, orderbook.bestAsk());
+    }
+
+    @Test
+    public void mixedScalesAcrossInstruments() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        decoder.setPriceScale("BBG0013HGFT4", 4);
+        decoder.setPriceScale("TINY", 12);
+
+        final FixedPointCandle candle = (FixedPointCandle) decoder.decode(CANDLE);
+        assertEquals(4, candle.getScale());
+        assertEquals(640575L, candle.getOpenPrice());
+
+        final FixedPointCandle tiny = (FixedPointCandle) decoder.decode(CANDLE
+                .replace("BBG0013HGFT4", "TINY")
+                .replace("64.0575", "0.000000123457"));
+        assertEquals(12, tiny.getScale());
+        assertEquals(123457L, tiny.getOpenPrice());
+        assertEquals(64060100000000L, tiny.getClosingPrice());
+    }
+
+    @Test
+    public void pricesBeforeFigiAreRescaledToInstrumentScale() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        decoder.setPriceScale("BBG0013HGFT4", 1);
+
+        final String figiLast = "{\"event\":\"orderbook\",\"payload\":{\"depth\":1,\"bids\":[[64.05,10]]," +
+                "\"asks\":[[64.07,7]],\"figi\":\"BBG0013HGFT4\"}}";
+        final FixedPointOrderbook orderbook = (FixedPointOrderbook) decoder.decode(figiLast);
+
+        assertEquals(1, orderbook.getScale());
+        assertEquals(641L, orderbook.bestBid());
+        assertEquals(641L, orderbook.bestAsk());
+    }
+
+    @Test
+    public void priceOverflowingItsInstrumentScaleFailsOnlyThatInstrument() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        decoder.setPriceScale("BBG0013HGFT4", FixedPoint.MAX_SCALE);
+
+        assertThrows(JsonParseException.class, () -> decoder.decode(CANDLE));
+        assertThrows(JsonParseException.class, () -> decoder.decode(ORDERBOOK));
+
+        final FixedPointCandle other = (FixedPointCandle) decoder.decode(CANDLE.replace("BBG0013HGFT4", "OTHER"));
+        assertEquals(64057500L, other.getOpenPrice());
+    }
+
+    @Test
+    public void priceWithTooManyDigitsIsRounded() throws Exception {
+        final StreamingEventDecoder decoder =
+                new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+
+        final FixedPointCandle candle = (FixedPointCandle) decoder.decode(CANDLE
+                .replace("64.0575", "12345.123456789012345678"));
+        assertEquals(12345123457L, candle.getOpenPrice());
+    }
+
+    @Test
+    public void envelopeWithHandlerReadsHeaderInSamePass() throws Exception {
+        final StreamingEventDecoder decoder = new StreamingEventDecoder();
+        final List<String> seen = new ArrayList<>();
+        final StreamingEventHandler handler = new StreamingEventHandler() {
+            @Override
+            public void onCandle(final String figi, final CandleInterval interval, final long openPrice,
+                                 final long closingPrice, final long highestPrice, final long lowestPrice,
+                                 final long tradingValue, final int scale, final long epochNanos) {
+                seen.add(figi + " " + interval + " " + closingPrice + "/" + scale);
+            }
+
+            @Override
+            public void onOrderbook(final FixedPointOrderbook orderbook) {
+                seen.add(orderbook.getFigi() + " " + orderbook.bestBid());
+            }
+
+            @Override
+            public void onError(final StreamingEvent.Error error) {
+                seen.add(error.getError());
+            }
+        };
+
+        final StreamingEventEnvelope candle = decoder.envelope(CANDLE, handler);
+        assertEquals(StreamingEventType.CANDLE, candle.getEventType());
+        assertEquals("BBG0013HGFT4", candle.getFigi());
+        assertEquals(CandleInterval._1MIN, candle.getInterval());
+        assertEquals(decoder.decode(CANDLE), candle.getEvent());
+
+        final StreamingEventEnvelope orderbook = decoder.envelope(ORDERBOOK, handler);
+        assertEquals(StreamingEventType.ORDERBOOK, orderbook.getEventType());
+        assertEquals("BBG0013HGFT4", orderbook.getFigi());
+        assertEquals(2, orderbook.getDepth());
+        assertTrue(orderbook.getEvent() instanceof StreamingEvent.Orderbook);
+
+        final StreamingEventEnvelope error = decoder.envelope(
+                "{\"event\":\"error\",\"payload\":{\"error\":\"Subscription failed\"}}", handler);
+        assertEquals(StreamingEventType.ERROR, error.getEventType());
+        assertNull(error.getFigi());
+        assertSame(error.getEvent(), error.getEvent());
+        assertEquals("Subscription failed", ((StreamingEvent.Error) error.getEvent()).getError());
+
+        assertEquals(3, seen.size());
+        assertEquals("BBG0013HGFT4 1min 64060100/6", seen.get(0));
+        assertEquals("BBG0013HGFT4 64057500", seen.get(1));
+        assertEquals("Subscription failed", seen.get(2));
+    }
+}
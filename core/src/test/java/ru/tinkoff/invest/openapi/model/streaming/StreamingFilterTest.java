@@ -0,0 +1,46 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingFilterTest {
+
+    private static final String CANDLE = "{\"event\":\"candle\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+            "\"payload\":{\"o\":64.0575,\"c\":64.0601,\"h\":64.0605,\"l\":64.0575,\"v\":209," +
+            "\"time\":\"2019-08-07T15:35:00Z\",\"interval\":\"1min\",\"figi\":\"A\"}}";
+
+    private static final String ORDERBOOK = "{\"event\":\"orderbook\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+            "\"payload\":{\"figi\":\"A\",\"depth\":1,\"bids\":[[64.05,10]],\"asks\":[[64.06,7]]}}";
+
+    private static final String ERROR = "{\"event\":\"error\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+            "\"payload\":{\"error\":\"Subscription not found\"}}";
+
+    private final StreamingEventDecoder decoder = new StreamingEventDecoder();
+
+    @Test
+    public void figisLimitOnlyEventsWithFigi() throws Exception {
+        assertTrue(StreamingFilter.forFigis("A").test(decoder.envelope(CANDLE)));
+        assertFalse(StreamingFilter.forFigis("B").test(decoder.envelope(CANDLE)));
+        assertTrue(StreamingFilter.forFigis("B").test(decoder.envelope(ERROR)));
+    }
+
+    @Test
+    public void eventTypesLimitEveryEvent() throws Exception {
+        final StreamingFilter filter = StreamingFilter.all().withEventTypes(StreamingEventType.ORDERBOOK);
+
+        assertTrue(filter.test(decoder.envelope(ORDERBOOK)));
+        assertFalse(filter.test(decoder.envelope(CANDLE)));
+        assertFalse(filter.test(decoder.envelope(ERROR)));
+    }
+
+    @Test
+    public void intervalsLimitOnlyCandles() throws Exception {
+        final StreamingFilter filter = StreamingFilter.all().withIntervals(CandleInterval._5MIN);
+
+        assertFalse(filter.test(decoder.envelope(CANDLE)));
+        assertTrue(filter.test(decoder.envelope(ORDERBOOK)));
+        assertTrue(StreamingFilter.all().withIntervals(CandleInterval._1MIN).test(decoder.envelope(CANDLE)));
+    }
+}
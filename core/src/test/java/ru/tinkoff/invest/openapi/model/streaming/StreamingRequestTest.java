@@ -0,0 +1,62 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingRequestTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // A third-party request written before `withRequestId` and `toUnsubscribe` existed
+    private static final class CustomRequest extends StreamingRequest.ActivatingRequest {
+        CustomRequest() {
+            super(null);
+        }
+
+        @NotNull
+        @Override
+        public String onOffPairId() {
+            return "Custom";
+        }
+    }
+
+    @Test
+    public void requestWithoutIdOmitsRequestId() throws JsonProcessingException {
+        final String json = mapper.writeValueAsString(StreamingRequest.subscribeCandle("FIGI", CandleInterval._1MIN));
+
+        assertFalse(json.contains("request_id"), json);
+    }
+
+    @Test
+    public void requestWithIdCarriesRequestId() throws JsonProcessingException {
+        final String json = mapper.writeValueAsString(
+                StreamingRequest.subscribeCandle("FIGI", CandleInterval._1MIN).withRequestId("42"));
+
+        assertTrue(json.contains("\"request_id\":\"42\""), json);
+    }
+
+    @Test
+    public void builtInRequestsPairWithTheirUnsubscribe() {
+        final StreamingRequest.DeactivatingRequest unsubscribe =
+                StreamingRequest.subscribeOrderbook("FIGI", 10).toUnsubscribe();
+
+        assertEquals(StreamingRequest.unsubscribeOrderbook("FIGI", 10).onOffPairId(), unsubscribe.onOffPairId());
+    }
+
+    @Test
+    public void customRequestKeepsItsIdButCannotChangeIt() {
+        final CustomRequest request = new CustomRequest();
+
+        assertSame(request, request.withRequestId(null));
+        assertThrows(UnsupportedOperationException.class, () -> request.withRequestId("42"));
+        assertThrows(UnsupportedOperationException.class, request::toUnsubscribe);
+    }
+}
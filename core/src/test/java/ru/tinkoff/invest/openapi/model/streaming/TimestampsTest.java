@@ -0,0 +1,79 @@
+package ru.tinkoff.invest.openapi.model.streaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TimestampsTest {
+
+    private static long expected(final String text) {
+        return Timestamps.toEpochNanos(ZonedDateTime.parse(text));
+    }
+
+    @Test
+    public void parsesUtc() {
+        assertEquals(1565192100000000000L, Timestamps.parseEpochNanos("2019-08-07T15:35:00Z"));
+        assertEquals(0L, Timestamps.parseEpochNanos("1970-01-01T00:00:00Z"));
+        assertEquals(-1_000_000_000L, Timestamps.parseEpochNanos("1969-12-31T23:59:59z"));
+    }
+
+    @Test
+    public void parsesFractionalSeconds() {
+        assertEquals(1565192100029721253L, Timestamps.parseEpochNanos("2019-08-07T15:35:00.029721253Z"));
+        assertEquals(1565192100500000000L, Timestamps.parseEpochNanos("2019-08-07T15:35:00.5Z"));
+        assertEquals(1565192100000123000L, Timestamps.parseEpochNanos("2019-08-07T15:35:00.000123Z"));
+    }
+
+    @Test
+    public void parsesOffsets() {
+        for (final String text : new String[]{
+                "2019-08-07T18:35:00+03:00",
+                "2019-08-07T10:35:00.25-05:00",
+                "2019-08-07T15:35:00+00:00",
+                "2019-08-07T18:35:30+03:00:30",
+                "2020-02-29T23:00:00-18:00"
+        }) {
+            assertEquals(expected(text), Timestamps.parseEpochNanos(text), text);
+        }
+    }
+
+    @Test
+    public void rejectsBadInput() {
+        for (final String text : new String[]{
+                "",
+                "2019-08-07",
+                "2019-08-07 15:35:00Z",
+                "2019-08-07T15:35:00",
+                "2019-08-07T15:35:00.Z",
+                "2019-08-07T15:35:00.0123456789Z",
+                "2019-13-07T15:35:00Z",
+                "2019-02-29T15:35:00Z",
+                "2019-08-07T24:00:00Z",
+                "2019-08-07T15:60:00Z",
+                "2019-08-07T15:35:00+0300",
+                "2019-08-07T15:35:00+19:00",
+                "2019-08-07T15:35:00Zjunk",
+                "2019-0a-07T15:35:00Z"
+        }) {
+            assertThrows(DateTimeParseException.class, () -> Timestamps.parseEpochNanos(text), text);
+        }
+    }
+
+    @Test
+    public void parsesFromBufferSlice() {
+        final char[] buffer = "xx\"2019-08-07T15:35:00Z\"yy".toCharArray();
+        assertEquals(1565192100000000000L, Timestamps.parseEpochNanos(buffer, 3, 20));
+    }
+
+    @Test
+    public void convertsBack() {
+        final long nanos = Timestamps.parseEpochNanos("2019-08-07T15:35:00.029721253Z");
+        assertEquals(ZonedDateTime.parse("2019-08-07T15:35:00.029721253Z[UTC]"), Timestamps.toDateTime(nanos));
+        assertEquals(1565192100029L, Timestamps.toEpochMillis(nanos));
+        assertEquals(-1L, Timestamps.toEpochMillis(-1L));
+    }
+}
@@ -0,0 +1,247 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import ru.tinkoff.invest.openapi.MarketContext;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+import ru.tinkoff.invest.openapi.model.rest.Candles;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventDecoder;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+import ru.tinkoff.invest.openapi.model.streaming.Timestamps;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Восстановление свечей, пропущенных за время переподключения streaming.
+ *
+ * Для каждой пары (figi, интервал) запоминается время последней полученной свечи. После переподключения соединения
+ * недостающий отрезок по каждой его подписке на свечи запрашивается через {@link MarketContext#getMarketCandles},
+ * причём одновременно выполняется не больше заданного числа запросов. Полученные свечи, начиная с последней известной
+ * (она могла успеть измениться), передаются дальше в порядке времени с признаком backfilled. Свечи начиная с первой,
+ * полученной из streaming после переподключения, не передаются: streaming уже доставил их в более свежем виде.
+ * Интервалы, которых нет в REST API, не восстанавливаются.
+ */
+final class CandleBackfill {
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int INTERVALS = CandleInterval.values().length;
+
+    private final MarketContext market;
+    private final StreamingEventDecoder decoder;
+    private final Consumer<StreamingEvent> sink;
+    private final int parallelism;
+    private final Logger logger;
+    // Start time of the latest candle by figi, indexed by interval ordinal
+    private final ConcurrentHashMap<String, AtomicLongArray> lastCandles;
+    // Start time of the first candle that came over the wire since the last `recover` of the pair, laid out the same
+    private final ConcurrentHashMap<String, AtomicLongArray> firstLiveCandles;
+    private final ConcurrentLinkedQueue<Gap> gaps;
+    private final AtomicInteger inFlight;
+
+    private static final class Gap {
+        @NotNull final String figi;
+        @NotNull final CandleInterval interval;
+        @NotNull final CandleResolution resolution;
+        final long fromNanos;
+
+        Gap(@NotNull final String figi,
+            @NotNull final CandleInterval interval,
+            @NotNull final CandleResolution resolution,
+            final long fromNanos) {
+            this.figi = figi;
+            this.interval = interval;
+            this.resolution = resolution;
+            this.fromNanos = fromNanos;
+        }
+    }
+
+    /**
+     * @param market      Контекст для запросов свечей.
+     * @param decoder     Декодер, определяющий представление цен в восстановленных свечах.
+     * @param sink        Получатель восстановленных свечей.
+     * @param parallelism Наибольшее число одновременных запросов.
+     * @param logger      Журнал.
+     */
+    CandleBackfill(@NotNull final MarketContext market,
+                   @NotNull final StreamingEventDecoder decoder,
+                   @NotNull final Consumer<StreamingEvent> sink,
+                   final int parallelism,
+                   @NotNull final Logger logger) {
+        this.market = market;
+        this.decoder = decoder;
+        this.sink = sink;
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+        this.lastCandles = new ConcurrentHashMap<>();
+        this.firstLiveCandles = new ConcurrentHashMap<>();
+        this.gaps = new ConcurrentLinkedQueue<>();
+        this.inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Учёт свечи, полученной из streaming. Достаточно заголовка события, сама свеча не декодируется.
+     *
+     * @param figi       Идентификатор инструмента.
+     * @param interval   Временной интервал свечи.
+     * @param epochNanos Время формирования свечи в наносекундах от начала эпохи.
+     */
+    void record(@NotNull final String figi, @NotNull final CandleInterval interval, final long epochNanos) {
+        advance(figi, interval, epochNanos);
+        final AtomicLongArray firstLive = firstLiveCandles.get(figi);
+        if (firstLive != null) {
+            firstLive.compareAndSet(interval.ordinal(), NONE, epochNanos);
+        }
+    }
+
+    /**
+     * Запрос пропущенных свечей по подпискам переподключившегося соединения.
+     *
+     * @param subscriptions Активные подписки соединения.
+     */
+    void recover(@NotNull final Collection<PreparedRequest> subscriptions) {
+        for (final PreparedRequest prepared : subscriptions) {
+            // while a hedge copy was down its partner kept delivering, so there is no gap
+            if (prepared.hedge || !(prepared.request instanceof StreamingRequest.CandleSubscribeRequest)) {
+                continue;
+            }
+            final StreamingRequest.CandleSubscribeRequest request =
+                    (StreamingRequest.CandleSubscribeRequest) prepared.request;
+            final AtomicLongArray last = lastCandles.get(request.getFigi());
+            final long fromNanos = last == null ? NONE : last.get(request.getInterval().ordinal());
+            final CandleResolution resolution = CandleResolution.fromValue(request.getInterval().getValue());
+            if (fromNanos != NONE && resolution != null) {
+                times(firstLiveCandles, request.getFigi()).set(request.getInterval().ordinal(), NONE);
+                gaps.add(new Gap(request.getFigi(), request.getInterval(), resolution, fromNanos));
+            }
+        }
+        drain();
+    }
+
+    // Candle times of the figi by interval ordinal, created on first use with every interval at `NONE`
+    @NotNull
+    private static AtomicLongArray times(@NotNull final ConcurrentHashMap<String, AtomicLongArray> byFigi,
+                                         @NotNull final String figi) {
+        AtomicLongArray times = byFigi.get(figi);
+        if (times == null) {
+            final AtomicLongArray created = new AtomicLongArray(INTERVALS);
+            for (int i = 0; i < INTERVALS; i++) {
+                created.set(i, NONE);
+            }
+            times = byFigi.putIfAbsent(figi, created);
+            if (times == null) {
+                times = created;
+            }
+        }
+        return times;
+    }
+
+    private void advance(@NotNull final String figi, @NotNull final CandleInterval interval, final long epochNanos) {
+        final AtomicLongArray last = times(lastCandles, figi);
+        final int index = interval.ordinal();
+        long current = last.get(index);
+        while (epochNanos > current && !last.compareAndSet(index, current, epochNanos)) {
+            current = last.get(index);
+        }
+    }
+
+    // Starts queued fetches while there are free slots; every finished fetch calls back here
+    private void drain() {
+        while (true) {
+            final int running = inFlight.get();
+            if (running >= parallelism) {
+                return;
+            }
+            if (!inFlight.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            final Gap gap = gaps.poll();
+            if (gap == null) {
+                inFlight.decrementAndGet();
+                if (gaps.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            fetch(gap);
+        }
+    }
+
+    private void fetch(@NotNull final Gap gap) {
+        final OffsetDateTime from = OffsetDateTime.ofInstant(
+                Instant.ofEpochSecond(0, gap.fromNanos), ZoneOffset.UTC);
+        try {
+            market.getMarketCandles(gap.figi, from, OffsetDateTime.now(ZoneOffset.UTC), gap.resolution)
+                    .whenComplete((candles, ex) -> {
+                        try {
+                            if (ex != null) {
+                                logger.warn("Не удалось восстановить свечи " + gap.figi + " " + gap.interval, ex);
+                            } else {
+                                emit(gap, candles);
+                            }
+                        } catch (RuntimeException failure) {
+                            // nobody waits on the future, so an escaped exception would vanish without a trace
+                            logger.warn("Не удалось восстановить свечи " + gap.figi + " " + gap.interval, failure);
+                        } finally {
+                            inFlight.decrementAndGet();
+                            drain();
+                        }
+                    });
+        } catch (RuntimeException ex) {
+            logger.warn("Не удалось восстановить свечи " + gap.figi + " " + gap.interval, ex);
+            inFlight.decrementAndGet();
+            drain();
+        }
+    }
+
+    private void emit(@NotNull final Gap gap, @NotNull final Optional<Candles> candles) {
+        if (!candles.isPresent() || candles.get().getCandles() == null) {
+            return;
+        }
+        final List<ru.tinkoff.invest.openapi.model.rest.Candle> missed = new ArrayList<>(candles.get().getCandles());
+        missed.sort(Comparator.comparing(ru.tinkoff.invest.openapi.model.rest.Candle::getTime));
+        final AtomicLongArray firstLive = times(firstLiveCandles, gap.figi);
+        int recovered = 0;
+        for (final ru.tinkoff.invest.openapi.model.rest.Candle candle : missed) {
+            final long epochNanos = Timestamps.toEpochNanos(candle.getTime().toZonedDateTime());
+            if (epochNanos < gap.fromNanos) {
+                continue;
+            }
+            // Read for every candle, since streaming may catch up while they are being delivered
+            final long liveFrom = firstLive.get(gap.interval.ordinal());
+            if (liveFrom != NONE && epochNanos >= liveFrom) {
+                break;
+            }
+            recovered++;
+            final StreamingEvent event = decoder.candle(
+                    candle.getO(),
+                    candle.getC(),
+                    candle.getH(),
+                    candle.getL(),
+                    BigDecimal.valueOf(candle.getV()),
+                    epochNanos,
+                    gap.interval,
+                    gap.figi,
+                    true
+            );
+            advance(gap.figi, gap.interval, epochNanos);
+            sink.accept(event);
+        }
+        logger.info("Восстановлено " + recovered + " свечей " + gap.figi + " " + gap.interval);
+    }
+}
@@ -0,0 +1,83 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.tinkoff.invest.openapi.model.streaming.FixedPointOrderbook;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventEnvelope;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Слоты последних значений для подписки с прореживанием.
+ *
+ * Для каждого стакана (figi и глубина) и каждой информации об инструменте (figi) хранится только последнее ещё не
+ * доставленное событие: новое событие перезаписывает его на месте. Поэтому отставший подписчик получает не больше
+ * одного события на ключ и быстро догоняет текущее состояние. Свечи и ошибки не прореживаются.
+ */
+final class ConflationSlots {
+
+    /**
+     * Слот последнего значения. В буфер подписчика попадает сам слот, и только если до этого он был пуст.
+     */
+    static final class Slot {
+        private final AtomicReference<StreamingEventEnvelope> value = new AtomicReference<>();
+
+        /**
+         * @return true, если слот был пуст и его нужно поставить в очередь.
+         */
+        boolean put(@NotNull final StreamingEventEnvelope envelope) {
+            return value.getAndSet(envelope) == null;
+        }
+
+        @Nullable
+        StreamingEventEnvelope take() {
+            return value.getAndSet(null);
+        }
+    }
+
+    private static final class FigiSlots {
+        final Slot instrumentInfo = new Slot();
+        final AtomicReferenceArray<Slot> orderbooks = new AtomicReferenceArray<>(FixedPointOrderbook.MAX_DEPTH + 1);
+    }
+
+    private final ConcurrentHashMap<String, FigiSlots> slots = new ConcurrentHashMap<>();
+
+    /**
+     * @return Слот для события или null, если событие не прореживается.
+     */
+    @Nullable
+    Slot slotFor(@NotNull final StreamingEventEnvelope envelope) {
+        final String figi = envelope.getFigi();
+        if (figi == null) {
+            return null;
+        }
+
+        switch (envelope.getEventType()) {
+            case INSTRUMENT_INFO:
+                return slotsFor(figi).instrumentInfo;
+            case ORDERBOOK:
+                final int depth = envelope.getDepth();
+                if (depth < 0 || depth > FixedPointOrderbook.MAX_DEPTH) {
+                    return null;
+                }
+                final AtomicReferenceArray<Slot> orderbooks = slotsFor(figi).orderbooks;
+                Slot slot = orderbooks.get(depth);
+                if (slot == null) {
+                    orderbooks.compareAndSet(depth, null, new Slot());
+                    slot = orderbooks.get(depth);
+                }
+                return slot;
+            default:
+                return null;
+        }
+    }
+
+    @NotNull
+    private FigiSlots slotsFor(@NotNull final String figi) {
+        final FigiSlots figiSlots = slots.get(figi);
+        return figiSlots != null ? figiSlots : slots.computeIfAbsent(figi, key -> new FigiSlots());
+    }
+}
@@ -0,0 +1,165 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import ru.tinkoff.invest.openapi.StreamingSubscriptionOptions.OverflowPolicy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Стадия декодирования сообщений streaming вне потоков чтения сокетов.
+ *
+ * Сообщения раскладываются по полосам по figi. Каждую полосу обслуживает один поток, поэтому сообщения по одному
+ * инструменту обрабатываются в порядке поступления, а разные инструменты - параллельно. Поток чтения сокета только
+ * находит figi в тексте сообщения и ставит сообщение в очередь полосы.
+ *
+ * Очереди полос ограничены; что делать с сообщением, которому не хватило места, определяет {@link OverflowPolicy}.
+ * При {@code FAIL} {@link #submit} бросает {@link RejectedExecutionException}, и соединение приходится переоткрыть.
+ */
+final class DecodeStage {
+
+    private static final String FIGI_FIELD = "\"figi\"";
+
+    private final ThreadPoolExecutor[] stripes;
+    // Takes the message and the number of the connection it came from
+    private final ObjIntConsumer<String> handler;
+    private final int queueSize;
+    @NotNull private final OverflowPolicy overflowPolicy;
+    @NotNull private final Logger logger;
+    // Counts messages dropped under `DROP_NEWEST` and `DROP_OLDEST`
+    private final AtomicLong dropped = new AtomicLong();
+
+    DecodeStage(final int parallelism,
+                final int queueSize,
+                @NotNull final OverflowPolicy overflowPolicy,
+                @NotNull final ObjIntConsumer<String> handler,
+                @NotNull final Logger logger) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Число потоков декодирования должно быть положительным");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Размер очереди декодирования должен быть положительным");
+        }
+        this.handler = handler;
+        this.queueSize = queueSize;
+        this.overflowPolicy = overflowPolicy;
+        this.logger = logger;
+        this.stripes = new ThreadPoolExecutor[parallelism];
+
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        final ThreadFactory threadFactory = r -> {
+            final Thread thread = new Thread(r, "streaming-decode-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        for (int i = 0; i < parallelism; i++) {
+            this.stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), threadFactory, this::overflow);
+        }
+    }
+
+    void submit(@NotNull final String text, final int shard) {
+        final int stripe = (stripeHash(text) & Integer.MAX_VALUE) % stripes.length;
+        stripes[stripe].execute(() -> handler.accept(text, shard));
+    }
+
+    /**
+     * Текущая длина очереди каждой полосы; каждая вмещает не больше {@link #queueSize()} сообщений.
+     */
+    @NotNull
+    int[] queueDepths() {
+        final int[] depths = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            depths[i] = stripes[i].getQueue().size();
+        }
+        return depths;
+    }
+
+    int queueSize() {
+        return queueSize;
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    void shutdown() {
+        for (final ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    // Called on the reader thread when a stripe's queue is full, or when the stage has been shut down
+    private void overflow(@NotNull final Runnable task, @NotNull final ThreadPoolExecutor stripe) {
+        if (stripe.isShutdown()) {
+            return; // The context is terminated, nobody is listening anymore
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    stripe.getQueue().put(task);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_NEWEST:
+                discard();
+                break;
+            case DROP_OLDEST:
+                while (!stripe.getQueue().offer(task)) {
+                    if (stripe.getQueue().poll() != null) {
+                        discard();
+                    }
+                }
+                break;
+            case FAIL:
+                throw new RejectedExecutionException("Переполнена очередь декодирования на " + queueSize + " сообщений");
+        }
+    }
+
+    private void discard() {
+        if (dropped.getAndIncrement() == 0) {
+            logger.warn("Очередь декодирования переполнена (" + queueSize + " сообщений), часть сообщений " +
+                    "Streaming API отброшена");
+        }
+    }
+
+    /**
+     * Хэш значения поля figi, посчитанный прямо по тексту сообщения без его разбора. Сообщения без figi (например,
+     * ошибки) попадают в одну полосу.
+     */
+    static int stripeHash(@NotNull final String text) {
+        final int field = text.indexOf(FIGI_FIELD);
+        if (field < 0) {
+            return 0;
+        }
+
+        int i = field + FIGI_FIELD.length();
+        final int length = text.length();
+        while (i < length && (text.charAt(i) == ':' || Character.isWhitespace(text.charAt(i)))) {
+            i++;
+        }
+        if (i == length || text.charAt(i) != '"') {
+            return 0;
+        }
+
+        int hash = 0;
+        for (i++; i < length; i++) {
+            final char ch = text.charAt(i);
+            if (ch == '"') {
+                break;
+            }
+            hash = 31 * hash + ch;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
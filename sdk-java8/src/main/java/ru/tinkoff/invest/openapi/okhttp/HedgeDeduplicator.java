@@ -0,0 +1,108 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventType;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отбрасывание второй копии событий, приходящих по двум соединениям одновременно.
+ *
+ * Ключ события - 64-битный хеш (FNV-1a) типа события и текста сообщения начиная с поля payload: время отправки в
+ * заголовке у копий разное, а сами данные совпадают. Для каждого инструмента с дублированными подписками помнятся
+ * ключи последних {@link #WINDOW} событий, чья копия ещё не пришла, вместе с номером соединения. Событие считается
+ * копией, только если такой ключ ждёт пары с другого соединения; после этого ключ забывается. Поэтому повторы
+ * одинаковых событий по одному соединению доставляются все.
+ */
+final class HedgeDeduplicator {
+
+    // How many events of a figi may wait for their copy; the copies arrive close together, so a short window is enough
+    private static final int WINDOW = 64;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+    // Events of a figi waiting for their copy, oldest first
+    private static final class Pending {
+        private final long[] keys = new long[WINDOW];
+        private final int[] shards = new int[WINDOW];
+        private int size;
+
+        synchronized boolean arrive(final long key, final int shard) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key && shards[i] != shard) {
+                    remove(i);
+                    return true;
+                }
+            }
+            if (size == WINDOW) {
+                remove(0); // The copy of the oldest event is not coming anymore
+            }
+            keys[size] = key;
+            shards[size] = shard;
+            size++;
+            return false;
+        }
+
+        private void remove(final int index) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(shards, index + 1, shards, index, size - index - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Включение отбрасывания копий для инструмента.
+     */
+    void track(@NotNull final String figi) {
+        pending.computeIfAbsent(figi, f -> new Pending());
+    }
+
+    /**
+     * Выключение отбрасывания копий для инструмента.
+     */
+    void untrack(@NotNull final String figi) {
+        pending.remove(figi);
+    }
+
+    /**
+     * Есть ли инструменты, по которым нужно отбрасывать копии.
+     */
+    boolean isActive() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Проверка события на копию. Вызывается из потоков разбора сообщений.
+     *
+     * @param figi      Идентификатор инструмента из заголовка события.
+     * @param eventType Тип события.
+     * @param text      Текст сообщения.
+     * @param shard     Номер соединения, по которому пришло сообщение.
+     *
+     * @return true, если такое же событие уже приходило по другому соединению.
+     */
+    boolean isDuplicate(@Nullable final String figi,
+                        @NotNull final StreamingEventType eventType,
+                        @NotNull final String text,
+                        final int shard) {
+        if (figi == null || (eventType != StreamingEventType.CANDLE && eventType != StreamingEventType.ORDERBOOK)) {
+            return false;
+        }
+        final Pending events = pending.get(figi);
+        return events != null && events.arrive(key(eventType, text), shard);
+    }
+
+    private static long key(@NotNull final StreamingEventType eventType, @NotNull final String text) {
+        final int payload = text.indexOf("\"payload\"");
+        long hash = (FNV_OFFSET ^ eventType.ordinal()) * FNV_PRIME;
+        for (int i = Math.max(0, payload); i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -21,7 +21,7 @@ public final class OkHttpOpenApi extends OpenApi {
     private MarketContext marketContext;
     private OperationsContext operationsContext;
     private UserContext userContext;
-    private StreamingContext streamingContext;
+    private ExtendedStreamingContext streamingContext;
 
     public OkHttpOpenApi(@NotNull final String token,
                          final boolean sandboxMode,
@@ -40,6 +40,9 @@ public final class OkHttpOpenApi extends OpenApi {
 
     @Override
     public void close() {
+        if (this.streamingContext != null) {
+            this.streamingContext.close();
+        }
         this.client.dispatcher().executorService().shutdownNow();
     }
 
@@ -96,14 +99,14 @@ public final class OkHttpOpenApi extends OpenApi {
     }
 
     @NotNull
-    public StreamingContext getStreamingContext() {
+    public ExtendedStreamingContext getStreamingContext() {
         if (this.streamingContext == null) {
             this.streamingContext = new StreamingContextImpl(
                     client,
-                    this.config.streamingUrl,
+                    this.config,
                     authToken,
-                    this.config.streamingParallelism,
-                    executor
+                    executor,
+                    getMarketContext()
             );
         }
         return this.streamingContext;
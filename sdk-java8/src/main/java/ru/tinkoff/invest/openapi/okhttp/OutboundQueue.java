@@ -0,0 +1,175 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import okhttp3.WebSocket;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Очередь исходящих сообщений одного соединения streaming с ограничением скорости.
+ *
+ * Сообщения уходят в сокет не быстрее заданного числа в секунду (маркерная корзина вместимостью в секунду отправки).
+ * Пока сообщение ждёт в очереди, противоположный запрос по той же паре {@code onOffPairId} отменяет его вместо того,
+ * чтобы встать следом: подписка с отпиской, ещё не ушедшие на сервер, не отправляются вовсе, а повторная подписка
+ * заменяет ожидающую. Сообщения без {@code onOffPairId} не объединяются.
+ *
+ * Не потокобезопасна: вызывается под блокировкой размещения подписок.
+ */
+final class OutboundQueue {
+
+    /**
+     * Уведомление о судьбе сообщения. Вызывается под той же блокировкой, что и методы очереди.
+     */
+    interface Listener {
+        /**
+         * Сообщение ушло в сокет.
+         */
+        void sent();
+
+        /**
+         * Сообщение не будет отправлено: его отменил противоположный запрос или заменил повторный.
+         */
+        void coalesced();
+
+        /**
+         * Сообщение не будет отправлено: очередь очищена, потому что соединение переоткрывается или закрывается.
+         */
+        void dropped();
+    }
+
+    private static final class Pending {
+        final boolean activating;
+        @NotNull final String message;
+        @Nullable final Listener listener;
+
+        Pending(final boolean activating, @NotNull final String message, @Nullable final Listener listener) {
+            this.activating = activating;
+            this.message = message;
+            this.listener = listener;
+        }
+
+        void coalesced() {
+            if (listener != null) {
+                listener.coalesced();
+            }
+        }
+    }
+
+    private final double tokensPerNano;
+    private final double capacity;
+    // Keyed by `onOffPairId`, or by a fresh object for messages that must not be coalesced
+    private final LinkedHashMap<Object, Pending> pending;
+    private double tokens;
+    private long refilledAt;
+    boolean flushScheduled;
+
+    /**
+     * @param messagesPerSecond Наибольшее число сообщений в секунду.
+     */
+    OutboundQueue(final int messagesPerSecond) {
+        final int rate = Math.max(1, messagesPerSecond);
+        this.tokensPerNano = rate / 1e9;
+        this.capacity = rate;
+        this.pending = new LinkedHashMap<>();
+        this.tokens = rate;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Постановка сообщения в очередь.
+     *
+     * @param onOffPairId Пара запроса или null, если сообщение нельзя объединять с другими.
+     * @param activating  Является ли запрос подпиской.
+     * @param message     Текст сообщения.
+     */
+    void offer(@Nullable final String onOffPairId, final boolean activating, @NotNull final String message) {
+        offer(onOffPairId, activating, message, null);
+    }
+
+    /**
+     * Постановка сообщения в очередь с уведомлением о том, ушло ли оно в сокет.
+     *
+     * @param onOffPairId Пара запроса или null, если сообщение нельзя объединять с другими.
+     * @param activating  Является ли запрос подпиской.
+     * @param message     Текст сообщения.
+     * @param listener    Получатель уведомления или null.
+     */
+    void offer(@Nullable final String onOffPairId,
+               final boolean activating,
+               @NotNull final String message,
+               @Nullable final Listener listener) {
+        final Pending offered = new Pending(activating, message, listener);
+        if (onOffPairId == null) {
+            pending.put(new Object(), offered);
+            return;
+        }
+        final Pending waiting = pending.get(onOffPairId);
+        if (waiting != null && waiting.activating != activating) {
+            pending.remove(onOffPairId); // The two requests cancel out before the server sees either
+            waiting.coalesced();
+            offered.coalesced();
+        } else {
+            // A repeated request takes the place of the waiting one in line
+            pending.put(onOffPairId, offered);
+            if (waiting != null) {
+                waiting.coalesced();
+            }
+        }
+    }
+
+    /**
+     * Отправка сообщений, на которые хватает маркеров.
+     */
+    void flush(@NotNull final WebSocket webSocket) {
+        refill();
+        final Iterator<Pending> iterator = pending.values().iterator();
+        while (tokens >= 1 && iterator.hasNext()) {
+            final Pending next = iterator.next();
+            iterator.remove();
+            tokens -= 1;
+            webSocket.send(next.message);
+            if (next.listener != null) {
+                next.listener.sent();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    void clear() {
+        final Pending[] dropped = pending.values().toArray(new Pending[0]);
+        pending.clear();
+        for (final Pending message : dropped) {
+            if (message.listener != null) {
+                message.listener.dropped();
+            }
+        }
+    }
+
+    /**
+     * Время до появления следующего маркера, в наносекундах.
+     */
+    long nanosUntilNextToken() {
+        refill();
+        return tokens >= 1 ? 0L : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Время, за которое уйдут все сообщения очереди, в наносекундах.
+     */
+    long nanosUntilDrained() {
+        refill();
+        final double missing = pending.size() - tokens;
+        return missing <= 0 ? 0L : (long) Math.ceil(missing / tokensPerNano);
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,100 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+/**
+ * Запрос в streaming вместе с его текстом для отправки.
+ *
+ * Запрос сериализуется один раз при создании, поэтому повторная отправка (например, восстановление подписок после
+ * переподключения) сводится к записи готовой строки в сокет.
+ *
+ * Копия запроса для второго соединения ({@link #hedgeCopy()}) отличается только {@code onOffPairId}, чтобы обе
+ * подписки размещались и учитывались независимо.
+ */
+final class PreparedRequest {
+
+    @NotNull final StreamingRequest request;
+    @NotNull final String onOffPairId;
+    @NotNull final String message;
+    @Nullable final String figi;
+    final boolean hedge;
+    // Created on first use under `placementLock`
+    @Nullable private PreparedRequest hedgeCopy;
+
+    private PreparedRequest(@NotNull final StreamingRequest request,
+                            @NotNull final String onOffPairId,
+                            @NotNull final String message,
+                            @Nullable final String figi,
+                            final boolean hedge) {
+        this.request = request;
+        this.onOffPairId = onOffPairId;
+        this.message = message;
+        this.figi = figi;
+        this.hedge = hedge;
+    }
+
+    @NotNull
+    static PreparedRequest prepare(@NotNull final StreamingRequest request,
+                                   @NotNull final ObjectMapper mapper) throws JsonProcessingException {
+        return new PreparedRequest(request, request.onOffPairId(), mapper.writeValueAsString(request), figi(request),
+                false);
+    }
+
+    boolean isActivating() {
+        return request instanceof StreamingRequest.ActivatingRequest;
+    }
+
+    /**
+     * Можно ли дублировать запрос на втором соединении: только свечи и стаканы.
+     */
+    boolean isHedgeable() {
+        return request instanceof StreamingRequest.CandleSubscribeRequest ||
+                request instanceof StreamingRequest.CandleUnsubscribeRequest ||
+                request instanceof StreamingRequest.OrderbookSubscribeRequest ||
+                request instanceof StreamingRequest.OrderbookUnsubscribeRequest;
+    }
+
+    @NotNull
+    PreparedRequest hedgeCopy() {
+        if (hedgeCopy == null) {
+            hedgeCopy = new PreparedRequest(request, hedgeId(onOffPairId), message, figi, true);
+        }
+        return hedgeCopy;
+    }
+
+    /**
+     * {@code onOffPairId} копии подписки на втором соединении.
+     */
+    @NotNull
+    static String hedgeId(@NotNull final String onOffPairId) {
+        return "Hedge(" + onOffPairId + ")";
+    }
+
+    @Nullable
+    private static String figi(@NotNull final StreamingRequest request) {
+        if (request instanceof StreamingRequest.CandleSubscribeRequest) {
+            return ((StreamingRequest.CandleSubscribeRequest) request).getFigi();
+        } else if (request instanceof StreamingRequest.CandleUnsubscribeRequest) {
+            return ((StreamingRequest.CandleUnsubscribeRequest) request).getFigi();
+        } else if (request instanceof StreamingRequest.OrderbookSubscribeRequest) {
+            return ((StreamingRequest.OrderbookSubscribeRequest) request).getFigi();
+        } else if (request instanceof StreamingRequest.OrderbookUnsubscribeRequest) {
+            return ((StreamingRequest.OrderbookUnsubscribeRequest) request).getFigi();
+        } else if (request instanceof StreamingRequest.InstrumentInfoSubscribeRequest) {
+            return ((StreamingRequest.InstrumentInfoSubscribeRequest) request).getFigi();
+        } else if (request instanceof StreamingRequest.InstrumentInfoUnsubscribeRequest) {
+            return ((StreamingRequest.InstrumentInfoUnsubscribeRequest) request).getFigi();
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedRequest(" + request + (hedge ? ", hedge" : "") + ")";
+    }
+}
@@ -0,0 +1,104 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограниченная неблокирующая очередь на кольцевом буфере, выделенном заранее (схема Д. Вьюкова).
+ *
+ * Допускает нескольких производителей и нескольких потребителей: события в буфер подписчика кладут потоки разбора
+ * сообщений разных соединений, а забирает поток подписки и, при политике {@code DROP_OLDEST}, сами производители.
+ */
+final class RingBuffer<E> {
+
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity Вместимость, округляется вверх до степени двойки.
+     */
+    RingBuffer(final int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false, если буфер заполнен.
+     */
+    boolean offer(@NotNull final E element) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return Элемент или null, если буфер пуст.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = head.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E element = (E) elements[index];
+                    elements[index] = null;
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Приблизительное число элементов: при одновременной записи может учитывать ещё не записанные.
+     */
+    int size() {
+        return (int) Math.max(0L, tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void clear() {
+        while (poll() != null) {
+            // просто опустошаем буфер
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Распределение подписок streaming по соединениям.
+ *
+ * Для каждого соединения учитываются число подписок и скорость входящих сообщений (скользящее среднее по замерам
+ * {@link #sample(long)}). Новая подписка попадает на наименее нагруженное соединение, а отписка отправляется туда же,
+ * куда ушла подписка. Подписки, добавленные после последнего замера, ещё не видны в скорости соединения, поэтому
+ * учитываются по средней скорости одной подписки. Подписки различаются по {@code onOffPairId}.
+ *
+ * Используются только первые {@link #activeShards()} соединений; их число меняется через {@link #grow()} и
+ * {@link #shrink()}.
+ *
+ * Подписки-партнёры (подписка и её копия на втором соединении) никогда не размещаются на одном соединении, пока
+ * соединений больше одного.
+ */
+final class ShardBalancer {
+
+    // Weight of the newest sample in the moving average of a shard's message rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    /**
+     * Перенос подписки с одного соединения на другое.
+     */
+    static final class Move {
+        @NotNull final String onOffPairId;
+        final int from;
+        final int to;
+
+        Move(@NotNull final String onOffPairId, final int from, final int to) {
+            this.onOffPairId = onOffPairId;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final AtomicLongArray messages;
+    private final double[] rates;
+    private final int[] fresh;
+    private final List<LinkedHashSet<String>> pairIds;
+    private final Map<String, Integer> assignments;
+    private final Map<String, String> partners;
+    private int active;
+
+    /**
+     * @param shards Наибольшее число соединений.
+     * @param active Число соединений, используемых с самого начала.
+     */
+    ShardBalancer(final int shards, final int active) {
+        this.messages = new AtomicLongArray(shards);
+        this.rates = new double[shards];
+        this.fresh = new int[shards];
+        this.pairIds = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            this.pairIds.add(new LinkedHashSet<>());
+        }
+        this.assignments = new HashMap<>();
+        this.partners = new HashMap<>();
+        this.active = active;
+    }
+
+    /**
+     * Учёт входящего сообщения. Вызывается из потоков чтения сокетов без блокировок.
+     */
+    void recordMessage(final int shard) {
+        messages.incrementAndGet(shard);
+    }
+
+    /**
+     * Выбор соединения для подписки. Уже размещённая подписка остаётся на своём соединении.
+     *
+     * @return Номер соединения.
+     */
+    synchronized int assign(@NotNull final String onOffPairId) {
+        return assign(onOffPairId, null);
+    }
+
+    /**
+     * Выбор соединения для подписки, отличного от соединения партнёра.
+     *
+     * @param partnerPairId {@code onOffPairId} подписки-партнёра или null.
+     *
+     * @return Номер соединения.
+     */
+    synchronized int assign(@NotNull final String onOffPairId, @Nullable final String partnerPairId) {
+        final Integer assigned = assignments.get(onOffPairId);
+        if (assigned != null) {
+            return assigned;
+        }
+
+        final int best = leastLoaded(perSubscriptionRate(), partnerPairId == null ? -1 : shardOf(partnerPairId));
+        place(onOffPairId, best);
+        if (partnerPairId != null) {
+            partners.put(onOffPairId, partnerPairId);
+            partners.put(partnerPairId, onOffPairId);
+        }
+        return best;
+    }
+
+    /**
+     * Освобождение подписки.
+     *
+     * @return Номер соединения, на котором была подписка, или -1, если она не размещалась.
+     */
+    synchronized int release(@NotNull final String onOffPairId) {
+        final Integer assigned = assignments.remove(onOffPairId);
+        if (assigned == null) {
+            return -1;
+        }
+        pairIds.get(assigned).remove(onOffPairId);
+        fresh[assigned] = Math.min(fresh[assigned], pairIds.get(assigned).size());
+        final String partner = partners.remove(onOffPairId);
+        if (partner != null) {
+            partners.remove(partner);
+        }
+        return assigned;
+    }
+
+    /**
+     * Замер скорости сообщений на соединениях.
+     *
+     * @param elapsedNanos Время с предыдущего замера.
+     */
+    synchronized void sample(final long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return;
+        }
+        for (int i = 0; i < active; i++) {
+            final double rate = messages.getAndSet(i, 0) * 1e9 / elapsedNanos;
+            rates[i] += RATE_SMOOTHING * (rate - rates[i]);
+            fresh[i] = 0;
+        }
+    }
+
+    /**
+     * Перенос одной подписки с самого нагруженного соединения на наименее нагруженное, если нагрузка первого превышает
+     * среднюю более чем в threshold раз. Размещение подписки обновляется сразу, отправка запросов остаётся вызывающему.
+     *
+     * @return Выполненный перенос или null, если перекоса нет.
+     */
+    @Nullable
+    synchronized Move rebalance(final double threshold) {
+        final double perSubscription = perSubscriptionRate();
+        int hottest = -1;
+        int coldest = -1;
+        double total = 0;
+        for (int i = 0; i < active; i++) {
+            final double load = load(i, perSubscription);
+            total += load;
+            if (pairIds.get(i).size() > 1 && (hottest < 0 || load > load(hottest, perSubscription))) {
+                hottest = i;
+            }
+            if (coldest < 0 || load < load(coldest, perSubscription)) {
+                coldest = i;
+            }
+        }
+        final double mean = total / active;
+        if (hottest < 0 || hottest == coldest || mean <= 0 || load(hottest, perSubscription) < threshold * mean) {
+            return null;
+        }
+
+        String onOffPairId = null;
+        final Iterator<String> candidates = pairIds.get(hottest).iterator();
+        while (candidates.hasNext()) {
+            final String candidate = candidates.next();
+            if (partnerShard(candidate) != coldest) {
+                onOffPairId = candidate;
+                candidates.remove();
+                break;
+            }
+        }
+        if (onOffPairId == null) {
+            return null;
+        }
+        fresh[hottest] = Math.min(fresh[hottest], pairIds.get(hottest).size());
+        place(onOffPairId, coldest);
+        // Until the next sample shows where the messages went, assume the subscription carried an average rate
+        rates[hottest] = Math.max(0, rates[hottest] - perSubscription);
+        return new Move(onOffPairId, hottest, coldest);
+    }
+
+    synchronized int activeShards() {
+        return active;
+    }
+
+    /**
+     * Ввод в работу следующего соединения.
+     *
+     * @return Номер соединения.
+     */
+    synchronized int grow() {
+        if (active == rates.length) {
+            throw new IllegalStateException("Все соединения уже используются");
+        }
+        final int shard = active++;
+        messages.set(shard, 0);
+        rates[shard] = 0;
+        fresh[shard] = 0;
+        return shard;
+    }
+
+    /**
+     * Вывод из работы последнего соединения. Его подписки размещаются на оставшихся соединениях, отправка запросов
+     * остаётся вызывающему.
+     *
+     * @return Переносы подписок.
+     */
+    @NotNull
+    synchronized List<Move> shrink() {
+        if (active == 1) {
+            throw new IllegalStateException("Нельзя вывести из работы последнее соединение");
+        }
+        final int shard = --active;
+        final double perSubscription = perSubscriptionRate();
+        final List<Move> moves = new ArrayList<>(pairIds.get(shard).size());
+        for (final String onOffPairId : pairIds.get(shard)) {
+            final int target = leastLoaded(perSubscription, partnerShard(onOffPairId));
+            place(onOffPairId, target);
+            moves.add(new Move(onOffPairId, shard, target));
+        }
+        pairIds.get(shard).clear();
+        rates[shard] = 0;
+        fresh[shard] = 0;
+        return moves;
+    }
+
+    /**
+     * Число размещённых подписок.
+     */
+    synchronized int subscriptionCount() {
+        return assignments.size();
+    }
+
+    /**
+     * Есть ли размещённые подписки-партнёры.
+     */
+    synchronized boolean hasPartners() {
+        return !partners.isEmpty();
+    }
+
+    /**
+     * Суммарная скорость сообщений на используемых соединениях, в сообщениях в секунду.
+     */
+    synchronized double messageRate() {
+        double total = 0;
+        for (int i = 0; i < active; i++) {
+            total += rates[i];
+        }
+        return total;
+    }
+
+    /**
+     * Скорость сообщений на соединении, в сообщениях в секунду.
+     */
+    synchronized double messageRate(final int shard) {
+        return rates[shard];
+    }
+
+    // The excluded shard is still used when it is the only one
+    private int leastLoaded(final double perSubscription, final int excluded) {
+        int best = excluded == 0 && active > 1 ? 1 : 0;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < active; i++) {
+            if (i == excluded && active > 1) {
+                continue;
+            }
+            final double load = load(i, perSubscription);
+            if (load < bestLoad || (load == bestLoad && pairIds.get(i).size() < pairIds.get(best).size())) {
+                best = i;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private int shardOf(@NotNull final String onOffPairId) {
+        final Integer assigned = assignments.get(onOffPairId);
+        return assigned == null ? -1 : assigned;
+    }
+
+    private int partnerShard(@NotNull final String onOffPairId) {
+        final String partner = partners.get(onOffPairId);
+        return partner == null ? -1 : shardOf(partner);
+    }
+
+    private void place(@NotNull final String onOffPairId, final int shard) {
+        assignments.put(onOffPairId, shard);
+        pairIds.get(shard).add(onOffPairId);
+        fresh[shard]++;
+    }
+
+    private double load(final int shard, final double perSubscription) {
+        return rates[shard] + fresh[shard] * perSubscription;
+    }
+
+    private double perSubscriptionRate() {
+        double total = 0;
+        int measured = 0;
+        for (int i = 0; i < active; i++) {
+            total += rates[i];
+            measured += pairIds.get(i).size() - fresh[i];
+        }
+        return measured > 0 ? total / measured : 0;
+    }
+}
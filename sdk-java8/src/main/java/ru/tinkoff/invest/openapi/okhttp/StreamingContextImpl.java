@@ -8,56 +8,205 @@ import okhttp3.*;
 import okio.ByteString;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 
-import ru.tinkoff.invest.openapi.StreamingContext;
+import ru.tinkoff.invest.openapi.ExtendedStreamingContext;
+import ru.tinkoff.invest.openapi.MarketContext;
+import ru.tinkoff.invest.openapi.OpenApiConfig;
+import ru.tinkoff.invest.openapi.StreamingRequestOutcome;
+import ru.tinkoff.invest.openapi.StreamingShardHealth;
+import ru.tinkoff.invest.openapi.StreamingSubscriptionOptions;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.FixedPointOrderbook;
 import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventDecoder;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventEnvelope;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventHandler;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventType;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingFilter;
 import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-class StreamingContextImpl implements StreamingContext {
+class StreamingContextImpl implements ExtendedStreamingContext {
+
+    // How long a dispatching thread sleeps between attempts to put an envelope into a full `BLOCK` buffer
+    private static final long BLOCK_PARK_NANOS = 50_000L;
+    // Shard message rates are sampled once a second, and a skewed pool gives up one subscription per this many samples
+    private static final int REBALANCE_PERIOD_SAMPLES = 30;
+    // An underused pool gives up a connection only after staying underused for this many samples in a row
+    private static final int POOL_SHRINK_SAMPLES = 60;
 
     private static final TypeReference<StreamingEvent> streamingEventTypeReference =
             new TypeReference<StreamingEvent>() {
             };
 
     private final WebSocket[] wsClients;
-    private final ArrayList<Set<StreamingRequest.ActivatingRequest>> requestsHistory;
+    private final StreamingApiListener[] listeners;
+    // Outgoing messages of every shard, paced to `requestsPerSecond`; guarded by `placementLock`
+    private final OutboundQueue[] outbound;
+    private final int minParallelism;
+    private final boolean lazyConnect;
+    private final int subscriptionsPerConnection;
+    private final int messagesPerConnection;
+    private int underusedSamples;
+    // Active subscriptions of every shard by `onOffPairId`. Reads need no locking; writes go together with the socket
+    // writes under `placementLock`, so the order of requests on the wire always matches the history
+    private final ArrayList<ConcurrentHashMap<String, PreparedRequest>> requestsHistory;
+    private final Object placementLock = new Object();
+    // Requests of unfinished `sendRequests` calls by `requestId`, so errors can be matched to them
+    private final ConcurrentHashMap<String, BulkSend> awaitingAcks;
+    private final AtomicLong bulkSequence;
+    private final int requestsPerSecond;
+    private final long ackTimeoutMillis;
+    private final long reconnectBaseDelayMillis;
+    private final long reconnectMaxDelayMillis;
+    private final int reconnectAttempts;
+    private final ShardBalancer balancer;
+    private final StreamingHealthMonitor health;
+    // Figis whose candle and orderbook subscriptions are doubled on two shards
+    private final Set<String> hedgedFigis;
+    private final HedgeDeduplicator deduplicator;
+    private final double rebalanceThreshold;
+    // Whether `sampleShardLoad` runs every second; a pool that neither resizes nor rebalances samples on `getHealth`
+    private final boolean samplesLoad;
+    // Guarded by `placementLock`
+    private long lastLoadSampleAt;
+    private long loadSamples;
     private final ObjectMapper mapper;
+    private final StreamingEventDecoder decoder;
+    private final boolean useLegacyDecoder;
+    @Nullable private final DecodeStage decodeStage;
+    // Recovers candles missed while a connection was down; null unless enabled in the config
+    @Nullable private final CandleBackfill backfill;
     private final Logger logger;
-    private final List<SubscriptionImpl> subscriptions;
+    // Registries are copy-on-write snapshots: readers iterate whatever array they got, writers swap in a new one with
+    // CAS, so subscribing and cancelling never stall message delivery
+    private final AtomicReference<SubscriptionImpl<?>[]> subscriptions;
+    private final ConcurrentHashMap<String, SubscriptionImpl<?>[]> routesByFigi;
+    private final AtomicReference<SubscriptionImpl<?>[]> broadcastRoutes;
+    private volatile StreamingEventHandler[] handlers;
+    private final StreamingEventHandler handlersFanout;
+    private final ThreadLocal<HedgeGate> hedgeGates;
     private final OkHttpClient client;
     private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final int drainBatchSize;
     private final okhttp3.Request wsRequest;
 
-    private boolean isTerminated;
+    // Read by the reader, decode and scheduler threads without locking
+    private volatile boolean isTerminated;
 
     StreamingContextImpl(@NotNull final OkHttpClient client,
-                         @NotNull final String streamingUrl,
+                         @NotNull final OpenApiConfig config,
                          @NotNull final String authToken,
-                         final int streamingParallelism,
                          @NotNull final Executor executor) {
+        this(client, config, authToken, executor, null);
+    }
+
+    StreamingContextImpl(@NotNull final OkHttpClient client,
+                         @NotNull final OpenApiConfig config,
+                         @NotNull final String authToken,
+                         @NotNull final Executor executor,
+                         @Nullable final MarketContext market) {
         this.logger = org.slf4j.LoggerFactory.getLogger(StreamingContextImpl.class);
         this.client = client;
-        this.subscriptions = new LinkedList<>();
+        this.subscriptions = new AtomicReference<>(new SubscriptionImpl<?>[0]);
+        this.routesByFigi = new ConcurrentHashMap<>();
+        this.broadcastRoutes = new AtomicReference<>(new SubscriptionImpl<?>[0]);
+        this.handlers = new StreamingEventHandler[0];
+        this.handlersFanout = new HandlersFanout();
+        this.hedgeGates = ThreadLocal.withInitial(HedgeGate::new);
         this.executor = executor;
+        this.drainBatchSize = Math.max(1, config.streamingDrainBatchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "streaming-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.mapper = new ObjectMapper();
         this.mapper.registerModule(new JavaTimeModule());
+        this.decoder = new StreamingEventDecoder(
+                config.streamingPriceMode,
+                config.streamingPriceScale,
+                config.streamingFlatOrderbooks
+        );
+        this.useLegacyDecoder = config.streamingLegacyDecoder;
+        final int decodeThreads = config.streamingDecodeThreads < 0
+                ? Runtime.getRuntime().availableProcessors()
+                : config.streamingDecodeThreads;
+        this.decodeStage = decodeThreads > 0
+                ? new DecodeStage(decodeThreads, config.streamingDecodeQueueSize, config.streamingDecodeOverflowPolicy,
+                        (text, shard) -> dispatch(text, shard, true), logger)
+                : null;
+        this.backfill = config.streamingBackfill && market != null
+                ? new CandleBackfill(market, decoder, this::inject, config.streamingBackfillParallelism, logger)
+                : null;
         this.isTerminated = false;
 
+        // Room is made for `streamingParallelism` connections, but only the minimum is put to use up front; with
+        // `lazyConnect` even those connect when the first request is routed to them (or on `warmUp`)
+        final int streamingParallelism = config.streamingParallelism;
+        this.minParallelism = Math.max(1, Math.min(config.streamingMinParallelism, streamingParallelism));
+        this.lazyConnect = config.streamingLazyConnect;
+        this.subscriptionsPerConnection = config.streamingSubscriptionsPerConnection;
+        this.messagesPerConnection = config.streamingMessagesPerConnection;
         this.wsClients = new WebSocket[streamingParallelism];
+        this.listeners = new StreamingApiListener[streamingParallelism];
+        this.outbound = new OutboundQueue[streamingParallelism];
         this.requestsHistory = new ArrayList<>(streamingParallelism);
-        this.wsRequest = new okhttp3.Request.Builder().url(streamingUrl).header("Authorization", authToken).build();
+        this.balancer = new ShardBalancer(streamingParallelism, this.minParallelism);
+        this.rebalanceThreshold = config.streamingRebalanceThreshold;
+        this.health = new StreamingHealthMonitor(
+                streamingParallelism,
+                config.streamingStaleSubscriptionMillis,
+                config.streamingStaleShardMillis,
+                config.streamingTradingHours
+        );
+        this.awaitingAcks = new ConcurrentHashMap<>();
+        this.hedgedFigis = ConcurrentHashMap.newKeySet();
+        this.deduplicator = new HedgeDeduplicator();
+        this.bulkSequence = new AtomicLong();
+        this.requestsPerSecond = Math.max(1, config.streamingRequestsPerSecond);
+        this.ackTimeoutMillis = config.streamingAckTimeoutMillis;
+        this.reconnectBaseDelayMillis = Math.max(1L, config.streamingReconnectBaseDelayMillis);
+        this.reconnectMaxDelayMillis = Math.max(this.reconnectBaseDelayMillis, config.streamingReconnectMaxDelayMillis);
+        this.reconnectAttempts = config.streamingReconnectAttempts;
+        this.wsRequest = new okhttp3.Request.Builder().url(config.streamingUrl).header("Authorization", authToken).build();
         for (int i = 0; i < streamingParallelism; i++) {
-            final StreamingApiListener streamingCallback = new StreamingApiListener(i + 1);
-            this.wsClients[i] = this.client.newWebSocket(this.wsRequest, streamingCallback);
-            this.requestsHistory.add(new HashSet<>());
+            this.requestsHistory.add(new ConcurrentHashMap<>());
+        }
+        for (int i = 0; i < this.minParallelism; i++) {
+            openShard(i);
+        }
+        this.lastLoadSampleAt = System.nanoTime();
+        this.samplesLoad = this.minParallelism < streamingParallelism || this.rebalanceThreshold > 0;
+        if (this.samplesLoad) {
+            this.scheduler.scheduleAtFixedRate(this::sampleShardLoad, 1, 1, TimeUnit.SECONDS);
+        }
+        if (this.health.isEnabled()) {
+            this.scheduler.scheduleAtFixedRate(this::checkHealth, 1, 1, TimeUnit.SECONDS);
         }
     }
 
@@ -68,47 +217,767 @@ class StreamingContextImpl implements StreamingContext {
         }
 
         try {
-            final String message = mapper.writeValueAsString(request);
+            send(PreparedRequest.prepare(request, mapper));
+        } catch (JsonProcessingException ex) {
+            logger.error("Не удалось сериализовать сообщение в JSON", ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<List<StreamingRequestOutcome>> sendRequests(
+            @NotNull final Collection<? extends StreamingRequest> requests) {
+        if (isTerminated) {
+            throw new IllegalStateException("Соединение закрыто");
+        }
+
+        final BulkSend bulk = new BulkSend(requests);
+        bulk.register();
+        int activating = 0;
+        for (final PreparedRequest prepared : bulk.prepared) {
+            if (prepared.isActivating()) {
+                activating++;
+            }
+        }
+        synchronized (placementLock) {
+            // With the whole pool open before the first request, the least loaded placement spreads the requests
+            // evenly, and the pace may grow with the number of connections
+            while (connectionsNeeded(balancer.subscriptionCount() + activating, 0) > balancer.activeShards() &&
+                    balancer.activeShards() < wsClients.length) {
+                growPool();
+            }
+        }
+        bulk.start();
+        return bulk.result;
+    }
+
+    private void send(@NotNull final PreparedRequest prepared) {
+        send(prepared, null);
+    }
+
+    // The listener follows the request itself, not its hedge copy
+    private void send(@NotNull final PreparedRequest prepared, @Nullable final OutboundQueue.Listener listener) {
+        synchronized (placementLock) {
+            place(prepared, null, listener);
+            // An unsubscription takes down the hedge copy whether or not the figi is still hedged
+            if (prepared.isHedgeable() && (!prepared.isActivating() || isHedged(prepared.figi))) {
+                place(prepared.hedgeCopy(), prepared.onOffPairId, null);
+            }
+        }
+    }
+
+    // Must be called with `placementLock` held. A hedge copy goes to a different shard than its partner
+    private void place(@NotNull final PreparedRequest prepared,
+                       @Nullable final String partnerPairId,
+                       @Nullable final OutboundQueue.Listener listener) {
+        // Growing on subscription count right here keeps a burst of subscriptions from piling up on the
+        // connections that happen to be open; growing on message rate is up to `sampleShardLoad`
+        if (prepared.isActivating() &&
+                (connectionsNeeded(balancer.subscriptionCount() + 1, 0) > balancer.activeShards() ||
+                        (prepared.hedge && balancer.activeShards() < 2)) &&
+                balancer.activeShards() < wsClients.length) {
+            growPool();
+        }
+        // A subscription goes to the least loaded shard and stays there, so its unsubscription finds it
+        int clientIndex = prepared.isActivating()
+                ? balancer.assign(prepared.onOffPairId, partnerPairId)
+                : balancer.release(prepared.onOffPairId);
+        if (clientIndex < 0) {
+            if (prepared.hedge) {
+                return; // The subscription was never hedged
+            }
+            clientIndex = (prepared.onOffPairId.hashCode() & Integer.MAX_VALUE) % balancer.activeShards();
+        }
+        final Map<String, PreparedRequest> wsClientHistory = this.requestsHistory.get(clientIndex);
+        if (prepared.isActivating()) {
+            wsClientHistory.put(prepared.onOffPairId, prepared);
+            health.activated(prepared.onOffPairId);
+            if (prepared.hedge && prepared.figi != null) {
+                deduplicator.track(prepared.figi);
+            }
+        } else {
+            wsClientHistory.remove(prepared.onOffPairId);
+            health.deactivated(prepared.onOffPairId);
+            if (prepared.hedge && prepared.figi != null) {
+                untrackUnhedged(prepared.figi);
+            }
+        }
+
+        enqueue(clientIndex, prepared.onOffPairId, prepared.isActivating(), prepared.message, listener);
+    }
+
+    // Must be called with `placementLock` held. Opposite requests for the same pair that meet in the queue cancel out
+    private void enqueue(final int index,
+                         @Nullable final String onOffPairId,
+                         final boolean activating,
+                         @NotNull final String message) {
+        enqueue(index, onOffPairId, activating, message, null);
+    }
+
+    // Must be called with `placementLock` held
+    private void enqueue(final int index,
+                         @Nullable final String onOffPairId,
+                         final boolean activating,
+                         @NotNull final String message,
+                         @Nullable final OutboundQueue.Listener listener) {
+        outbound[index].offer(onOffPairId, activating, message, listener);
+        flush(index, outbound[index]);
+    }
+
+    // Must be called with `placementLock` held. Sends what the shard's budget allows and comes back on the scheduler
+    // for the rest
+    private void flush(final int index, @NotNull final OutboundQueue queue) {
+        if (outbound[index] != queue || queue.isEmpty()) {
+            return; // The shard has been retired since
+        }
+        queue.flush(socket(index));
+        if (queue.isEmpty() || queue.flushScheduled) {
+            return;
+        }
+        queue.flushScheduled = true;
+        try {
+            scheduler.schedule(() -> {
+                synchronized (placementLock) {
+                    queue.flushScheduled = false;
+                    flush(index, queue);
+                }
+            }, queue.nanosUntilNextToken(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            queue.clear(); // The context is terminated, nothing is going to be sent
+        }
+    }
+
+    // Must be called with `placementLock` held
+    private long outboundDrainNanos() {
+        long longest = 0L;
+        for (int i = 0; i < balancer.activeShards(); i++) {
+            longest = Math.max(longest, outbound[i].nanosUntilDrained());
+        }
+        return longest;
+    }
+
+    private boolean isHedged(@Nullable final String figi) {
+        return figi != null && wsClients.length > 1 && hedgedFigis.contains(figi);
+    }
+
+    // Forgets a subscription the server refused, unless it has been replaced by another request since
+    private void forget(@NotNull final PreparedRequest prepared) {
+        synchronized (placementLock) {
+            forgetPlaced(prepared);
+            if (prepared.isHedgeable()) {
+                forgetPlaced(prepared.hedgeCopy());
+            }
+        }
+    }
+
+    // Must be called with `placementLock` held
+    private void forgetPlaced(@NotNull final PreparedRequest prepared) {
+        for (final Map<String, PreparedRequest> history : requestsHistory) {
+            if (history.get(prepared.onOffPairId) == prepared) {
+                history.remove(prepared.onOffPairId);
+                balancer.release(prepared.onOffPairId);
+                if (prepared.hedge && prepared.figi != null) {
+                    untrackUnhedged(prepared.figi);
+                }
+                return;
+            }
+        }
+    }
+
+    // Must be called with `placementLock` held. Stops looking for copies once the figi's last hedge copy is gone
+    private void untrackUnhedged(@NotNull final String figi) {
+        for (final Map<String, PreparedRequest> history : requestsHistory) {
+            for (final PreparedRequest placed : history.values()) {
+                if (placed.hedge && figi.equals(placed.figi)) {
+                    return;
+                }
+            }
+        }
+        deduplicator.untrack(figi);
+    }
+
+    @Override
+    public void warmUp() {
+        if (isTerminated) {
+            throw new IllegalStateException("Соединение закрыто");
+        }
+
+        synchronized (placementLock) {
+            for (int i = 0; i < balancer.activeShards(); i++) {
+                socket(i);
+            }
+        }
+    }
+
+    @Override
+    public void setPriceScale(@NotNull final String figi, final int scale) {
+        decoder.setPriceScale(figi, scale);
+    }
+
+    @Override
+    public void setHedged(@NotNull final String figi, final boolean hedged) {
+        if (hedged) {
+            if (wsClients.length < 2) {
+                logger.warn("Для дублирования подписок " + figi + " нужно хотя бы два соединения");
+            }
+            hedgedFigis.add(figi);
+        } else {
+            hedgedFigis.remove(figi);
+            deduplicator.untrack(figi);
+        }
+    }
+
+    @Override
+    public synchronized void addHandler(@NotNull final StreamingEventHandler handler) {
+        if (isTerminated) {
+            throw new IllegalStateException("Соединение закрыто");
+        }
+
+        final StreamingEventHandler[] current = this.handlers;
+        final StreamingEventHandler[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = handler;
+        this.handlers = updated;
+    }
+
+    @Override
+    public synchronized void removeHandler(@NotNull final StreamingEventHandler handler) {
+        final StreamingEventHandler[] current = this.handlers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == handler) {
+                final StreamingEventHandler[] updated = new StreamingEventHandler[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                this.handlers = updated;
+                return;
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public int[] getDecodeQueueDepths() {
+        return decodeStage == null ? new int[0] : decodeStage.queueDepths();
+    }
+
+    @NotNull
+    @Override
+    public List<StreamingShardHealth> getHealth() {
+        if (!samplesLoad) {
+            sampleLoad();
+        }
+        final int active = balancer.activeShards();
+        final List<StreamingShardHealth> result = new ArrayList<>(active);
+        for (int i = 0; i < active; i++) {
+            result.add(health.snapshot(i, requestsHistory.get(i).values(), balancer.messageRate(i)));
+        }
+        return result;
+    }
+
+    // Hands an incoming message to the registered handlers, then decodes its header and queues it to every subscriber
+    // that accepts it. With `decodeEagerly` the payload is decoded right here (on a decode stage thread) instead of on
+    // the subscribers' executor
+    private void dispatch(@NotNull final String text, final int shard, final boolean decodeEagerly) {
+        try {
+            StreamingEventEnvelope envelope = null;
+            if (deduplicator.isActive()) {
+                // The later copy of a hedged event is dropped before anyone sees it, handlers included
+                final boolean duplicate;
+                if (handlers.length > 0) {
+                    // The gate settles the copy as the decoder reaches the event, so the message is parsed once
+                    final HedgeGate gate = hedgeGates.get();
+                    final HedgeGate pass = gate.text == null ? gate : new HedgeGate();
+                    pass.text = text;
+                    pass.shard = shard;
+                    try {
+                        envelope = decoder.envelope(text, pass);
+                        duplicate = pass.duplicate;
+                    } finally {
+                        pass.clear();
+                    }
+                } else {
+                    envelope = decoder.envelope(text);
+                    duplicate = deduplicator.isDuplicate(envelope.getFigi(), envelope.getEventType(), text, shard);
+                }
+                if (duplicate) {
+                    // The copy still shows that the subscription on this shard is alive
+                    health.recordEvent(shard, envelope);
+                    return;
+                }
+            } else if (handlers.length > 0) {
+                if (!useLegacyDecoder) {
+                    // One pass feeds the handlers and reads the header for the subscribers
+                    envelope = decoder.envelope(text, handlersFanout);
+                } else {
+                    decoder.decode(text, handlersFanout);
+                }
+            }
+            final SubscriptionImpl<?>[] allSubscriptions = subscriptions.get();
+            final boolean bulkInProgress = !awaitingAcks.isEmpty();
+            if (allSubscriptions.length == 0 && !bulkInProgress && backfill == null && !health.isEnabled()) {
+                return;
+            }
+
+            if (useLegacyDecoder) {
+                envelope = StreamingEventEnvelope.of(mapper.readValue(text, streamingEventTypeReference));
+            } else if (envelope == null) {
+                envelope = decoder.envelope(text);
+            }
+            if (bulkInProgress && envelope.getEventType() == StreamingEventType.ERROR) {
+                acknowledge((StreamingEvent.Error) envelope.getEvent());
+            }
+            health.recordEvent(shard, envelope);
+            if (backfill != null && envelope.getEventType() == StreamingEventType.CANDLE &&
+                    envelope.getFigi() != null && envelope.getInterval() != null) {
+                backfill.record(envelope.getFigi(), envelope.getInterval(), envelope.getEpochNanos());
+            }
+            route(allSubscriptions, envelope, decodeEagerly);
+        } catch (IOException ex) {
+            logger.error("Не удалось десериализовать JSON пришедший из Streaming API", ex);
+        }
+    }
+
+    private void route(@NotNull final SubscriptionImpl<?>[] allSubscriptions,
+                       @NotNull final StreamingEventEnvelope envelope,
+                       final boolean decodeEagerly) throws IOException {
+        final String figi = envelope.getFigi();
+        if (figi == null) {
+            // events without figi (errors) are rare, so every subscriber gets to look at them
+            for (final SubscriptionImpl<?> sub : allSubscriptions) {
+                deliver(sub, envelope, decodeEagerly);
+            }
+        } else {
+            for (final SubscriptionImpl<?> sub : broadcastRoutes.get()) {
+                deliver(sub, envelope, decodeEagerly);
+            }
+            final SubscriptionImpl<?>[] routed = routesByFigi.get(figi);
+            if (routed != null) {
+                for (final SubscriptionImpl<?> sub : routed) {
+                    deliver(sub, envelope, decodeEagerly);
+                }
+            }
+        }
+    }
+
+    // Delivers a recovered candle to the subscribers; handlers only ever see what came over the wire
+    private void inject(@NotNull final StreamingEvent event) {
+        try {
+            route(subscriptions.get(), StreamingEventEnvelope.of(event), false);
+        } catch (IOException ex) {
+            // the envelope already holds a decoded event, so there is nothing left to fail
+            logger.error("Не удалось доставить восстановленную свечу", ex);
+        }
+    }
 
-            final int clientIndex = Math.abs(request.onOffPairId().hashCode()) % this.wsClients.length;
-            final WebSocket wsClient = this.wsClients[clientIndex];
+    private void acknowledge(@NotNull final StreamingEvent.Error error) {
+        final String requestId = error.getRequestId();
+        if (requestId != null) {
+            final BulkSend bulk = awaitingAcks.get(requestId);
+            if (bulk != null) {
+                bulk.fail(requestId, error);
+            }
+        }
+    }
+
+    // Queues the envelope to the subscriber if it accepts it; all subscribers share the envelope, and with
+    // `decodeEagerly` it is decoded for the first of them only (the event is memoized)
+    private void deliver(@NotNull final SubscriptionImpl<?> sub,
+                         @NotNull final StreamingEventEnvelope envelope,
+                         final boolean decodeEagerly) throws IOException {
+        if (sub.accepts(envelope)) {
+            if (decodeEagerly) {
+                envelope.getEvent();
+            }
+            sub.enqueue(envelope);
+        }
+    }
 
-            final Set<StreamingRequest.ActivatingRequest> wsClientHistory = this.requestsHistory.get(clientIndex);
-            wsClientHistory.removeIf(hr -> hr.onOffPairId().equals(request.onOffPairId()));
-            if (request instanceof StreamingRequest.ActivatingRequest) {
-                wsClientHistory.add((StreamingRequest.ActivatingRequest) request);
+    // Subscribers whose filter names a set of figis are only looked up under those figis; everyone else is a broadcast
+    // route and sees every message with a figi
+    private void addRoutes(@NotNull final SubscriptionImpl<?> sub) {
+        if (sub.figis == null) {
+            broadcastRoutes.updateAndGet(routes -> with(routes, sub));
+        } else {
+            for (final String figi : sub.figis) {
+                routesByFigi.compute(figi, (key, routes) ->
+                        routes == null ? new SubscriptionImpl<?>[]{sub} : with(routes, sub));
             }
+        }
+    }
 
-            wsClient.send(message);
+    private void removeRoutes(@NotNull final SubscriptionImpl<?> sub) {
+        if (sub.figis == null) {
+            broadcastRoutes.updateAndGet(routes -> without(routes, sub));
+        } else {
+            for (final String figi : sub.figis) {
+                routesByFigi.computeIfPresent(figi, (key, routes) -> {
+                    final SubscriptionImpl<?>[] remaining = without(routes, sub);
+                    return remaining.length == 0 ? null : remaining;
+                });
+            }
+        }
+    }
+
+    @NotNull
+    private static SubscriptionImpl<?>[] with(@NotNull final SubscriptionImpl<?>[] subs,
+                                              @NotNull final SubscriptionImpl<?> sub) {
+        final SubscriptionImpl<?>[] updated = Arrays.copyOf(subs, subs.length + 1);
+        updated[subs.length] = sub;
+        return updated;
+    }
+
+    @NotNull
+    private static SubscriptionImpl<?>[] without(@NotNull final SubscriptionImpl<?>[] subs,
+                                                 @NotNull final SubscriptionImpl<?> sub) {
+        for (int i = 0; i < subs.length; i++) {
+            if (subs[i] == sub) {
+                final SubscriptionImpl<?>[] updated = new SubscriptionImpl<?>[subs.length - 1];
+                System.arraycopy(subs, 0, updated, 0, i);
+                System.arraycopy(subs, i + 1, updated, i, subs.length - i - 1);
+                return updated;
+            }
+        }
+        return subs;
+    }
+
+    private void sampleShardLoad() {
+        try {
+            sampleLoad();
+            resizePool();
+            if (rebalanceThreshold > 0 && ++loadSamples % REBALANCE_PERIOD_SAMPLES == 0) {
+                rebalance();
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Не удалось оценить нагрузку на Streaming API клиентов", ex);
+        }
+    }
+
+    // Turns the messages counted since the previous sample into shard message rates
+    private void sampleLoad() {
+        synchronized (placementLock) {
+            final long now = System.nanoTime();
+            balancer.sample(now - lastLoadSampleAt);
+            lastLoadSampleAt = now;
+        }
+    }
+
+    // Recycles shards that went silent and resubscribes subscriptions that did; outside trading hours silence is normal
+    private void checkHealth() {
+        if (isTerminated || !health.isTradingTime()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < balancer.activeShards(); i++) {
+                final StreamingApiListener listener = listeners[i];
+                if (listener == null || listener.retired || listener.reconnectPending.get()) {
+                    continue;
+                }
+                final Map<String, PreparedRequest> history = requestsHistory.get(i);
+                if (health.isWedged(i, !history.isEmpty())) {
+                    logger.warn("Streaming API клиент #" + listener.id + " перестал получать сообщения, " +
+                            "соединение будет переоткрыто");
+                    health.disconnected(i);
+                    scheduleReconnect(listener);
+                    continue;
+                }
+                for (final String onOffPairId : health.staleSubscriptions(i, history.values())) {
+                    resubscribe(i, onOffPairId);
+                }
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Не удалось проверить состояние Streaming API клиентов", ex);
+        }
+    }
+
+    // Re-sends a stale subscription on the same shard: the server drops the old one first, so the pair stays single
+    private void resubscribe(final int index, @NotNull final String onOffPairId) {
+        synchronized (placementLock) {
+            final PreparedRequest prepared = requestsHistory.get(index).get(onOffPairId);
+            if (prepared == null || wsClients[index] == null) {
+                return;
+            }
+            // Both requests must reach the server, so they are queued without a pair to be coalesced by
+            try {
+                final StreamingRequest request = ((StreamingRequest.ActivatingRequest) prepared.request).toUnsubscribe();
+                enqueue(index, null, false, mapper.writeValueAsString(request));
+            } catch (JsonProcessingException ex) {
+                logger.error("Не удалось сериализовать сообщение в JSON", ex);
+                return;
+            }
+            enqueue(index, null, true, prepared.message);
+            health.resubscribed(onOffPairId);
+        }
+        logger.warn("Подписка " + onOffPairId + " на Streaming API клиенте #" + (index + 1) +
+                " перестала получать события и переоформлена");
+    }
+
+    // Moves one subscription off the busiest shard: the unsubscription on the old shard is queued only once the
+    // subscription has left the new shard's queue, so subscribers may see a few duplicate events but no gap
+    private void rebalance() {
+        if (isTerminated) {
+            return;
+        }
+        synchronized (placementLock) {
+            final ShardBalancer.Move move = balancer.rebalance(rebalanceThreshold);
+            if (move != null) {
+                moveSubscription(move, moved -> unsubscribeMoved(move, moved));
+            }
+        }
+    }
+
+    // Must be called with `placementLock` held. `subscribed` is called, under the same lock, once the subscription
+    // has left the new shard's queue: sent, cancelled by an unsubscription or dropped with the queue
+    private boolean moveSubscription(@NotNull final ShardBalancer.Move move,
+                                     @NotNull final Consumer<PreparedRequest> subscribed) {
+        final PreparedRequest prepared = requestsHistory.get(move.from).remove(move.onOffPairId);
+        if (prepared == null) {
+            return false;
+        }
+        requestsHistory.get(move.to).put(move.onOffPairId, prepared);
+        health.activated(move.onOffPairId);
+        logger.info("Подписка " + move.onOffPairId + " перенесена с Streaming API клиента #" + (move.from + 1) +
+                " на клиента #" + (move.to + 1));
+        enqueue(move.to, move.onOffPairId, true, prepared.message, new OutboundQueue.Listener() {
+            @Override
+            public void sent() {
+                subscribed.accept(prepared);
+            }
+
+            @Override
+            public void coalesced() {
+                subscribed.accept(prepared);
+            }
+
+            @Override
+            public void dropped() {
+                subscribed.accept(prepared);
+            }
+        });
+        return true;
+    }
+
+    // Must be called with `placementLock` held. Ends the old copy of a moved subscription, unless the subscription has
+    // been moved back since
+    private void unsubscribeMoved(@NotNull final ShardBalancer.Move move, @NotNull final PreparedRequest prepared) {
+        if (isTerminated || move.from >= balancer.activeShards() || wsClients[move.from] == null ||
+                requestsHistory.get(move.from).containsKey(move.onOffPairId)) {
+            return;
+        }
+        try {
+            final StreamingRequest request = ((StreamingRequest.ActivatingRequest) prepared.request).toUnsubscribe();
+            enqueue(move.from, move.onOffPairId, false, mapper.writeValueAsString(request));
         } catch (JsonProcessingException ex) {
             logger.error("Не удалось сериализовать сообщение в JSON", ex);
-            throw new RuntimeException(ex);
         }
     }
 
-    private void restore(@NotNull final StreamingApiListener listener) throws Exception {
-        final int id = listener.id;
-        final int index = listener.id - 1;
-        final WebSocket webSocket = Objects.requireNonNull(this.wsClients[index]);
-        logger.info("Попытка восстановления Streaming API клиента #" + id);
-        webSocket.close(1000, null);
+    // Sizes the pool to the subscription count and the message rate: it grows as soon as either outgrows the open
+    // connections, and shrinks once both would have fit into one connection less for `POOL_SHRINK_SAMPLES` samples
+    private void resizePool() {
+        if (isTerminated) {
+            return;
+        }
+        synchronized (placementLock) {
+            final int active = balancer.activeShards();
+            final double needed = connectionsNeeded(balancer.subscriptionCount(), balancer.messageRate());
+            if (needed > active && active < wsClients.length) {
+                underusedSamples = 0;
+                growPool();
+                // New subscriptions would fill the new connection by themselves, but the message rate would not move
+                // without taking over some of the existing subscriptions
+                for (int i = balancer.subscriptionCount() / (active + 1); i > 0; i--) {
+                    final ShardBalancer.Move move = balancer.rebalance(1.0);
+                    if (move == null) {
+                        break;
+                    }
+                    moveSubscription(move, moved -> unsubscribeMoved(move, moved));
+                }
+            } else if (needed < active - 1 && active > minParallelism && !(active == 2 && balancer.hasPartners())) {
+                if (++underusedSamples >= POOL_SHRINK_SAMPLES) {
+                    underusedSamples = 0;
+                    shrinkPool();
+                }
+            } else {
+                underusedSamples = 0;
+            }
+        }
+    }
+
+    private double connectionsNeeded(final int subscriptionCount, final double messageRate) {
+        final double bySubscriptions = subscriptionsPerConnection > 0
+                ? (double) subscriptionCount / subscriptionsPerConnection
+                : 0;
+        final double byMessages = messagesPerConnection > 0 ? messageRate / messagesPerConnection : 0;
+        return Math.max(bySubscriptions, byMessages);
+    }
+
+    // Must be called with `placementLock` held
+    private void growPool() {
+        final int index = balancer.grow();
+        openShard(index);
+        logger.info("Добавлен Streaming API клиент #" + (index + 1) + ", всего клиентов " + balancer.activeShards());
+    }
+
+    // Must be called with `placementLock` held. The last connection's subscriptions are resubscribed elsewhere, and
+    // the connection keeps delivering until every one of them has left its new shard's queue; closing it then ends
+    // them on the server without separate unsubscriptions
+    private void shrinkPool() {
+        final List<ShardBalancer.Move> moves = balancer.shrink();
+        final int index = balancer.activeShards();
+        final WebSocket retiring = wsClients[index];
+        listeners[index].retired = true;
+        outbound[index].clear();
+        health.disconnected(index);
+        wsClients[index] = null;
+        // One extra count keeps the socket open until every move has been queued
+        final AtomicInteger moving = new AtomicInteger(1);
+        final Runnable moved = () -> {
+            if (moving.decrementAndGet() == 0 && retiring != null) {
+                retiring.close(1000, null);
+            }
+        };
+        for (final ShardBalancer.Move move : moves) {
+            moving.incrementAndGet();
+            if (!moveSubscription(move, prepared -> moved.run())) {
+                moving.decrementAndGet();
+            }
+        }
+        moved.run();
+        logger.info("Закрыт Streaming API клиент #" + (index + 1) + ", всего клиентов " + balancer.activeShards());
+    }
+
+    // Puts a shard to use; with `lazyConnect` it is not connected until `socket` is first called for it
+    private void openShard(final int index) {
+        listeners[index] = new StreamingApiListener(index + 1);
+        outbound[index] = new OutboundQueue(requestsPerSecond);
+        wsClients[index] = null;
+        if (!lazyConnect) {
+            socket(index);
+        }
+    }
+
+    // Must be called with `placementLock` held (or from the constructor)
+    @NotNull
+    private WebSocket socket(final int index) {
+        WebSocket webSocket = wsClients[index];
+        if (webSocket == null) {
+            health.connecting(index);
+            webSocket = client.newWebSocket(wsRequest, listeners[index]);
+            wsClients[index] = webSocket;
+            logger.info("Подключение Streaming API клиента #" + (index + 1));
+        }
+        return webSocket;
+    }
+
+    private void terminate() {
+        isTerminated = true;
+        scheduler.shutdown();
+        if (decodeStage != null) {
+            decodeStage.shutdown();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!isTerminated) {
+            shutDown();
+        }
+    }
+
+    // Gives up on the whole context: every socket is closed, so no reader thread delivers into the stopped stages,
+    // every subscriber is cancelled and unfinished bulk sends fail
+    private void shutDown() {
+        terminate();
+        for (final BulkSend bulk : new HashSet<>(awaitingAcks.values())) {
+            bulk.finish(new IllegalStateException("Соединение закрыто"));
+        }
+        synchronized (placementLock) {
+            for (int i = 0; i < wsClients.length; i++) {
+                if (wsClients[i] != null) {
+                    wsClients[i].close(1000, null);
+                    wsClients[i] = null;
+                }
+                if (outbound[i] != null) {
+                    outbound[i].clear();
+                }
+            }
+        }
+        for (final Subscription sub: subscriptions.get()) sub.cancel();
+    }
+
+    // Reconnects a shard on the scheduler thread after an exponentially growing delay with random jitter, so shards
+    // that dropped together do not come back as a herd and no thread sleeps in the meantime
+    private void scheduleReconnect(@NotNull final StreamingApiListener listener) {
+        if (!listener.reconnectPending.compareAndSet(false, true)) {
+            return;
+        }
+        final int attempt = listener.failures.incrementAndGet();
+        if (attempt > reconnectAttempts) {
+            logger.error("Не удалось восстановить Streaming API клиента #" + listener.id + " за " + reconnectAttempts +
+                    " попыток");
+            shutDown();
+            return;
+        }
 
-        Thread.sleep(1000);
+        final long ceiling = Math.min(reconnectMaxDelayMillis, reconnectBaseDelayMillis << Math.min(attempt - 1, 30));
+        final long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        logger.info("Попытка восстановления Streaming API клиента #" + listener.id + " через " + delay + " мс");
+        try {
+            scheduler.schedule(() -> restore(listener), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // The context is terminated, there is nothing to restore
+        }
+    }
 
-        final WebSocket newWsClient = this.client.newWebSocket(this.wsRequest, listener);
-        this.wsClients[index] = newWsClient;
-        final Set<StreamingRequest.ActivatingRequest> history = this.requestsHistory.get(index);
-        logger.info("У клиента #" + id + " активно " + history.size() + " подписок");
+    // Replays the shard's active subscriptions over a fresh socket; messages were serialized when the requests were
+    // first sent, so this just queues them. The new connection gets a fresh queue with a full budget, so the first
+    // second's worth goes out at once and the rest at the shard's usual pace.
+    // If the new socket fails to connect, its listener schedules the next attempt
+    private void restore(@NotNull final StreamingApiListener listener) {
+        listener.reconnectPending.set(false);
+        if (listener.retired || isTerminated) {
+            return;
+        }
+        final int id = listener.id;
+        final int index = listener.id - 1;
+        try {
+            synchronized (placementLock) {
+                if (listener.retired || isTerminated) {
+                    return;
+                }
+                final WebSocket webSocket = this.wsClients[index];
+                if (webSocket != null) {
+                    webSocket.close(1000, null);
+                }
+                health.connecting(index);
+                this.wsClients[index] = this.client.newWebSocket(this.wsRequest, listener);
+                listener.backfillPending.set(backfill != null);
+                final Map<String, PreparedRequest> history = this.requestsHistory.get(index);
+                logger.info("У клиента #" + id + " активно " + history.size() + " подписок");
 
-        for (final StreamingRequest.ActivatingRequest request : history) {
-            final String message = mapper.writeValueAsString(request);
-            newWsClient.send(message);
+                // Whatever was queued for the old socket is covered by the history, and its budget went with it
+                outbound[index].clear();
+                outbound[index] = new OutboundQueue(requestsPerSecond);
+                for (final PreparedRequest request : history.values()) {
+                    enqueue(index, request.onOffPairId, true, request.message);
+                }
+            }
+        } catch (RuntimeException ex) {
+            logger.error("При восстановлении Streaming API клиента #" + id + " что-то произошло", ex);
+            scheduleReconnect(listener);
         }
     }
 
     private class StreamingApiListener extends WebSocketListener {
 
         final int id;
+        // Set when the pool shrinks and this connection is closed on purpose
+        volatile boolean retired;
+        // Failed connection attempts in a row
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicBoolean reconnectPending = new AtomicBoolean();
+        // Set by `restore`, so the candles missed while reconnecting are requested once the new socket is open
+        final AtomicBoolean backfillPending = new AtomicBoolean();
 
         StreamingApiListener(final int id) {
             this.id = id;
@@ -118,21 +987,34 @@ class StreamingContextImpl implements StreamingContext {
         public void onOpen(@NotNull final WebSocket webSocket, @NotNull final Response response) {
             super.onOpen(webSocket, response);
 
+            failures.set(0);
+            health.connected(id - 1);
             logger.info("Streaming API клиент #" + id + " подключён");
+            if (backfill != null && backfillPending.compareAndSet(true, false)) {
+                backfill.recover(requestsHistory.get(id - 1).values());
+            }
         }
 
         @Override
         public void onMessage(@NotNull final WebSocket webSocket, @NotNull final String text) {
             super.onMessage(webSocket, text);
 
-            try {
-                final StreamingEvent event = mapper.readValue(text, streamingEventTypeReference);
-                final Signal signal = new Send(event);
-                for (final SubscriptionImpl sub : subscriptions) {
-                    sub.signal(signal);
+            balancer.recordMessage(id - 1);
+            health.recordMessage(id - 1);
+            if (decodeStage != null) {
+                try {
+                    decodeStage.submit(text, id - 1);
+                } catch (RejectedExecutionException ex) {
+                    // The message is lost, so the connection is reopened: its subscriptions start over from a snapshot
+                    if (!reconnectPending.get()) {
+                        logger.error("Streaming API клиент #" + id + " не успевает декодировать сообщения, " +
+                                "соединение будет переоткрыто", ex);
+                        health.disconnected(id - 1);
+                        scheduleReconnect(this);
+                    }
                 }
-            } catch (JsonProcessingException ex) {
-                logger.error("Не удалось десериализовать JSON пришедший из Streaming API", ex);
+            } else {
+                dispatch(text, id - 1, false);
             }
         }
 
@@ -141,7 +1023,10 @@ class StreamingContextImpl implements StreamingContext {
             super.onClosed(webSocket, code, reason);
 
             logger.info("Streaming API #" + id + " клиент остановлен");
-            for (final Subscription sub: subscriptions) sub.cancel();
+            if (retired || webSocket != wsClients[id - 1]) {
+                return; // A socket closed on purpose or already replaced
+            }
+            for (final Subscription sub: subscriptions.get()) sub.cancel();
         }
 
         @Override
@@ -164,32 +1049,81 @@ class StreamingContextImpl implements StreamingContext {
                               @Nullable final Response response) {
             super.onFailure(webSocket, t, response);
 
+            if (retired || webSocket != wsClients[id - 1]) {
+                return; // A socket that has already been replaced
+            }
             if (response != null) {
                 int responseCode = response.code();
                 if (responseCode == 401 || responseCode == 403) {
-                    isTerminated = true;
                     logger.error("Для Streaming API передан неверный токен.", t);
-                    for (final WebSocket ws : wsClients) ws.close(1000, null);
-                    for (final Subscription sub: subscriptions) sub.cancel();
+                    shutDown();
                     return;
                 }
             }
 
-            try {
-                logger.error("Что-то произошло в Streaming API клиенте #" + id, t);
-                restore(this);
-            } catch (Exception ex) {
-                isTerminated = true;
-                for (final Subscription sub: subscriptions) sub.cancel();
-                logger.error("При восстановлении Streaming API клиента #" + id + " что-то произошло", ex);
-            }
+            logger.error("Что-то произошло в Streaming API клиенте #" + id, t);
+            health.disconnected(id - 1);
+            scheduleReconnect(this);
         }
     }
 
     @Override
     public void subscribe(Subscriber<? super StreamingEvent> s) {
-        final SubscriptionImpl sub = new SubscriptionImpl(s);
-        subscriptions.add(sub);
+        register(new SubscriptionImpl<>(s, null, StreamingSubscriptionOptions.defaults(),
+                StreamingEventEnvelope::getEvent, null));
+    }
+
+    @Override
+    public void subscribe(@NotNull final Subscriber<? super StreamingEvent> s,
+                          @NotNull final Predicate<? super StreamingEventEnvelope> filter) {
+        register(new SubscriptionImpl<>(s, filter, StreamingSubscriptionOptions.defaults(),
+                StreamingEventEnvelope::getEvent, null));
+    }
+
+    @Override
+    public void subscribe(@NotNull final Subscriber<? super StreamingEvent> s,
+                          @Nullable final Predicate<? super StreamingEventEnvelope> filter,
+                          @NotNull final StreamingSubscriptionOptions options) {
+        register(new SubscriptionImpl<>(s, filter, options, StreamingEventEnvelope::getEvent, null));
+    }
+
+    @NotNull
+    @Override
+    public Publisher<List<StreamingEvent>> batches(final int maxBatchSize, final long maxDelayMicros) {
+        return batches(null, maxBatchSize, maxDelayMicros, StreamingSubscriptionOptions.defaults());
+    }
+
+    @NotNull
+    @Override
+    public Publisher<List<StreamingEvent>> batches(@Nullable final Predicate<? super StreamingEventEnvelope> filter,
+                                                   final int maxBatchSize,
+                                                   final long maxDelayMicros,
+                                                   @NotNull final StreamingSubscriptionOptions options) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Размер пачки должен быть положительным");
+        }
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Задержка пачки не может быть отрицательной");
+        }
+        return s -> register(new SubscriptionImpl<List<StreamingEvent>>(s, filter, options, null,
+                new Batching(maxBatchSize, TimeUnit.MICROSECONDS.toNanos(maxDelayMicros))));
+    }
+
+    @NotNull
+    @Override
+    public Publisher<StreamingEventEnvelope> envelopes() {
+        return envelopes(StreamingSubscriptionOptions.defaults());
+    }
+
+    @NotNull
+    @Override
+    public Publisher<StreamingEventEnvelope> envelopes(@NotNull final StreamingSubscriptionOptions options) {
+        return s -> register(new SubscriptionImpl<>(s, null, options, envelope -> envelope, null));
+    }
+
+    private void register(@NotNull final SubscriptionImpl<?> sub) {
+        subscriptions.updateAndGet(subs -> with(subs, sub));
+        addRoutes(sub);
         if (isTerminated) {
             sub.terminateDueTo(new IllegalStateException("Соединение закрыто"));
         } else {
@@ -197,6 +1131,111 @@ class StreamingContextImpl implements StreamingContext {
         }
     }
 
+    // Forwards decoded events to every registered handler; a failing handler does not affect the others
+    private final class HandlersFanout implements StreamingEventHandler {
+        @Override
+        public void onCandle(@NotNull final String figi,
+                             @NotNull final CandleInterval interval,
+                             final long openPrice,
+                             final long closingPrice,
+                             final long highestPrice,
+                             final long lowestPrice,
+                             final long tradingValue,
+                             final int scale,
+                             final long epochNanos) {
+            for (final StreamingEventHandler handler : handlers) {
+                try {
+                    handler.onCandle(figi, interval, openPrice, closingPrice, highestPrice, lowestPrice,
+                            tradingValue, scale, epochNanos);
+                } catch (RuntimeException ex) {
+                    logger.error("Обработчик событий Streaming API завершился с ошибкой", ex);
+                }
+            }
+        }
+
+        @Override
+        public void onOrderbook(@NotNull final FixedPointOrderbook orderbook) {
+            for (final StreamingEventHandler handler : handlers) {
+                try {
+                    handler.onOrderbook(orderbook);
+                } catch (RuntimeException ex) {
+                    logger.error("Обработчик событий Streaming API завершился с ошибкой", ex);
+                }
+            }
+        }
+
+        @Override
+        public void onInstrumentInfo(@NotNull final StreamingEvent.InstrumentInfo instrumentInfo) {
+            for (final StreamingEventHandler handler : handlers) {
+                try {
+                    handler.onInstrumentInfo(instrumentInfo);
+                } catch (RuntimeException ex) {
+                    logger.error("Обработчик событий Streaming API завершился с ошибкой", ex);
+                }
+            }
+        }
+
+        @Override
+        public void onError(@NotNull final StreamingEvent.Error error) {
+            for (final StreamingEventHandler handler : handlers) {
+                try {
+                    handler.onError(error);
+                } catch (RuntimeException ex) {
+                    logger.error("Обработчик событий Streaming API завершился с ошибкой", ex);
+                }
+            }
+        }
+    }
+
+    // Checks a candle or an orderbook against the hedged copies before passing it to the handlers. Reused per
+    // decoding thread, so it is set up for one message at a time
+    private final class HedgeGate implements StreamingEventHandler {
+        String text;
+        int shard;
+        boolean duplicate;
+
+        @Override
+        public void onCandle(@NotNull final String figi,
+                             @NotNull final CandleInterval interval,
+                             final long openPrice,
+                             final long closingPrice,
+                             final long highestPrice,
+                             final long lowestPrice,
+                             final long tradingValue,
+                             final int scale,
+                             final long epochNanos) {
+            duplicate = deduplicator.isDuplicate(figi, StreamingEventType.CANDLE, text, shard);
+            if (!duplicate) {
+                handlersFanout.onCandle(figi, interval, openPrice, closingPrice, highestPrice, lowestPrice,
+                        tradingValue, scale, epochNanos);
+            }
+        }
+
+        @Override
+        public void onOrderbook(@NotNull final FixedPointOrderbook orderbook) {
+            duplicate = deduplicator.isDuplicate(orderbook.getFigi(), StreamingEventType.ORDERBOOK, text, shard);
+            if (!duplicate) {
+                handlersFanout.onOrderbook(orderbook);
+            }
+        }
+
+        @Override
+        public void onInstrumentInfo(@NotNull final StreamingEvent.InstrumentInfo instrumentInfo) {
+            handlersFanout.onInstrumentInfo(instrumentInfo);
+        }
+
+        @Override
+        public void onError(@NotNull final StreamingEvent.Error error) {
+            handlersFanout.onError(error);
+        }
+
+        void clear() {
+            text = null;
+            shard = 0;
+            duplicate = false;
+        }
+    }
+
     interface Signal {}
     enum Cancel implements Signal {
         Instance;
@@ -214,14 +1253,20 @@ class StreamingContextImpl implements StreamingContext {
             return "Signal.Subscribe";
         }
     }
-    static final class Send implements Signal {
-        @NotNull final StreamingEvent payload;
-        Send(@NotNull final StreamingEvent payload) {
-            this.payload = payload;
+    enum Flush implements Signal {
+        Instance;
+
+        @Override
+        public String toString() {
+            return "Signal.Flush";
         }
+    }
+    enum Overflow implements Signal {
+        Instance;
+
         @Override
         public String toString() {
-            return "Signal.Send";
+            return "Signal.Overflow";
         }
     }
     static final class Request implements Signal {
@@ -235,17 +1280,203 @@ class StreamingContextImpl implements StreamingContext {
         }
     }
 
-    private final class SubscriptionImpl implements Subscription, Runnable {
-        final Subscriber<? super StreamingEvent> subscriber; // We need a reference to the `Subscriber` so we can talk to it
-        private boolean cancelled = false; // This flag will track whether this `Subscription` is to be considered cancelled or not
+    // Turns an envelope into the element delivered to a subscriber; decoding happens here, on the subscriber's
+    // executor thread, and only for envelopes that passed the filter
+    interface Projection<T> {
+        @NotNull T apply(@NotNull StreamingEventEnvelope envelope) throws IOException;
+    }
+
+    // A `sendRequests` call: the requests are placed all at once and the shards' outbound queues pace them; the result
+    // completes `ackTimeoutMillis` after the queues are expected to have drained, with the errors received by then
+    private final class BulkSend {
+        @NotNull final StreamingRequest[] originals;
+        @NotNull final PreparedRequest[] prepared;
+        @NotNull final Map<String, Integer> indexes;
+        @NotNull final AtomicReferenceArray<StreamingEvent.Error> errors;
+        // Written under `placementLock` by the outbound queues, read once the result completes
+        @NotNull final boolean[] coalesced;
+        @NotNull final CompletableFuture<List<StreamingRequestOutcome>> result;
+
+        BulkSend(@NotNull final Collection<? extends StreamingRequest> requests) {
+            final String prefix = "bulk-" + bulkSequence.incrementAndGet() + "-";
+            this.originals = requests.toArray(new StreamingRequest[0]);
+            this.prepared = new PreparedRequest[originals.length];
+            this.indexes = new HashMap<>(originals.length * 2);
+            this.errors = new AtomicReferenceArray<>(originals.length);
+            this.coalesced = new boolean[originals.length];
+            this.result = new CompletableFuture<>();
+            for (int i = 0; i < originals.length; i++) {
+                final StreamingRequest original = originals[i];
+                final StreamingRequest tagged = original.getRequestId() == null
+                        ? original.withRequestId(prefix + i)
+                        : original;
+                if (indexes.put(tagged.getRequestId(), i) != null) {
+                    throw new IllegalArgumentException("Идентификатор запроса повторяется: " + tagged.getRequestId());
+                }
+                try {
+                    prepared[i] = PreparedRequest.prepare(tagged, mapper);
+                } catch (JsonProcessingException ex) {
+                    logger.error("Не удалось сериализовать сообщение в JSON", ex);
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+
+        // Claims the request ids, so errors for them reach this call and no other
+        void register() {
+            final List<String> claimed = new ArrayList<>(indexes.size());
+            for (final String requestId : indexes.keySet()) {
+                if (awaitingAcks.putIfAbsent(requestId, this) != null) {
+                    for (final String own : claimed) {
+                        awaitingAcks.remove(own, this);
+                    }
+                    throw new IllegalArgumentException("Идентификатор запроса уже используется: " + requestId);
+                }
+                claimed.add(requestId);
+            }
+        }
+
+        void start() {
+            try {
+                final long drainNanos;
+                synchronized (placementLock) {
+                    for (int i = 0; i < prepared.length; i++) {
+                        final int index = i;
+                        send(prepared[i], new OutboundQueue.Listener() {
+                            @Override
+                            public void sent() {
+                            }
+
+                            @Override
+                            public void coalesced() {
+                                coalesced[index] = true;
+                            }
+
+                            @Override
+                            public void dropped() {
+                            }
+                        });
+                    }
+                    drainNanos = outboundDrainNanos();
+                }
+                scheduler.schedule(() -> finish(null),
+                        TimeUnit.NANOSECONDS.toMillis(drainNanos) + ackTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                finish(new IllegalStateException("Соединение закрыто"));
+            } catch (RuntimeException ex) {
+                finish(ex);
+            }
+        }
+
+        void fail(@NotNull final String requestId, @NotNull final StreamingEvent.Error error) {
+            final Integer index = indexes.get(requestId);
+            if (index != null) {
+                errors.set(index, error);
+                if (prepared[index].isActivating()) {
+                    forget(prepared[index]);
+                }
+            }
+        }
+
+        private void finish(@Nullable final Throwable failure) {
+            for (final String requestId : indexes.keySet()) {
+                awaitingAcks.remove(requestId, this);
+            }
+            if (failure != null) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            final List<StreamingRequestOutcome> outcomes = new ArrayList<>(originals.length);
+            synchronized (placementLock) {
+                for (int i = 0; i < originals.length; i++) {
+                    final StreamingEvent.Error error = errors.get(i);
+                    final StreamingRequestOutcome.Status status;
+                    if (error != null) {
+                        status = StreamingRequestOutcome.Status.REJECTED;
+                    } else if (coalesced[i]) {
+                        status = StreamingRequestOutcome.Status.COALESCED;
+                    } else {
+                        status = StreamingRequestOutcome.Status.ACCEPTED;
+                    }
+                    outcomes.add(new StreamingRequestOutcome(originals[i], status, error));
+                }
+            }
+            result.complete(outcomes);
+        }
+    }
+
+    // Collects events for subscribers of `batches`: a batch goes out once it is full or once its first event has waited
+    // for `maxDelayNanos`; only the subscription's own run loop touches it
+    private static final class Batching {
+        final int maxSize;
+        final long maxDelayNanos;
+        ArrayList<StreamingEvent> pending;
+        long firstPendingAt;
+        boolean flushScheduled;
+
+        Batching(final int maxSize, final long maxDelayNanos) {
+            this.maxSize = maxSize;
+            this.maxDelayNanos = maxDelayNanos;
+            this.pending = new ArrayList<>(maxSize);
+        }
+    }
+
+    private final class SubscriptionImpl<T> implements Subscription, Runnable {
+        final Subscriber<? super T> subscriber; // We need a reference to the `Subscriber` so we can talk to it
+        @Nullable final Predicate<? super StreamingEventEnvelope> filter; // Envelopes rejected here are never queued nor decoded
+        @Nullable final Projection<T> projection; // Turns single envelopes into elements, unless we deliver batches
+        @Nullable final Batching batching; // Set for subscribers of `batches`, whose elements are `List<StreamingEvent>`
+        @Nullable final Set<String> figis; // Figis this subscription is routed by, or null to see every message
+        @NotNull final StreamingSubscriptionOptions.OverflowPolicy overflowPolicy;
+        // This flag will track whether this `Subscription` is to be considered cancelled or not; it is read by the
+        // producing threads too (filters, blocked `enqueue`)
+        private volatile boolean cancelled = false;
         private long demand = 0; // Here we track the current demand, i.e. what has been requested but not yet delivered
 
-        SubscriptionImpl(@NotNull final Subscriber<? super StreamingEvent> subscriber) {
+        SubscriptionImpl(@NotNull final Subscriber<? super T> subscriber,
+                         @Nullable final Predicate<? super StreamingEventEnvelope> filter,
+                         @NotNull final StreamingSubscriptionOptions options,
+                         @Nullable final Projection<T> projection,
+                         @Nullable final Batching batching) {
             this.subscriber = subscriber;
+            this.filter = filter;
+            this.projection = projection;
+            this.batching = batching;
+            this.overflowPolicy = options.getOverflowPolicy();
+            this.buffer = new RingBuffer<>(options.getBufferSize());
+            this.conflation = options.isConflating() ? new ConflationSlots() : null;
+            this.figis = filter instanceof StreamingFilter ? ((StreamingFilter) filter).getFigis() : null;
+        }
+
+        // Called on the WebSocket reader thread before the envelope is queued, so it must stay cheap
+        boolean accepts(@NotNull final StreamingEventEnvelope envelope) {
+            if (cancelled) {
+                return false;
+            }
+            if (filter == null) {
+                return true;
+            }
+            try {
+                return filter.test(envelope);
+            } catch (final Throwable t) {
+                logger.error("Фильтр подписчика Streaming API завершился с ошибкой", t);
+                return false;
+            }
         }
 
         // This `ConcurrentLinkedQueue` will track signals that are sent to this `Subscription`, like `request` and `cancel`
-        private final ConcurrentLinkedDeque<Signal> inboundSignals = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedQueue<Signal> inboundSignals = new ConcurrentLinkedQueue<>();
+
+        // Envelopes waiting for demand live in a preallocated bounded buffer, apart from the control signals above;
+        // in conflating mode the buffer also holds `ConflationSlot`s, each standing for the latest envelope of its key
+        private final RingBuffer<Object> buffer;
+        @Nullable private final ConflationSlots conflation;
+
+        // Makes sure that an overflow under `FAIL` is reported only once
+        private final AtomicBoolean overflowed = new AtomicBoolean(false);
+
+        // Counts envelopes dropped under `DROP_NEWEST` and `DROP_OLDEST`
+        private final AtomicLong dropped = new AtomicLong(0);
 
         // We are using this `AtomicBoolean` to make sure that this `Subscription` doesn't run concurrently with itself,
         // which would violate rule 1.3 among others (no concurrent notifications).
@@ -266,7 +1497,8 @@ class StreamingContextImpl implements StreamingContext {
         // This handles cancellation requests, and is idempotent, thread-safe and not synchronously performing heavy computations as specified in rule 3.5
         private void doCancel() {
             cancelled = true;
-            subscriptions.remove(this);
+            subscriptions.updateAndGet(subs -> without(subs, this));
+            removeRoutes(this);
         }
 
         // Instead of executing `subscriber.onSubscribe` synchronously from within `Publisher.subscribe`
@@ -284,7 +1516,76 @@ class StreamingContextImpl implements StreamingContext {
         }
 
         // This is our behavior for producing elements downstream
-        private void doSend(@NotNull final StreamingEvent next) {
+        private void doSend(@NotNull final StreamingEventEnvelope envelope) {
+            final T next;
+            try {
+                next = Objects.requireNonNull(projection).apply(envelope);
+            } catch (IOException ex) {
+                logger.error("Не удалось десериализовать JSON пришедший из Streaming API", ex);
+                return;
+            }
+
+            emit(next);
+        }
+
+        // Moves buffered events into the pending batch and sends it if it is full or old enough; otherwise makes sure
+        // a `Flush` arrives when it becomes old enough. Returns whether a batch was sent
+        @SuppressWarnings("unchecked")
+        private boolean doSendBatch(@NotNull final Batching batching) {
+            while (batching.pending.size() < batching.maxSize) {
+                final StreamingEventEnvelope envelope = nextBuffered();
+                if (envelope == null) {
+                    if (buffer.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    batching.pending.add(envelope.getEvent());
+                } catch (IOException ex) {
+                    logger.error("Не удалось десериализовать JSON пришедший из Streaming API", ex);
+                    continue;
+                }
+                if (batching.pending.size() == 1) {
+                    batching.firstPendingAt = System.nanoTime();
+                }
+            }
+            if (batching.pending.isEmpty()) {
+                return false;
+            }
+
+            final long waited = System.nanoTime() - batching.firstPendingAt;
+            if (batching.pending.size() < batching.maxSize && waited < batching.maxDelayNanos) {
+                if (!batching.flushScheduled) {
+                    batching.flushScheduled = true;
+                    try {
+                        scheduler.schedule(() -> signal(Flush.Instance), batching.maxDelayNanos - waited,
+                                TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException ex) {
+                        batching.flushScheduled = false; // The context is terminated, the batch will never fill up
+                        return false;
+                    }
+                }
+                return false;
+            }
+
+            final List<StreamingEvent> batch = batching.pending;
+            batching.pending = new ArrayList<>(batching.maxSize);
+            emit((T) batch);
+            return true;
+        }
+
+        // Takes the next envelope out of the buffer, resolving conflation slots
+        @Nullable
+        private StreamingEventEnvelope nextBuffered() {
+            final Object item = buffer.poll();
+            if (item instanceof ConflationSlots.Slot) {
+                return ((ConflationSlots.Slot) item).take(); // A slot may have been emptied by an overflow in the meantime
+            }
+            return (StreamingEventEnvelope) item;
+        }
+
+        private void emit(@NotNull final T next) {
             try {
                 subscriber.onNext(next); // Then we signal the next element downstream to the `Subscriber`
                 --demand;    // This makes sure that rule 1.1 is upheld (sending more than was demanded)
@@ -307,44 +1608,135 @@ class StreamingContextImpl implements StreamingContext {
 
         // What `signal` does is that it sends signals to the `Subscription` asynchronously
         private void signal(final Signal signal) {
-            if (signal instanceof Send) {
-                inboundSignals.offerLast(signal);
-            } else {
-                inboundSignals.offerFirst(signal);
-            }
+            inboundSignals.offer(signal);
 
             tryScheduleToExecute(); // Then we try to schedule it for execution, if it isn't already
         }
 
+        // Called on the threads that dispatch messages; puts the envelope into the bounded buffer, applying the
+        // overflow policy when it is full
+        void enqueue(@NotNull final StreamingEventEnvelope envelope) {
+            if (conflation != null) {
+                final ConflationSlots.Slot slot = conflation.slotFor(envelope);
+                if (slot != null) {
+                    // A slot that already held an envelope is queued already: overwriting it is all we need to do
+                    if (slot.put(envelope)) {
+                        offer(slot);
+                    }
+                    return;
+                }
+            }
+            offer(envelope);
+        }
+
+        private void offer(@NotNull final Object item) {
+            if (!buffer.offer(item)) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        while (!cancelled && !buffer.offer(item)) {
+                            tryScheduleToExecute();
+                            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        discard(item);
+                        break;
+                    case DROP_OLDEST:
+                        do {
+                            final Object oldest = buffer.poll();
+                            if (oldest != null) {
+                                discard(oldest);
+                            }
+                        } while (!buffer.offer(item));
+                        break;
+                    case FAIL:
+                        if (overflowed.compareAndSet(false, true)) {
+                            signal(Overflow.Instance);
+                        }
+                        return;
+                }
+            }
+
+            tryScheduleToExecute();
+        }
+
+        // A dropped slot must be emptied as well, otherwise later envelopes of its key would never be queued again
+        private void discard(@NotNull final Object item) {
+            if (item instanceof ConflationSlots.Slot) {
+                ((ConflationSlots.Slot) item).take();
+            }
+            if (dropped.getAndIncrement() == 0) {
+                logger.warn("Буфер подписчика " + subscriber + " переполнен, часть событий Streaming API отброшена");
+            }
+        }
+
         // This is the main "event loop" if you so will
         @Override public final void run() {
             if(on.get()) { // establishes a happens-before relationship with the end of the previous run
                 try {
-                    final Signal s = inboundSignals.peek(); // We take a signal off the queue
-                    if (!cancelled) { // to make sure that we follow rule 1.8, 3.6 and 3.7
-                        // Below we simply unpack the `Signal`s and invoke the corresponding methods
-                        if (s instanceof Request) {
-                            inboundSignals.poll();
-                            doRequest(((Request)s).n);
-                        } else if (s instanceof Send && demand > 0) {
-                            inboundSignals.poll();
-                            doSend(((Send)s).payload);
-                        } else if (s == Cancel.Instance) {
-                            inboundSignals.poll();
-                            doCancel();
-                        } else if (s == Subscribe.Instance) {
-                            inboundSignals.poll();
-                            doSubscribe();
+                    // We drain up to `drainBatchSize` signals per run instead of one, so a steady stream of
+                    // messages does not cost an executor round trip each; the cap keeps a busy subscription
+                    // from hogging the executor
+                    for (int processed = 0; processed < drainBatchSize; processed++) {
+                        if (cancelled) { // to make sure that we follow rule 1.8, 3.6 and 3.7
+                            // Nothing will be delivered anymore, so there is no point keeping these
+                            inboundSignals.clear();
+                            buffer.clear();
+                            if (batching != null) {
+                                batching.pending.clear();
+                            }
+                            break;
+                        }
+                        // Control signals go first, so `request` and `cancel` are never stuck behind buffered elements
+                        final Signal s = inboundSignals.poll();
+                        if (s != null) {
+                            // Below we simply unpack the `Signal`s and invoke the corresponding methods
+                            if (s instanceof Request) {
+                                doRequest(((Request)s).n);
+                            } else if (s == Cancel.Instance) {
+                                doCancel();
+                            } else if (s == Subscribe.Instance) {
+                                doSubscribe();
+                            } else if (s == Flush.Instance) {
+                                if (batching != null) {
+                                    batching.flushScheduled = false;
+                                }
+                            } else if (s == Overflow.Instance) {
+                                doCancel();
+                                terminateDueTo(new IllegalStateException("Переполнен буфер подписчика " + subscriber +
+                                        " на " + buffer.size() + " событий"));
+                            }
+                        } else if (demand > 0) {
+                            if (batching != null) {
+                                if (!doSendBatch(batching)) {
+                                    break; // The batch is still filling up
+                                }
+                            } else if (buffer.isEmpty()) {
+                                break; // Nothing to send right now
+                            } else {
+                                final StreamingEventEnvelope envelope = nextBuffered();
+                                if (envelope != null) {
+                                    doSend(envelope);
+                                }
+                            }
+                        } else {
+                            break; // The buffered elements wait for demand
                         }
                     }
                 } finally {
                     on.set(false); // establishes a happens-before relationship with the beginning of the next run
-                    if(!inboundSignals.isEmpty()) // If we still have signals to process
+                    if(canMakeProgress()) // If we still have signals we are able to process
                         tryScheduleToExecute(); // Then we try to schedule ourselves to execute again
                 }
             }
         }
 
+        // Buffered elements without demand can only be unblocked by a `Request`, and `request` schedules us by itself,
+        // so rescheduling in that case would just spin on the executor
+        private boolean canMakeProgress() {
+            return !inboundSignals.isEmpty() || (!buffer.isEmpty() && (demand > 0 || cancelled));
+        }
+
         // This method makes sure that this `Subscription` is only running on one Thread at a time,
         // this is important to make sure that we follow rule 1.3
         private void tryScheduleToExecute() {
@@ -358,6 +1750,7 @@ class StreamingContextImpl implements StreamingContext {
                             terminateDueTo(new IllegalStateException("Publisher terminated due to unavailable Executor.", t));
                         } finally {
                             inboundSignals.clear(); // We're not going to need these anymore
+                            buffer.clear();
                             // This subscription is cancelled by now, but letting it become schedulable again means
                             // that we can drain the inboundSignals queue if anything arrives after clearing
                             on.set(false);
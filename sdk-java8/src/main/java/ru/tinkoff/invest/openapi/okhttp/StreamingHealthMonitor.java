@@ -0,0 +1,342 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.tinkoff.invest.openapi.StreamingShardHealth;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventEnvelope;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventType;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Наблюдение за состоянием соединений streaming.
+ *
+ * Для каждого соединения учитываются время установки, время последнего входящего сообщения и время открытия сокета,
+ * а для каждой подписки ({@code onOffPairId}: figi с интервалом свечи или глубиной стакана) - время последнего события
+ * на этом соединении, так что каждая из двух копий дублированной подписки проверяется по своим событиям.
+ * Подписка на свечи или стакан считается зависшей, если событий по ней не было дольше заданного времени с момента
+ * последнего события или (пере)подписки, хотя само соединение сообщения получает: молчание всего соединения - дело
+ * проверки на зависание соединения. Каждая переподписка, после которой события так и не пошли, вдвое удлиняет
+ * ожидание, чтобы подписки на неликвидные инструменты не переоформлялись при каждой проверке. Информация об
+ * инструменте приходит только при смене его статуса, поэтому такие подписки не проверяются. Соединение считается
+ * зависшим, если при наличии подписок по нему не приходило никаких сообщений. Проверки выполняются только в торговые
+ * часы. Все отметки времени берутся из {@link System#nanoTime()}.
+ */
+final class StreamingHealthMonitor {
+
+    private static final long NEVER = Long.MIN_VALUE;
+    private static final ZoneId EXCHANGE_ZONE = ZoneId.of("Europe/Moscow");
+    private static final int INTERVALS = CandleInterval.values().length;
+    // Streaming API accepts orderbook depths from 1 to 20
+    private static final int MAX_ORDERBOOK_DEPTH = 20;
+    // Slots of a figi's event times: candles by interval ordinal, then orderbooks by depth, then instrument info
+    private static final int ORDERBOOK_SLOTS = INTERVALS - 1;
+    private static final int INSTRUMENT_INFO_SLOT = ORDERBOOK_SLOTS + MAX_ORDERBOOK_DEPTH + 1;
+    private static final int SLOTS = INSTRUMENT_INFO_SLOT + 1;
+    // A subscription that stays silent after resubscribing waits up to this many times longer before the next attempt
+    private static final int MAX_BACKOFF_SHIFT = 5;
+
+    // Time of the latest subscribe message and the count of resubscriptions that brought no events since
+    private static final class Activation {
+        final long at;
+        final int silentResubscribes;
+
+        Activation(final long at, final int silentResubscribes) {
+            this.at = at;
+            this.silentResubscribes = silentResubscribes;
+        }
+    }
+
+    private final long staleSubscriptionNanos;
+    private final long staleShardNanos;
+    @Nullable private final LocalTime tradingFrom;
+    @Nullable private final LocalTime tradingTo;
+    // Time of the latest event per shard and figi, indexed by `slot`, so every subscription of a figi is tracked on
+    // its own and a hedged copy is not kept fresh by the events of its partner
+    private final List<ConcurrentHashMap<String, AtomicLongArray>> lastEvents;
+    // Latest subscribe message by `onOffPairId`, so a subscription gets a grace period to start delivering
+    private final ConcurrentHashMap<String, Activation> activations;
+    private final AtomicLongArray lastMessages;
+    private final AtomicLongArray connectStarted;
+    private final AtomicLongArray connectedAt;
+    private final AtomicLongArray handshakeNanos;
+
+    /**
+     * @param shards                   Наибольшее число соединений.
+     * @param staleSubscriptionMillis  Время без событий по подписке, после которого она считается зависшей, или 0.
+     * @param staleShardMillis         Время без сообщений на соединении, после которого оно считается зависшим, или 0.
+     * @param tradingHours             Торговые часы по Москве в виде "HH:mm-HH:mm" или пустая строка.
+     */
+    StreamingHealthMonitor(final int shards,
+                           final long staleSubscriptionMillis,
+                           final long staleShardMillis,
+                           @NotNull final String tradingHours) {
+        this.staleSubscriptionNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, staleSubscriptionMillis));
+        this.staleShardNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, staleShardMillis));
+        if (tradingHours.isEmpty()) {
+            this.tradingFrom = null;
+            this.tradingTo = null;
+        } else {
+            final String[] bounds = tradingHours.split("-");
+            try {
+                if (bounds.length != 2) {
+                    throw new IllegalArgumentException("Торговые часы должны быть заданы в виде HH:mm-HH:mm");
+                }
+                this.tradingFrom = LocalTime.parse(bounds[0].trim());
+                this.tradingTo = LocalTime.parse(bounds[1].trim());
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Торговые часы должны быть заданы в виде HH:mm-HH:mm", ex);
+            }
+        }
+        this.lastEvents = new ArrayList<>(shards);
+        this.activations = new ConcurrentHashMap<>();
+        this.lastMessages = new AtomicLongArray(shards);
+        this.connectStarted = new AtomicLongArray(shards);
+        this.connectedAt = new AtomicLongArray(shards);
+        this.handshakeNanos = new AtomicLongArray(shards);
+        for (int i = 0; i < shards; i++) {
+            this.lastEvents.add(new ConcurrentHashMap<>());
+            this.lastMessages.set(i, NEVER);
+            this.connectStarted.set(i, NEVER);
+            this.connectedAt.set(i, NEVER);
+            this.handshakeNanos.set(i, -1);
+        }
+    }
+
+    /**
+     * Нужно ли проверять поступление событий.
+     */
+    boolean isEnabled() {
+        return staleSubscriptionNanos > 0 || staleShardNanos > 0;
+    }
+
+    /**
+     * Идут ли сейчас торги. Торговые часы могут переходить через полночь.
+     */
+    boolean isTradingTime() {
+        if (tradingFrom == null || tradingTo == null) {
+            return true;
+        }
+        final LocalTime now = LocalTime.now(EXCHANGE_ZONE);
+        return tradingFrom.isBefore(tradingTo)
+                ? !now.isBefore(tradingFrom) && now.isBefore(tradingTo)
+                : !now.isBefore(tradingFrom) || now.isBefore(tradingTo);
+    }
+
+    void connecting(final int shard) {
+        connectStarted.set(shard, System.nanoTime());
+        connectedAt.set(shard, NEVER);
+    }
+
+    void connected(final int shard) {
+        final long now = System.nanoTime();
+        final long started = connectStarted.get(shard);
+        if (started != NEVER) {
+            handshakeNanos.set(shard, now - started);
+        }
+        connectedAt.set(shard, now);
+    }
+
+    void disconnected(final int shard) {
+        connectedAt.set(shard, NEVER);
+    }
+
+    /**
+     * Учёт входящего сообщения. Вызывается из потоков чтения сокетов без блокировок.
+     */
+    void recordMessage(final int shard) {
+        lastMessages.lazySet(shard, System.nanoTime());
+    }
+
+    /**
+     * Учёт события по заголовку. События без figi (ошибки) пропускаются.
+     *
+     * @param shard    Номер соединения, по которому пришло событие.
+     * @param envelope Конверт события.
+     */
+    void recordEvent(final int shard, @NotNull final StreamingEventEnvelope envelope) {
+        final String figi = envelope.getFigi();
+        final int slot = slot(envelope.getEventType(), envelope.getInterval(), envelope.getDepth());
+        if (figi == null || slot < 0) {
+            return;
+        }
+        final ConcurrentHashMap<String, AtomicLongArray> shardEvents = lastEvents.get(shard);
+        AtomicLongArray last = shardEvents.get(figi);
+        if (last == null) {
+            final AtomicLongArray created = new AtomicLongArray(SLOTS);
+            for (int i = 0; i < SLOTS; i++) {
+                created.set(i, NEVER);
+            }
+            last = shardEvents.putIfAbsent(figi, created);
+            if (last == null) {
+                last = created;
+            }
+        }
+        last.lazySet(slot, System.nanoTime());
+    }
+
+    /**
+     * Учёт отправки подписки.
+     */
+    void activated(@NotNull final String onOffPairId) {
+        activations.put(onOffPairId, new Activation(System.nanoTime(), 0));
+    }
+
+    /**
+     * Учёт переподписки зависшей подписки: следующей попытки она будет ждать дольше, пока по ней не пойдут события.
+     */
+    void resubscribed(@NotNull final String onOffPairId) {
+        final Activation previous = activations.get(onOffPairId);
+        final int silent = previous == null ? 0 : Math.min(MAX_BACKOFF_SHIFT, previous.silentResubscribes + 1);
+        activations.put(onOffPairId, new Activation(System.nanoTime(), silent));
+    }
+
+    void deactivated(@NotNull final String onOffPairId) {
+        activations.remove(onOffPairId);
+    }
+
+    /**
+     * Проверка соединения на зависание.
+     *
+     * @param shard            Номер соединения.
+     * @param hasSubscriptions Есть ли на соединении подписки.
+     */
+    boolean isWedged(final int shard, final boolean hasSubscriptions) {
+        final long connected = connectedAt.get(shard);
+        if (staleShardNanos <= 0 || !hasSubscriptions || connected == NEVER) {
+            return false;
+        }
+        return System.nanoTime() - Math.max(connected, lastMessages.get(shard)) > staleShardNanos;
+    }
+
+    /**
+     * Зависшие подписки соединения.
+     *
+     * @param shard         Номер соединения.
+     * @param subscriptions Активные подписки соединения.
+     *
+     * @return onOffPairId зависших подписок.
+     */
+    @NotNull
+    List<String> staleSubscriptions(final int shard, @NotNull final Collection<PreparedRequest> subscriptions) {
+        final List<String> stale = new ArrayList<>();
+        final long connected = connectedAt.get(shard);
+        if (staleSubscriptionNanos <= 0 || connected == NEVER) {
+            return stale;
+        }
+        final long now = System.nanoTime();
+        if (now - Math.max(connected, lastMessages.get(shard)) > staleSubscriptionNanos) {
+            return stale; // The whole connection is quiet; resubscribing over it one by one would not help
+        }
+        for (final PreparedRequest prepared : subscriptions) {
+            // instrument info only comes when the instrument's status changes, so its silence means nothing
+            if (eventType(prepared.request) != StreamingEventType.CANDLE &&
+                    eventType(prepared.request) != StreamingEventType.ORDERBOOK) {
+                continue;
+            }
+            final long lastEvent = lastEvent(shard, prepared);
+            final Activation activation = activations.get(prepared.onOffPairId);
+            final long activatedAt = activation == null ? NEVER : activation.at;
+            // Events since the latest resubscription mean it worked, so the next one gets the normal grace period
+            final int shift = activation == null || lastEvent > activatedAt ? 0 : activation.silentResubscribes;
+            final long since = Math.max(Math.max(lastEvent, connected), activatedAt);
+            if (now - since > staleSubscriptionNanos << shift) {
+                stale.add(prepared.onOffPairId);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Снимок состояния соединения.
+     *
+     * @param shard         Номер соединения.
+     * @param subscriptions Активные подписки соединения.
+     * @param messageRate   Скорость входящих сообщений.
+     */
+    @NotNull
+    StreamingShardHealth snapshot(final int shard,
+                                  @NotNull final Collection<PreparedRequest> subscriptions,
+                                  final double messageRate) {
+        final long nowNanos = System.nanoTime();
+        final Instant now = Instant.now();
+        final Map<String, Instant> lastEventAt = new HashMap<>();
+        for (final PreparedRequest prepared : subscriptions) {
+            final long lastEvent = lastEvent(shard, prepared);
+            if (lastEvent != NEVER) {
+                lastEventAt.put(prepared.onOffPairId, now.minusNanos(nowNanos - lastEvent));
+            }
+        }
+        final long lastMessage = lastMessages.get(shard);
+        final long handshake = handshakeNanos.get(shard);
+        return new StreamingShardHealth(
+                shard + 1,
+                connectedAt.get(shard) != NEVER,
+                handshake < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(handshake),
+                messageRate,
+                lastMessage == NEVER ? null : now.minusNanos(nowNanos - lastMessage),
+                lastEventAt,
+                staleSubscriptions(shard, subscriptions)
+        );
+    }
+
+    private long lastEvent(final int shard, @NotNull final PreparedRequest prepared) {
+        final int slot = slot(prepared.request);
+        final AtomicLongArray last = prepared.figi == null ? null : lastEvents.get(shard).get(prepared.figi);
+        return last == null || slot < 0 ? NEVER : last.get(slot);
+    }
+
+    private static int slot(@NotNull final StreamingRequest request) {
+        if (request instanceof StreamingRequest.CandleSubscribeRequest) {
+            return slot(StreamingEventType.CANDLE, ((StreamingRequest.CandleSubscribeRequest) request).getInterval(), 0);
+        } else if (request instanceof StreamingRequest.OrderbookSubscribeRequest) {
+            return slot(StreamingEventType.ORDERBOOK, null,
+                    ((StreamingRequest.OrderbookSubscribeRequest) request).getDepth());
+        } else if (request instanceof StreamingRequest.InstrumentInfoSubscribeRequest) {
+            return INSTRUMENT_INFO_SLOT;
+        }
+        return -1;
+    }
+
+    // Slot of the event times a subscription is tracked by, or -1 if it is not tracked
+    private static int slot(@NotNull final StreamingEventType eventType,
+                            @Nullable final CandleInterval interval,
+                            final int depth) {
+        switch (eventType) {
+            case CANDLE:
+                return interval == null ? -1 : interval.ordinal();
+            case ORDERBOOK:
+                return depth < 1 || depth > MAX_ORDERBOOK_DEPTH ? -1 : ORDERBOOK_SLOTS + depth;
+            case INSTRUMENT_INFO:
+                return INSTRUMENT_INFO_SLOT;
+            default:
+                return -1;
+        }
+    }
+
+    @Nullable
+    private static StreamingEventType eventType(@NotNull final StreamingRequest request) {
+        if (request instanceof StreamingRequest.CandleSubscribeRequest) {
+            return StreamingEventType.CANDLE;
+        } else if (request instanceof StreamingRequest.OrderbookSubscribeRequest) {
+            return StreamingEventType.ORDERBOOK;
+        } else if (request instanceof StreamingRequest.InstrumentInfoSubscribeRequest) {
+            return StreamingEventType.INSTRUMENT_INFO;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,159 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import ru.tinkoff.invest.openapi.MarketContext;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+import ru.tinkoff.invest.openapi.model.rest.Candles;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventDecoder;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CandleBackfillTest {
+
+    private static final long MINUTE = 60_000_000_000L;
+    private static final long T0 = 1565192100L * 1_000_000_000L;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Optional<Candles>>> responses = new CopyOnWriteArrayList<>();
+    private final List<StreamingEvent> recovered = new CopyOnWriteArrayList<>();
+    private RuntimeException failWith;
+
+    // Only `getMarketCandles` is used by the backfill; its responses are completed by the test
+    private final MarketContext market = (MarketContext) Proxy.newProxyInstance(
+            MarketContext.class.getClassLoader(), new Class<?>[]{MarketContext.class}, (proxy, method, args) -> {
+                if (!method.getName().equals("getMarketCandles")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                requested.add((String) args[0]);
+                if (failWith != null) {
+                    throw failWith;
+                }
+                final CompletableFuture<Optional<Candles>> response = new CompletableFuture<>();
+                responses.add(response);
+                return response;
+            });
+
+    @NotNull
+    private CandleBackfill backfill(@NotNull final StreamingEventDecoder decoder) {
+        return new CandleBackfill(market, decoder, recovered::add, 1, LoggerFactory.getLogger(CandleBackfillTest.class));
+    }
+
+    @NotNull
+    private List<PreparedRequest> subscriptions(@NotNull final String... figis) throws Exception {
+        final List<PreparedRequest> result = new ArrayList<>();
+        for (final String figi : figis) {
+            result.add(PreparedRequest.prepare(StreamingRequest.subscribeCandle(figi, CandleInterval._1MIN), mapper));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static Optional<Candles> candles(@NotNull final String figi, final long... epochNanos) {
+        final List<Candle> candles = new ArrayList<>();
+        for (final long time : epochNanos) {
+            candles.add(new Candle()
+                    .figi(figi)
+                    .interval(CandleResolution._1MIN)
+                    .o(new BigDecimal("64.05"))
+                    .c(new BigDecimal("64.06"))
+                    .h(new BigDecimal("64.07"))
+                    .l(new BigDecimal("64.04"))
+                    .v(10)
+                    .time(OffsetDateTime.ofInstant(Instant.ofEpochSecond(0, time), ZoneOffset.UTC)));
+        }
+        return Optional.of(new Candles().figi(figi).interval(CandleResolution._1MIN).candles(candles));
+    }
+
+    @NotNull
+    private List<Long> recoveredTimes() {
+        final List<Long> times = new ArrayList<>();
+        for (final StreamingEvent event : recovered) {
+            final StreamingEvent.Candle candle = (StreamingEvent.Candle) event;
+            assertTrue(candle.isBackfilled());
+            times.add(candle.getEpochNanos());
+        }
+        return times;
+    }
+
+    @Test
+    public void recoversCandlesFromLastKnownOne() throws Exception {
+        final CandleBackfill backfill = backfill(new StreamingEventDecoder());
+        backfill.record("A", CandleInterval._1MIN, T0 + MINUTE);
+
+        backfill.recover(subscriptions("A", "B"));
+        responses.get(0).complete(candles("A", T0 + 2 * MINUTE, T0, T0 + MINUTE));
+
+        assertEquals(Arrays.asList("A"), requested);
+        assertEquals(Arrays.asList(T0 + MINUTE, T0 + 2 * MINUTE), recoveredTimes());
+    }
+
+    @Test
+    public void stopsAtFirstCandleStreamedAfterReconnect() throws Exception {
+        final CandleBackfill backfill = backfill(new StreamingEventDecoder());
+        backfill.record("A", CandleInterval._1MIN, T0);
+        backfill.recover(subscriptions("A"));
+
+        // streaming is back before the missed candles arrive
+        backfill.record("A", CandleInterval._1MIN, T0 + 2 * MINUTE);
+        backfill.record("A", CandleInterval._1MIN, T0 + 3 * MINUTE);
+        responses.get(0).complete(candles("A", T0, T0 + MINUTE, T0 + 2 * MINUTE, T0 + 3 * MINUTE));
+
+        assertEquals(Arrays.asList(T0, T0 + MINUTE), recoveredTimes());
+    }
+
+    @Test
+    public void unrepresentablePriceIsLoggedAndNextGapFetched() throws Exception {
+        final StreamingEventDecoder decoder = new StreamingEventDecoder(StreamingEventDecoder.PriceMode.FIXED_POINT, 6);
+        decoder.setPriceScale("A", 18);
+        final CandleBackfill backfill = backfill(decoder);
+        backfill.record("A", CandleInterval._1MIN, T0);
+        backfill.record("B", CandleInterval._1MIN, T0);
+        backfill.recover(subscriptions("A", "B"));
+        assertEquals(1, responses.size());
+
+        responses.get(0).complete(candles("A", T0));
+
+        assertTrue(recovered.isEmpty());
+        assertEquals(Arrays.asList("A", "B"), requested);
+        responses.get(1).complete(candles("B", T0));
+        assertEquals(1, recovered.size());
+    }
+
+    @Test
+    public void failedRequestStillStartsNextOne() throws Exception {
+        final CandleBackfill backfill = backfill(new StreamingEventDecoder());
+        backfill.record("A", CandleInterval._1MIN, T0);
+        backfill.record("B", CandleInterval._1MIN, T0);
+        failWith = new IllegalStateException("closed");
+
+        backfill.recover(subscriptions("A", "B"));
+
+        assertEquals(Arrays.asList("A", "B"), requested);
+        failWith = null;
+        backfill.record("C", CandleInterval._1MIN, T0);
+        backfill.recover(subscriptions("C"));
+        assertEquals(Arrays.asList("A", "B", "C"), requested);
+    }
+}
@@ -0,0 +1,74 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventDecoder;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventEnvelope;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConflationSlotsTest {
+
+    private final StreamingEventDecoder decoder = new StreamingEventDecoder();
+
+    @NotNull
+    private StreamingEventEnvelope orderbook(@NotNull final String figi, final int depth) throws IOException {
+        return decoder.envelope("{\"event\":\"orderbook\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+                "\"payload\":{\"figi\":\"" + figi + "\",\"depth\":" + depth + ",\"bids\":[[64.05,10]]," +
+                "\"asks\":[[64.06,7]]}}");
+    }
+
+    @NotNull
+    private StreamingEventEnvelope instrumentInfo(@NotNull final String figi) throws IOException {
+        return decoder.envelope("{\"event\":\"instrument_info\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+                "\"payload\":{\"figi\":\"" + figi + "\",\"trade_status\":\"normal_trading\"," +
+                "\"min_price_increment\":0.0025,\"lot\":1}}");
+    }
+
+    @Test
+    public void sameKeySharesOneSlot() throws IOException {
+        final ConflationSlots slots = new ConflationSlots();
+
+        final ConflationSlots.Slot slot = slots.slotFor(orderbook("A", 2));
+        assertNotNull(slot);
+        assertSame(slot, slots.slotFor(orderbook("A", 2)));
+        assertNotSame(slot, slots.slotFor(orderbook("A", 3)));
+        assertNotSame(slot, slots.slotFor(orderbook("B", 2)));
+        assertNotSame(slot, slots.slotFor(instrumentInfo("A")));
+        assertSame(slots.slotFor(instrumentInfo("A")), slots.slotFor(instrumentInfo("A")));
+    }
+
+    @Test
+    public void slotKeepsOnlyLatestValue() throws IOException {
+        final ConflationSlots.Slot slot = new ConflationSlots.Slot();
+        final StreamingEventEnvelope first = orderbook("A", 2);
+        final StreamingEventEnvelope second = orderbook("A", 2);
+
+        // Only the write into an empty slot asks for a place in the buffer
+        assertTrue(slot.put(first));
+        assertFalse(slot.put(second));
+        assertSame(second, slot.take());
+        assertNull(slot.take());
+        assertTrue(slot.put(first));
+    }
+
+    @Test
+    public void candlesAndErrorsAreNotConflated() throws IOException {
+        final ConflationSlots slots = new ConflationSlots();
+
+        assertNull(slots.slotFor(decoder.envelope("{\"event\":\"candle\"," +
+                "\"time\":\"2019-08-07T15:35:00.029721253Z\",\"payload\":{\"o\":64.0575,\"c\":64.0601," +
+                "\"h\":64.0605,\"l\":64.0575,\"v\":209,\"time\":\"2019-08-07T15:35:00Z\",\"interval\":\"1min\"," +
+                "\"figi\":\"A\"}}")));
+        assertNull(slots.slotFor(decoder.envelope("{\"event\":\"error\"," +
+                "\"time\":\"2019-08-07T15:35:00.029721253Z\",\"payload\":{\"error\":\"Subscription not found\"}}")));
+    }
+}
@@ -0,0 +1,130 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import ru.tinkoff.invest.openapi.StreamingSubscriptionOptions.OverflowPolicy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DecodeStageTest {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private DecodeStage stage;
+
+    @AfterEach
+    public void shutdown() {
+        release.countDown();
+        if (stage != null) {
+            stage.shutdown();
+        }
+    }
+
+    // One stripe with room for a single message, whose thread is stuck on the first one
+    @NotNull
+    private DecodeStage stuckStage(@NotNull final OverflowPolicy policy) throws InterruptedException {
+        stage = new DecodeStage(1, 1, policy, (text, shard) -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add(text);
+        }, LoggerFactory.getLogger(DecodeStageTest.class));
+        stage.submit("1", 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        stage.submit("2", 0);
+        assertArrayEquals(new int[]{1}, stage.queueDepths());
+        return stage;
+    }
+
+    private void drain() throws InterruptedException {
+        release.countDown();
+        final long deadline = System.currentTimeMillis() + 5_000L;
+        while (stage.queueDepths()[0] > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        stage.shutdown();
+        assertTrue(awaitHandled());
+    }
+
+    private boolean awaitHandled() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5_000L;
+        int previous = -1;
+        while (System.currentTimeMillis() < deadline) {
+            if (handled.size() == previous) {
+                return true;
+            }
+            previous = handled.size();
+            Thread.sleep(50L);
+        }
+        return false;
+    }
+
+    @Test
+    public void sameFigiGoesToSameStripe() {
+        final String candle = "{\"event\":\"candle\",\"payload\":{\"figi\":\"BBG0013HGFT4\",\"o\":1}}";
+        final String orderbook = "{\"payload\":{\"figi\" : \"BBG0013HGFT4\",\"depth\":1},\"event\":\"orderbook\"}";
+
+        assertEquals(DecodeStage.stripeHash(candle), DecodeStage.stripeHash(orderbook));
+        assertEquals(0, DecodeStage.stripeHash("{\"event\":\"error\",\"payload\":{\"error\":\"x\"}}"));
+    }
+
+    @Test
+    public void dropNewestDiscardsMessageThatDoesNotFit() throws InterruptedException {
+        stuckStage(OverflowPolicy.DROP_NEWEST).submit("3", 0);
+
+        assertEquals(1L, stage.droppedCount());
+        drain();
+        assertEquals(Arrays.asList("1", "2"), handled);
+    }
+
+    @Test
+    public void dropOldestMakesRoomForNewMessage() throws InterruptedException {
+        stuckStage(OverflowPolicy.DROP_OLDEST).submit("3", 0);
+
+        assertEquals(1L, stage.droppedCount());
+        drain();
+        assertEquals(Arrays.asList("1", "3"), handled);
+    }
+
+    @Test
+    public void failRejectsMessage() throws InterruptedException {
+        final DecodeStage stage = stuckStage(OverflowPolicy.FAIL);
+
+        assertThrows(RejectedExecutionException.class, () -> stage.submit("3", 0));
+        drain();
+        assertEquals(Arrays.asList("1", "2"), handled);
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        final DecodeStage stage = stuckStage(OverflowPolicy.BLOCK);
+        final Thread reader = new Thread(() -> stage.submit("3", 0));
+        reader.start();
+        reader.join(200L);
+        assertTrue(reader.isAlive(), "Поток чтения должен ждать места в очереди");
+
+        release.countDown();
+        reader.join(5_000L);
+        drain();
+
+        assertEquals(Arrays.asList("1", "2", "3"), handled);
+        assertEquals(0L, stage.droppedCount());
+    }
+}
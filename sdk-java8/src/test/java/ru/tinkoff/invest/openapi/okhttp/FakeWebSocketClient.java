@@ -0,0 +1,104 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Клиент, который вместо подключения к серверу выдаёт сокеты, записывающие отправленные сообщения. Тест сам
+ * открывает сокеты и передаёт в них сообщения от имени сервера.
+ */
+final class FakeWebSocketClient extends OkHttpClient {
+
+    final List<FakeWebSocket> sockets = new CopyOnWriteArrayList<>();
+
+    @NotNull
+    @Override
+    public WebSocket newWebSocket(@NotNull final Request request, @NotNull final WebSocketListener listener) {
+        final FakeWebSocket socket = new FakeWebSocket(request, listener);
+        sockets.add(socket);
+        return socket;
+    }
+
+    @NotNull
+    FakeWebSocket socket(final int index) {
+        return sockets.get(index);
+    }
+
+    static final class FakeWebSocket implements WebSocket {
+
+        final Request request;
+        final WebSocketListener listener;
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        volatile boolean closed;
+
+        FakeWebSocket(@NotNull final Request request, @NotNull final WebSocketListener listener) {
+            this.request = request;
+            this.listener = listener;
+        }
+
+        void open() {
+            listener.onOpen(this, response(101));
+        }
+
+        void receive(@NotNull final String text) {
+            listener.onMessage(this, text);
+        }
+
+        void fail(final int code) {
+            listener.onFailure(this, new java.io.IOException("HTTP " + code), response(code));
+        }
+
+        @NotNull
+        private Response response(final int code) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(code)
+                    .message("Fake")
+                    .build();
+        }
+
+        @NotNull
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public long queueSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean send(@NotNull final String text) {
+            sent.add(text);
+            return !closed;
+        }
+
+        @Override
+        public boolean send(@NotNull final ByteString bytes) {
+            return !closed;
+        }
+
+        @Override
+        public boolean close(final int code, @Nullable final String reason) {
+            closed = true;
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            closed = true;
+        }
+    }
+}
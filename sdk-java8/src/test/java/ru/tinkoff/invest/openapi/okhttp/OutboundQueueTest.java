@@ -0,0 +1,149 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import okhttp3.Request;
+import okhttp3.WebSocketListener;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundQueueTest {
+
+    private final FakeWebSocketClient.FakeWebSocket socket = new FakeWebSocketClient.FakeWebSocket(
+            new Request.Builder().url("ws://streaming").build(), new WebSocketListener() {
+            });
+
+    @Test
+    public void sendsNoMoreThanRatePerSecond() {
+        final OutboundQueue queue = new OutboundQueue(2);
+        queue.offer("a", true, "sub a");
+        queue.offer("b", true, "sub b");
+        queue.offer("c", true, "sub c");
+
+        queue.flush(socket);
+
+        assertEquals(Arrays.asList("sub a", "sub b"), socket.sent);
+        assertFalse(queue.isEmpty());
+        assertTrue(queue.nanosUntilNextToken() > 0);
+        assertTrue(queue.nanosUntilDrained() > 0);
+    }
+
+    @Test
+    public void sendsRestOnceTokensRefill() throws InterruptedException {
+        final OutboundQueue queue = new OutboundQueue(100);
+        for (int i = 0; i < 101; i++) {
+            queue.offer(null, true, "m" + i);
+        }
+        queue.flush(socket);
+        assertEquals(100, socket.sent.size());
+
+        Thread.sleep(Math.max(1L, queue.nanosUntilNextToken() / 1_000_000L + 1));
+        queue.flush(socket);
+
+        assertEquals(101, socket.sent.size());
+        assertTrue(queue.isEmpty());
+        assertEquals(0L, queue.nanosUntilDrained());
+    }
+
+    @Test
+    public void oppositeRequestsCancelOut() {
+        final OutboundQueue queue = new OutboundQueue(1);
+        queue.offer("a", true, "sub a");
+        queue.flush(socket);
+
+        queue.offer("b", true, "sub b");
+        queue.offer("b", false, "unsub b");
+
+        assertTrue(queue.isEmpty());
+        assertEquals(Collections.singletonList("sub a"), socket.sent);
+    }
+
+    @Test
+    public void repeatedRequestReplacesWaitingOneInItsPlace() {
+        final OutboundQueue queue = new OutboundQueue(3);
+        queue.offer("a", true, "sub a 1");
+        queue.offer("b", true, "sub b");
+        queue.offer("a", true, "sub a 2");
+
+        queue.flush(socket);
+
+        assertEquals(Arrays.asList("sub a 2", "sub b"), socket.sent);
+    }
+
+    @Test
+    public void requestsWithoutPairAreNeverCoalesced() {
+        final OutboundQueue queue = new OutboundQueue(3);
+        queue.offer(null, false, "unsub a");
+        queue.offer(null, true, "sub a");
+        queue.offer(null, true, "sub a");
+
+        queue.flush(socket);
+
+        assertEquals(Arrays.asList("unsub a", "sub a", "sub a"), socket.sent);
+    }
+
+    @Test
+    public void clearDropsWaitingMessages() {
+        final OutboundQueue queue = new OutboundQueue(1);
+        queue.offer("a", true, "sub a");
+        queue.offer("b", true, "sub b");
+        queue.flush(socket);
+
+        queue.clear();
+
+        assertTrue(queue.isEmpty());
+        assertEquals(0L, queue.nanosUntilDrained());
+        assertEquals(Collections.singletonList("sub a"), socket.sent);
+    }
+
+    // Records what happened to each message by its text
+    private static final class Outcomes {
+        final List<String> events = new ArrayList<>();
+
+        @NotNull
+        OutboundQueue.Listener of(@NotNull final String message) {
+            return new OutboundQueue.Listener() {
+                @Override
+                public void sent() {
+                    events.add("sent " + message);
+                }
+
+                @Override
+                public void coalesced() {
+                    events.add("coalesced " + message);
+                }
+
+                @Override
+                public void dropped() {
+                    events.add("dropped " + message);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void listenersLearnWhenTheirMessageLeaves() {
+        final OutboundQueue queue = new OutboundQueue(1);
+        final Outcomes outcomes = new Outcomes();
+        queue.offer("a", true, "sub a", outcomes.of("sub a"));
+        queue.offer("b", true, "sub b 1", outcomes.of("sub b 1"));
+        queue.offer("b", true, "sub b 2", outcomes.of("sub b 2"));
+        queue.offer("c", true, "sub c", outcomes.of("sub c"));
+        queue.offer("c", false, "unsub c", outcomes.of("unsub c"));
+        assertEquals(Arrays.asList("coalesced sub b 1", "coalesced sub c", "coalesced unsub c"), outcomes.events);
+
+        queue.flush(socket);
+        assertEquals("sent sub a", outcomes.events.get(3));
+
+        queue.clear();
+        assertEquals(Arrays.asList("coalesced sub b 1", "coalesced sub c", "coalesced unsub c", "sent sub a",
+                "dropped sub b 2"), outcomes.events);
+    }
+}
@@ -0,0 +1,41 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.jetbrains.annotations.NotNull;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Подписчик, который запоминает всё полученное и ничего не запрашивает сам.
+ */
+final class RecordingSubscriber<T> implements Subscriber<T> {
+
+    final List<T> received = new CopyOnWriteArrayList<>();
+    volatile Subscription subscription;
+    volatile Throwable error;
+
+    @Override
+    public void onSubscribe(@NotNull final Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(@NotNull final T item) {
+        received.add(item);
+    }
+
+    @Override
+    public void onError(@NotNull final Throwable error) {
+        this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    void request(final long n) {
+        subscription.request(n);
+    }
+}
@@ -0,0 +1,134 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RingBufferTest {
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(3);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    public void keepsOrderAcrossWraparound() {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(4);
+
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 1000; round++) {
+            // The fill level keeps changing, so the head and the tail cross the end of the array at different times
+            final int batch = round % 4 + 1;
+            for (int i = 0; i < batch; i++) {
+                assertTrue(buffer.offer(next++));
+            }
+            for (int i = 0; i < batch; i++) {
+                assertEquals(Integer.valueOf(expected++), buffer.poll());
+            }
+            assertTrue(buffer.isEmpty());
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void acceptsAgainAfterPoll() {
+        final RingBuffer<String> buffer = new RingBuffer<>(2);
+
+        assertTrue(buffer.offer("a"));
+        assertTrue(buffer.offer("b"));
+        assertFalse(buffer.offer("c"));
+        assertEquals("a", buffer.poll());
+        assertTrue(buffer.offer("c"));
+        assertEquals("b", buffer.poll());
+        assertEquals("c", buffer.poll());
+    }
+
+    @Test
+    public void clearEmptiesBuffer() {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        for (int i = 0; i < 8; i++) {
+            buffer.offer(i);
+        }
+
+        buffer.clear();
+
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        assertTrue(buffer.offer(42));
+        assertEquals(Integer.valueOf(42), buffer.poll());
+    }
+
+    @Test
+    public void concurrentProducersAndConsumersLoseNothing() throws InterruptedException {
+        final RingBuffer<Long> buffer = new RingBuffer<>(64);
+        final int producers = 4;
+        final int consumers = 2;
+        final int perProducer = 20_000;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger taken = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            final long base = (long) p * perProducer;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                while (taken.get() < producers * perProducer) {
+                    final Long value = buffer.poll();
+                    if (value == null) {
+                        Thread.yield();
+                    } else {
+                        sum.addAndGet(value);
+                        taken.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join(30_000L);
+        }
+
+        final long n = (long) producers * perProducer;
+        assertEquals(n, taken.get());
+        assertEquals(n * (n + 1) / 2, sum.get());
+        assertTrue(buffer.isEmpty());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
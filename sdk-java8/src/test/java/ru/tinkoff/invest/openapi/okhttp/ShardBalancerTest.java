@@ -0,0 +1,157 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardBalancerTest {
+
+    private static void load(final ShardBalancer balancer, final int shard, final int messages) {
+        for (int i = 0; i < messages; i++) {
+            balancer.recordMessage(shard);
+        }
+    }
+
+    @Test
+    public void spreadsSubscriptionsOverActiveShards() {
+        final ShardBalancer balancer = new ShardBalancer(4, 3);
+
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(1, balancer.assign("b"));
+        assertEquals(2, balancer.assign("c"));
+        assertEquals(0, balancer.assign("d"));
+        assertEquals(4, balancer.subscriptionCount());
+    }
+
+    @Test
+    public void keepsSubscriptionOnItsShard() {
+        final ShardBalancer balancer = new ShardBalancer(2, 2);
+
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(0, balancer.release("a"));
+        assertEquals(-1, balancer.release("a"));
+        assertEquals(0, balancer.subscriptionCount());
+    }
+
+    @Test
+    public void avoidsBusyShard() {
+        final ShardBalancer balancer = new ShardBalancer(2, 2);
+        balancer.assign("a");
+        balancer.assign("b");
+        load(balancer, 0, 1000);
+        balancer.sample(1_000_000_000L);
+
+        assertEquals(1, balancer.assign("c"));
+        assertEquals(1, balancer.assign("d"));
+        assertTrue(balancer.messageRate(0) > 0);
+        assertEquals(0.0, balancer.messageRate(1), 0.0);
+    }
+
+    @Test
+    public void placesPartnerOnAnotherShard() {
+        final ShardBalancer balancer = new ShardBalancer(3, 3);
+        balancer.assign("x");
+        balancer.assign("y");
+
+        final int shard = balancer.assign("a", null);
+        assertEquals(2, shard);
+        // every shard holds one subscription now, so only the partner rules a shard out
+        final int copyShard = balancer.assign("a-copy", "a");
+        assertNotEquals(shard, copyShard);
+        assertEquals(0, copyShard);
+        assertTrue(balancer.hasPartners());
+
+        balancer.release("a-copy");
+        assertFalse(balancer.hasPartners());
+    }
+
+    @Test
+    public void partnerSharesTheOnlyShard() {
+        final ShardBalancer balancer = new ShardBalancer(1, 1);
+
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(0, balancer.assign("a-copy", "a"));
+    }
+
+    @Test
+    public void shrinkMovesSubscriptionsAwayFromPartners() {
+        final ShardBalancer balancer = new ShardBalancer(3, 3);
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(1, balancer.assign("b"));
+        assertEquals(2, balancer.assign("c"));
+        assertEquals(0, balancer.assign("c-copy", "c"));
+        assertEquals(1, balancer.assign("e"));
+
+        // shards 0 and 1 hold two subscriptions each; without its partner on 0, "c" would go there first
+        final List<ShardBalancer.Move> moves = balancer.shrink();
+
+        assertEquals(2, balancer.activeShards());
+        assertEquals(1, moves.size());
+        assertEquals("c", moves.get(0).onOffPairId);
+        assertEquals(2, moves.get(0).from);
+        assertEquals(1, moves.get(0).to);
+        assertEquals(1, balancer.release("c"));
+    }
+
+    @Test
+    public void growAndShrinkBounds() {
+        final ShardBalancer balancer = new ShardBalancer(2, 1);
+
+        assertThrows(IllegalStateException.class, balancer::shrink);
+        assertEquals(1, balancer.grow());
+        assertThrows(IllegalStateException.class, balancer::grow);
+        assertEquals(0, balancer.shrink().size());
+        assertEquals(1, balancer.activeShards());
+    }
+
+    @Test
+    public void rebalanceSkipsSubscriptionWhosePartnerIsOnTarget() {
+        final ShardBalancer balancer = new ShardBalancer(2, 2);
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(1, balancer.assign("a-copy", "a"));
+        assertEquals(0, balancer.assign("b"));
+        load(balancer, 0, 1000);
+        balancer.sample(1_000_000_000L);
+
+        final ShardBalancer.Move move = balancer.rebalance(1.5);
+
+        assertEquals("b", move.onOffPairId);
+        assertEquals(0, move.from);
+        assertEquals(1, move.to);
+        assertEquals(1, balancer.release("b"));
+    }
+
+    @Test
+    public void rebalanceNeedsSkew() {
+        final ShardBalancer balancer = new ShardBalancer(2, 2);
+        balancer.assign("a");
+        balancer.assign("b");
+        balancer.assign("c");
+        load(balancer, 0, 100);
+        load(balancer, 1, 80);
+        balancer.sample(1_000_000_000L);
+
+        assertNull(balancer.rebalance(2.0));
+    }
+
+    @Test
+    public void rebalanceGivesUpWhenEveryCandidateHasPartnerOnTarget() {
+        final ShardBalancer balancer = new ShardBalancer(2, 2);
+        assertEquals(0, balancer.assign("a"));
+        assertEquals(1, balancer.assign("a-copy", "a"));
+        assertEquals(0, balancer.assign("b"));
+        assertEquals(1, balancer.assign("b-copy", "b"));
+        load(balancer, 0, 1000);
+        balancer.sample(1_000_000_000L);
+
+        assertNull(balancer.rebalance(1.5));
+    }
+}
@@ -0,0 +1,898 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import ru.tinkoff.invest.openapi.OpenApiConfig;
+import ru.tinkoff.invest.openapi.StreamingRequestOutcome;
+import ru.tinkoff.invest.openapi.StreamingSubscriptionOptions;
+import ru.tinkoff.invest.openapi.StreamingSubscriptionOptions.OverflowPolicy;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventHandler;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventType;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingFilter;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingContextImplTest {
+
+    private final FakeWebSocketClient client = new FakeWebSocketClient();
+
+    @NotNull
+    private static OpenApiConfig.Builder config(final int parallelism) {
+        return OpenApiConfig.builder("http://market", "http://sandbox", "ws://streaming", parallelism);
+    }
+
+    @NotNull
+    private StreamingContextImpl context(@NotNull final OpenApiConfig.Builder config) {
+        // Subscriptions run right on the calling thread, so every test sees their effects as soon as a call returns
+        return new StreamingContextImpl(client, config.build(), "token", Runnable::run);
+    }
+
+    @NotNull
+    private static String candle(@NotNull final String figi, final String close) {
+        return "{\"event\":\"candle\",\"time\":\"2019-08-07T15:35:00.029721253Z\",\"payload\":{\"o\":64.0575," +
+                "\"c\":" + close + ",\"h\":64.0605,\"l\":64.0575,\"v\":209,\"time\":\"2019-08-07T15:35:00Z\"," +
+                "\"interval\":\"1min\",\"figi\":\"" + figi + "\"}}";
+    }
+
+    @NotNull
+    private static List<String> closes(@NotNull final List<StreamingEvent> events) {
+        final List<String> result = new ArrayList<>();
+        for (final StreamingEvent event : events) {
+            result.add(((StreamingEvent.Candle) event).getClosingPrice().toPlainString());
+        }
+        return result;
+    }
+
+    @NotNull
+    private RecordingSubscriber<StreamingEvent> overflowAfterThree(@NotNull final OverflowPolicy policy) {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber, null, new StreamingSubscriptionOptions(2, policy, false));
+        context.warmUp();
+
+        final FakeWebSocketClient.FakeWebSocket socket = client.socket(0);
+        socket.open();
+        socket.receive(candle("A", "1"));
+        socket.receive(candle("A", "2"));
+        socket.receive(candle("A", "3"));
+        return subscriber;
+    }
+
+    @Test
+    public void dropNewestKeepsBufferedEvents() {
+        final RecordingSubscriber<StreamingEvent> subscriber = overflowAfterThree(OverflowPolicy.DROP_NEWEST);
+
+        subscriber.request(10);
+
+        assertEquals(Arrays.asList("1", "2"), closes(subscriber.received));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void dropOldestKeepsLatestEvents() {
+        final RecordingSubscriber<StreamingEvent> subscriber = overflowAfterThree(OverflowPolicy.DROP_OLDEST);
+
+        subscriber.request(10);
+
+        assertEquals(Arrays.asList("2", "3"), closes(subscriber.received));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void failTerminatesSubscription() {
+        final RecordingSubscriber<StreamingEvent> subscriber = overflowAfterThree(OverflowPolicy.FAIL);
+
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        subscriber.request(10);
+        assertTrue(subscriber.received.isEmpty());
+    }
+
+    @Test
+    public void laggingConflatingSubscriberGetsLatestOrderbookAndEveryCandle() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber, null, StreamingSubscriptionOptions.conflating());
+        final FakeWebSocketClient.FakeWebSocket socket = client.socket(0);
+        socket.open();
+
+        for (int i = 1; i <= 3; i++) {
+            socket.receive("{\"event\":\"orderbook\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+                    "\"payload\":{\"figi\":\"A\",\"depth\":1,\"bids\":[[" + i + ",10]],\"asks\":[[9,7]]}}");
+            socket.receive(candle("A", String.valueOf(i)));
+        }
+        subscriber.request(10);
+
+        assertEquals(4, subscriber.received.size());
+        final StreamingEvent.Orderbook orderbook = (StreamingEvent.Orderbook) subscriber.received.get(0);
+        assertEquals(0, new BigDecimal("3").compareTo(orderbook.getBids().get(0)[0]));
+        assertEquals(Arrays.asList("1", "2", "3"), closes(subscriber.received.subList(1, 4)));
+    }
+
+    @Test
+    public void blockWaitsForDemand() throws InterruptedException {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber, null, new StreamingSubscriptionOptions(2, OverflowPolicy.BLOCK, false));
+        context.warmUp();
+        final FakeWebSocketClient.FakeWebSocket socket = client.socket(0);
+        socket.open();
+
+        final Thread reader = new Thread(() -> {
+            for (int i = 1; i <= 3; i++) {
+                socket.receive(candle("A", String.valueOf(i)));
+            }
+        });
+        reader.start();
+        reader.join(200L);
+        assertTrue(reader.isAlive(), "Поток чтения должен ждать места в буфере");
+
+        subscriber.request(10);
+        reader.join(5_000L);
+
+        assertEquals(Arrays.asList("1", "2", "3"), closes(subscriber.received));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void everyConnectionOpensUpFrontByDefault() {
+        final StreamingContextImpl context = context(config(3));
+
+        assertEquals(3, client.sockets.size());
+        assertEquals(3, context.getHealth().size());
+    }
+
+    @Test
+    public void lazyConnectionOpensOnFirstRequestForIt() {
+        final StreamingContextImpl context = context(config(2).streamingLazyConnect(true));
+        assertTrue(client.sockets.isEmpty());
+
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        assertEquals(1, client.sockets.size());
+        assertEquals(1, client.socket(0).sent.size());
+
+        context.sendRequest(StreamingRequest.subscribeCandle("B", CandleInterval._1MIN));
+        assertEquals(2, client.sockets.size());
+        assertEquals(1, client.socket(1).sent.size());
+    }
+
+    @Test
+    public void warmUpOpensEveryLazyConnectionOnce() {
+        final StreamingContextImpl context = context(config(2).streamingLazyConnect(true));
+
+        context.warmUp();
+        assertEquals(2, client.sockets.size());
+        context.warmUp();
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        assertEquals(2, client.sockets.size());
+
+        context.close();
+        assertThrows(IllegalStateException.class, context::warmUp);
+    }
+
+    @Test
+    public void deliversDecodedCandle() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        context.warmUp();
+        subscriber.request(1);
+
+        client.socket(0).receive(candle("BBG0013HGFT4", "64.0601"));
+
+        assertEquals(1, subscriber.received.size());
+        final StreamingEvent.Candle candle = (StreamingEvent.Candle) subscriber.received.get(0);
+        assertEquals("BBG0013HGFT4", candle.getFigi());
+        assertEquals(new BigDecimal("64.0601"), candle.getClosingPrice());
+    }
+
+    @Test
+    public void subscriptionCancelledWhileQueuedIsNeverSent() throws InterruptedException {
+        final StreamingContextImpl context = context(config(1).streamingRequestsPerSecond(1));
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        final FakeWebSocketClient.FakeWebSocket socket = client.socket(0);
+        assertEquals(1, socket.sent.size());
+
+        // The only token of this second is spent, so both requests wait in the queue and meet there
+        context.sendRequest(StreamingRequest.subscribeCandle("B", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.unsubscribeCandle("B", CandleInterval._1MIN));
+        Thread.sleep(1_200L);
+
+        assertEquals(1, socket.sent.size());
+        assertFalse(socket.sent.get(0).contains("\"B\""));
+    }
+
+    @Test
+    public void bulkOutcomesFollowRequestOrder() throws Exception {
+        final StreamingContextImpl context = context(config(1)
+                .streamingRequestsPerSecond(1)
+                .streamingAckTimeoutMillis(50L));
+        final StreamingRequest subscribeA = StreamingRequest.subscribeCandle("A", CandleInterval._1MIN);
+        final StreamingRequest subscribeB = StreamingRequest.subscribeCandle("B", CandleInterval._1MIN);
+
+        // Equal requests get an outcome each; the second B meets the waiting first one and the unsubscription
+        // cancels what is left
+        final CompletableFuture<List<StreamingRequestOutcome>> result = context.sendRequests(Arrays.asList(
+                subscribeA,
+                subscribeB,
+                subscribeB,
+                StreamingRequest.unsubscribeCandle("B", CandleInterval._1MIN).withRequestId("unsub-b")));
+        final FakeWebSocketClient.FakeWebSocket socket = client.socket(0);
+        socket.open();
+        socket.receive("{\"event\":\"error\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+                "\"payload\":{\"error\":\"Subscription failed\",\"request_id\":\"" +
+                socket.sent.get(0).replaceAll(".*\"request_id\":\"([^\"]+)\".*", "$1") + "\"}}");
+        final List<StreamingRequestOutcome> outcomes = result.get(5, TimeUnit.SECONDS);
+
+        assertEquals(4, outcomes.size());
+        assertSame(subscribeA, outcomes.get(0).getRequest());
+        assertEquals(StreamingRequestOutcome.Status.REJECTED, outcomes.get(0).getStatus());
+        assertEquals("Subscription failed", outcomes.get(0).getError().get().getError());
+        for (int i = 1; i < 4; i++) {
+            assertEquals(StreamingRequestOutcome.Status.COALESCED, outcomes.get(i).getStatus());
+            assertFalse(outcomes.get(i).getError().isPresent());
+        }
+        assertEquals(1, socket.sent.size());
+    }
+
+    @Test
+    public void bulkWithRepeatedRequestIdSendsNothing() {
+        final StreamingContextImpl context = context(config(1));
+
+        assertThrows(IllegalArgumentException.class, () -> context.sendRequests(Arrays.asList(
+                StreamingRequest.subscribeCandle("A", CandleInterval._1MIN).withRequestId("same"),
+                StreamingRequest.subscribeCandle("B", CandleInterval._1MIN).withRequestId("same"))));
+        assertTrue(client.socket(0).sent.isEmpty());
+    }
+
+    @Test
+    public void bulkCannotReuseIdOfUnfinishedBulk() {
+        final StreamingContextImpl context = context(config(1).streamingAckTimeoutMillis(60_000L));
+        context.sendRequests(Collections.singletonList(
+                StreamingRequest.subscribeCandle("A", CandleInterval._1MIN).withRequestId("taken")));
+
+        assertThrows(IllegalArgumentException.class, () -> context.sendRequests(Collections.singletonList(
+                StreamingRequest.subscribeCandle("B", CandleInterval._1MIN).withRequestId("taken"))));
+        assertEquals(1, client.socket(0).sent.size());
+    }
+
+    @Test
+    public void unknownUnsubscriptionWithNegativeHashFindsShard() {
+        final StreamingContextImpl context = context(config(3));
+        // "Candle(34ILAJ=,_1MIN)".hashCode() == Integer.MIN_VALUE, whose absolute value is still negative
+        final StreamingRequest.CandleUnsubscribeRequest request =
+                StreamingRequest.unsubscribeCandle("34ILAJ=", CandleInterval._1MIN);
+        assertEquals(Integer.MIN_VALUE, request.onOffPairId().hashCode());
+
+        context.sendRequest(request);
+
+        int sent = 0;
+        for (final FakeWebSocketClient.FakeWebSocket socket : client.sockets) {
+            sent += socket.sent.size();
+        }
+        assertEquals(1, sent);
+    }
+
+    @Test
+    public void restoredConnectionReplaysWithFreshBudget() throws InterruptedException {
+        final StreamingContextImpl context = context(config(1)
+                .streamingRequestsPerSecond(1)
+                .streamingReconnectBaseDelayMillis(1L)
+                .streamingReconnectMaxDelayMillis(1L));
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        final FakeWebSocketClient.FakeWebSocket first = client.socket(0);
+        first.open();
+
+        first.fail(500);
+
+        final long deadline = System.currentTimeMillis() + 500L;
+        while ((client.sockets.size() < 2 || client.socket(1).sent.isEmpty()) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(2, client.sockets.size());
+        assertEquals(first.sent, client.socket(1).sent);
+        assertTrue(first.closed);
+    }
+
+    @NotNull
+    private FakeWebSocketClient.FakeWebSocket reconnected(@NotNull final FakeWebSocketClient.FakeWebSocket socket,
+                                                          final int expectedReplay) throws InterruptedException {
+        socket.fail(500);
+        final long deadline = System.currentTimeMillis() + 2_000L;
+        while ((client.sockets.size() < 2 || client.socket(1).sent.size() < expectedReplay) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(2, client.sockets.size());
+        return client.socket(1);
+    }
+
+    @Test
+    public void replayResendsOnlyActiveSubscriptionsAsSent() throws InterruptedException {
+        final StreamingContextImpl context = context(config(1)
+                .streamingReconnectBaseDelayMillis(1L)
+                .streamingReconnectMaxDelayMillis(1L));
+        final FakeWebSocketClient.FakeWebSocket first = client.socket(0);
+        first.open();
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.subscribeCandle("B", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.subscribeOrderbook("C", 10));
+        context.sendRequest(StreamingRequest.unsubscribeCandle("B", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+
+        final FakeWebSocketClient.FakeWebSocket second = reconnected(first, 2);
+
+        // The history keeps one entry per pair, and replays the very text sent the first time
+        assertEquals(2, second.sent.size());
+        assertEquals(new HashSet<>(Arrays.asList(first.sent.get(0), first.sent.get(2))), new HashSet<>(second.sent));
+    }
+
+    @Test
+    public void historyStaysConsistentUnderConcurrentRequests() throws Exception {
+        final StreamingContextImpl context = context(config(1)
+                .streamingRequestsPerSecond(1_000_000)
+                .streamingReconnectBaseDelayMillis(1L)
+                .streamingReconnectMaxDelayMillis(1L));
+        final FakeWebSocketClient.FakeWebSocket first = client.socket(0);
+        first.open();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final String figi = "F" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    context.sendRequest(StreamingRequest.subscribeCandle(figi, CandleInterval._1MIN));
+                    context.sendRequest(StreamingRequest.unsubscribeCandle(figi, CandleInterval._1MIN));
+                }
+                context.sendRequest(StreamingRequest.subscribeOrderbook(figi, 1));
+            }));
+        }
+        // Health snapshots read the history without locking while it changes
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                context.getHealth();
+            }
+        }));
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final FakeWebSocketClient.FakeWebSocket second = reconnected(first, 4);
+        final ObjectMapper mapper = new ObjectMapper();
+        final Set<String> expected = new HashSet<>();
+        for (int t = 0; t < 4; t++) {
+            expected.add(mapper.writeValueAsString(StreamingRequest.subscribeOrderbook("F" + t, 1)));
+        }
+        assertEquals(4, second.sent.size());
+        assertEquals(expected, new HashSet<>(second.sent));
+    }
+
+    @Test
+    public void handlersAndSubscribersSeeSameMessage() {
+        final StreamingContextImpl context = context(config(1));
+        final List<String> handled = new ArrayList<>();
+        context.addHandler(new StreamingEventHandler() {
+            @Override
+            public void onCandle(@NotNull final String figi, @NotNull final CandleInterval interval,
+                                 final long openPrice, final long closingPrice, final long highestPrice,
+                                 final long lowestPrice, final long tradingValue, final int scale,
+                                 final long epochNanos) {
+                handled.add(figi);
+            }
+        });
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        context.warmUp();
+        subscriber.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(0).receive(candle("B", "2"));
+
+        assertEquals(Arrays.asList("A", "B"), handled);
+        assertEquals(Arrays.asList("1", "2"), closes(subscriber.received));
+    }
+
+    private static int runAll(@NotNull final Queue<Runnable> tasks) {
+        int ran = 0;
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            task.run();
+            ran++;
+        }
+        return ran;
+    }
+
+    @Test
+    public void burstIsDrainedInBatches() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final StreamingContextImpl context =
+                new StreamingContextImpl(client, config(1).streamingDrainBatchSize(4).build(), "token", tasks::add);
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        runAll(tasks);
+        subscriber.request(10);
+        runAll(tasks);
+
+        for (int i = 0; i < 10; i++) {
+            client.socket(0).receive(candle("A", String.valueOf(i)));
+        }
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+        assertEquals(4, subscriber.received.size());
+        assertEquals(2, runAll(tasks));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"), closes(subscriber.received));
+    }
+
+    @Test
+    public void bufferedEventsWithoutDemandDoNotSpin() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final StreamingContextImpl context =
+                new StreamingContextImpl(client, config(1).streamingDrainBatchSize(4).build(), "token", tasks::add);
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        runAll(tasks);
+
+        for (int i = 0; i < 3; i++) {
+            client.socket(0).receive(candle("A", String.valueOf(i)));
+        }
+        assertEquals(1, runAll(tasks));
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.request(2);
+        runAll(tasks);
+        assertEquals(Arrays.asList("0", "1"), closes(subscriber.received));
+        assertTrue(tasks.isEmpty());
+
+        subscriber.subscription.cancel();
+        runAll(tasks);
+        client.socket(0).receive(candle("A", "3"));
+        runAll(tasks);
+        assertEquals(2, subscriber.received.size());
+    }
+
+    @Test
+    public void subscriberAddedDuringDeliveryStartsWithNextMessage() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> late = new RecordingSubscriber<>();
+        final RecordingSubscriber<StreamingEvent> other = new RecordingSubscriber<>();
+        context.subscribe(new Subscriber<StreamingEvent>() {
+            @Override
+            public void onSubscribe(@NotNull final Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(@NotNull final StreamingEvent item) {
+                if (late.subscription == null) {
+                    context.subscribe(late);
+                    late.request(10);
+                }
+            }
+
+            @Override
+            public void onError(@NotNull final Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        context.subscribe(other);
+        other.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(0).receive(candle("A", "2"));
+
+        // The message being delivered goes to the snapshot it started with
+        assertEquals(Arrays.asList("1", "2"), closes(other.received));
+        assertEquals(Collections.singletonList("2"), closes(late.received));
+    }
+
+    @Test
+    public void cancellingDuringDeliveryDoesNotDisturbOthers() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> other = new RecordingSubscriber<>();
+        final List<StreamingEvent> cancelledReceived = new ArrayList<>();
+        context.subscribe(new Subscriber<StreamingEvent>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(@NotNull final Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(@NotNull final StreamingEvent item) {
+                cancelledReceived.add(item);
+                subscription.cancel();
+            }
+
+            @Override
+            public void onError(@NotNull final Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        context.subscribe(other);
+        other.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(0).receive(candle("A", "2"));
+
+        assertEquals(Collections.singletonList("1"), closes(cancelledReceived));
+        assertEquals(Arrays.asList("1", "2"), closes(other.received));
+    }
+
+    @Test
+    public void subscribersChurningOnAnotherThreadDoNotDisturbDelivery() throws InterruptedException {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> stable = new RecordingSubscriber<>();
+        context.subscribe(stable);
+        stable.request(Long.MAX_VALUE);
+        final Thread churn = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+                context.subscribe(subscriber, StreamingFilter.forFigis("A"));
+                subscriber.request(1);
+                subscriber.subscription.cancel();
+            }
+        });
+        churn.start();
+
+        final List<String> expected = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2_000; i++) {
+                client.socket(0).receive(candle("A", String.valueOf(i)));
+                expected.add(String.valueOf(i));
+            }
+        } finally {
+            churn.interrupt();
+            churn.join();
+        }
+
+        assertEquals(expected, closes(stable.received));
+        assertNull(stable.error);
+    }
+
+    @Test
+    public void figiFilteredSubscribersSeeOnlyTheirInstruments() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> onlyA = new RecordingSubscriber<>();
+        final RecordingSubscriber<StreamingEvent> onlyB = new RecordingSubscriber<>();
+        final RecordingSubscriber<StreamingEvent> everything = new RecordingSubscriber<>();
+        context.subscribe(onlyA, StreamingFilter.forFigis("A"));
+        context.subscribe(onlyB, StreamingFilter.forFigis("B", "C"));
+        context.subscribe(everything);
+        onlyA.request(10);
+        onlyB.request(10);
+        everything.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(0).receive(candle("B", "2"));
+        client.socket(0).receive(candle("D", "3"));
+
+        assertEquals(Collections.singletonList("1"), closes(onlyA.received));
+        assertEquals(Collections.singletonList("2"), closes(onlyB.received));
+        assertEquals(Arrays.asList("1", "2", "3"), closes(everything.received));
+
+        // Errors carry no figi, so the figi index does not hold them back
+        client.socket(0).receive("{\"event\":\"error\",\"time\":\"2019-08-07T15:35:00.029721253Z\"," +
+                "\"payload\":{\"error\":\"Subscription not found\"}}");
+        assertTrue(onlyA.received.get(1) instanceof StreamingEvent.Error);
+        assertTrue(onlyB.received.get(1) instanceof StreamingEvent.Error);
+    }
+
+    @Test
+    public void cancelledFigiSubscriberLeavesTheIndex() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> cancelled = new RecordingSubscriber<>();
+        final RecordingSubscriber<StreamingEvent> staying = new RecordingSubscriber<>();
+        context.subscribe(cancelled, StreamingFilter.forFigis("A"));
+        context.subscribe(staying, StreamingFilter.forFigis("A"));
+        cancelled.request(10);
+        staying.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        cancelled.subscription.cancel();
+        client.socket(0).receive(candle("A", "2"));
+
+        assertEquals(Collections.singletonList("1"), closes(cancelled.received));
+        assertEquals(Arrays.asList("1", "2"), closes(staying.received));
+    }
+
+    @Test
+    public void predicateFilterSeesHeaderBeforeDelivery() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber, envelope -> envelope.getEventType() == StreamingEventType.CANDLE &&
+                "B".equals(envelope.getFigi()));
+        subscriber.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(0).receive(candle("B", "2"));
+
+        assertEquals(Collections.singletonList("2"), closes(subscriber.received));
+    }
+
+    @Test
+    public void fullBatchesAreDeliveredAtOnceAndCountAsOneRequest() {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<List<StreamingEvent>> subscriber = new RecordingSubscriber<>();
+        context.batches(3, TimeUnit.SECONDS.toMicros(10)).subscribe(subscriber);
+        subscriber.request(1);
+
+        for (int i = 0; i < 7; i++) {
+            client.socket(0).receive(candle("A", String.valueOf(i)));
+        }
+        assertEquals(1, subscriber.received.size());
+        assertEquals(Arrays.asList("0", "1", "2"), closes(subscriber.received.get(0)));
+
+        subscriber.request(1);
+        assertEquals(2, subscriber.received.size());
+        assertEquals(Arrays.asList("3", "4", "5"), closes(subscriber.received.get(1)));
+    }
+
+    @Test
+    public void partialBatchIsFlushedAfterDelay() throws InterruptedException {
+        final StreamingContextImpl context = context(config(1));
+        final RecordingSubscriber<List<StreamingEvent>> subscriber = new RecordingSubscriber<>();
+        context.batches(100, TimeUnit.MILLISECONDS.toMicros(20)).subscribe(subscriber);
+        subscriber.request(10);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(0).receive(candle("A", "2"));
+        assertTrue(subscriber.received.isEmpty());
+
+        final long deadline = System.currentTimeMillis() + 2_000L;
+        while (subscriber.received.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(1, subscriber.received.size());
+        assertEquals(Arrays.asList("1", "2"), closes(subscriber.received.get(0)));
+    }
+
+    @Test
+    public void batchesRejectBadLimits() {
+        final StreamingContextImpl context = context(config(1));
+
+        assertThrows(IllegalArgumentException.class, () -> context.batches(0, 1L));
+        assertThrows(IllegalArgumentException.class, () -> context.batches(1, -1L));
+    }
+
+    @NotNull
+    private RecordingSubscriber<StreamingEvent> hedged(@NotNull final StreamingContextImpl context) {
+        context.setHedged("A", true);
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        subscriber.request(100);
+        assertEquals(2, client.sockets.size());
+        assertEquals(1, client.socket(0).sent.size());
+        assertEquals(client.socket(0).sent, client.socket(1).sent);
+        return subscriber;
+    }
+
+    @Test
+    public void silentHedgedCopyIsReportedStale() throws InterruptedException {
+        final StreamingContextImpl context = context(config(2)
+                .streamingStaleSubscriptionMillis(100L)
+                .streamingTradingHours(""));
+        hedged(context);
+        client.socket(0).open();
+        client.socket(1).open();
+
+        Thread.sleep(150L);
+        // Both connections receive messages, but only the first one delivers the hedged figi
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(1).receive(candle("B", "1"));
+
+        assertTrue(context.getHealth().get(0).getStaleSubscriptions().isEmpty());
+        assertEquals(Collections.singletonList(PreparedRequest.hedgeId("Candle(A,_1MIN)")),
+                context.getHealth().get(1).getStaleSubscriptions());
+    }
+
+    @Test
+    public void hedgedRepeatsOnOneConnectionAreAllDelivered() {
+        final RecordingSubscriber<StreamingEvent> subscriber = hedged(context(config(2)));
+
+        for (int i = 0; i < 2; i++) {
+            client.socket(i).receive(candle("A", "1"));
+            client.socket(i).receive(candle("A", "2"));
+            client.socket(i).receive(candle("A", "1"));
+        }
+
+        assertEquals(Arrays.asList("1", "2", "1"), closes(subscriber.received));
+    }
+
+    @Test
+    public void handlersSkipHedgedCopies() {
+        final StreamingContextImpl context = context(config(2));
+        final List<String> handled = new ArrayList<>();
+        context.addHandler(new StreamingEventHandler() {
+            @Override
+            public void onCandle(@NotNull final String figi, @NotNull final CandleInterval interval,
+                                 final long openPrice, final long closingPrice, final long highestPrice,
+                                 final long lowestPrice, final long tradingValue, final int scale,
+                                 final long epochNanos) {
+                handled.add(figi);
+            }
+        });
+        final RecordingSubscriber<StreamingEvent> subscriber = hedged(context);
+
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(1).receive(candle("A", "1"));
+        client.socket(1).receive(candle("B", "2"));
+
+        assertEquals(Arrays.asList("A", "B"), handled);
+        assertEquals(Arrays.asList("1", "2"), closes(subscriber.received));
+    }
+
+    @Test
+    public void copiesAreDeliveredOnceHedgingIsOver() {
+        final StreamingContextImpl context = context(config(2));
+        final RecordingSubscriber<StreamingEvent> subscriber = hedged(context);
+
+        context.setHedged("A", false);
+        client.socket(0).receive(candle("A", "1"));
+        client.socket(1).receive(candle("A", "1"));
+        assertEquals(Arrays.asList("1", "1"), closes(subscriber.received));
+
+        context.setHedged("A", true);
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._5MIN));
+        client.socket(0).receive(candle("A", "2"));
+        client.socket(1).receive(candle("A", "2"));
+        assertEquals(Arrays.asList("1", "1", "2"), closes(subscriber.received));
+
+        context.sendRequest(StreamingRequest.unsubscribeCandle("A", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.unsubscribeCandle("A", CandleInterval._5MIN));
+        client.socket(0).receive(candle("A", "3"));
+        client.socket(1).receive(candle("A", "3"));
+        assertEquals(Arrays.asList("1", "1", "2", "3", "3"), closes(subscriber.received));
+    }
+
+    private void awaitSockets(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2_000L;
+        while (client.sockets.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(count, client.sockets.size());
+    }
+
+    @Test
+    public void poolGrowsWithSubscriptionsUpToParallelism() {
+        final StreamingContextImpl context = context(config(3)
+                .streamingMinParallelism(1)
+                .streamingSubscriptionsPerConnection(2));
+        assertEquals(1, client.sockets.size());
+
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.subscribeCandle("B", CandleInterval._1MIN));
+        assertEquals(1, client.sockets.size());
+
+        // The third subscription would overfill the only connection, so it opens the next one and goes there
+        context.sendRequest(StreamingRequest.subscribeCandle("C", CandleInterval._1MIN));
+        assertEquals(2, client.sockets.size());
+        assertEquals(1, client.socket(1).sent.size());
+        assertTrue(client.socket(1).sent.get(0).contains("\"C\""));
+
+        for (final String figi : Arrays.asList("D", "E", "F", "G", "H")) {
+            context.sendRequest(StreamingRequest.subscribeCandle(figi, CandleInterval._1MIN));
+        }
+        assertEquals(3, client.sockets.size());
+        assertEquals(8, client.socket(0).sent.size() + client.socket(1).sent.size() + client.socket(2).sent.size());
+    }
+
+    @Test
+    public void busyConnectionHandsSubscriptionsToNewOne() throws InterruptedException {
+        final StreamingContextImpl context = context(config(2)
+                .streamingMinParallelism(1)
+                .streamingMessagesPerConnection(10));
+        context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN));
+        context.sendRequest(StreamingRequest.subscribeCandle("B", CandleInterval._1MIN));
+        final FakeWebSocketClient.FakeWebSocket first = client.socket(0);
+        first.open();
+
+        for (int i = 0; i < 300; i++) {
+            first.receive(candle("A", "1"));
+        }
+        awaitSockets(2);
+
+        // One subscription moves over: subscribed on the new connection, then unsubscribed on the busy one
+        final long deadline = System.currentTimeMillis() + 2_000L;
+        while (first.sent.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(1, client.socket(1).sent.size());
+        assertEquals(3, first.sent.size());
+        assertTrue(first.sent.get(2).contains("unsubscribe"));
+    }
+
+    @Test
+    public void exhaustedReconnectsCloseEverySocket() throws InterruptedException {
+        final StreamingContextImpl context = context(config(2)
+                .streamingReconnectAttempts(1)
+                .streamingReconnectBaseDelayMillis(1L)
+                .streamingReconnectMaxDelayMillis(1L));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        context.warmUp();
+        subscriber.request(10);
+        final FakeWebSocketClient.FakeWebSocket healthy = client.socket(1);
+        healthy.open();
+
+        client.socket(0).fail(500);
+        awaitSockets(3);
+        client.socket(2).fail(500);
+
+        assertTrue(healthy.closed);
+        assertTrue(client.socket(2).closed);
+        assertThrows(IllegalStateException.class,
+                () -> context.sendRequest(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN)));
+        healthy.receive(candle("A", "1"));
+        assertTrue(subscriber.received.isEmpty());
+    }
+
+    @Test
+    public void closeReleasesEverything() {
+        final StreamingContextImpl context = context(config(2).streamingAckTimeoutMillis(60_000L));
+        final RecordingSubscriber<StreamingEvent> subscriber = new RecordingSubscriber<>();
+        context.subscribe(subscriber);
+        subscriber.request(10);
+        final CompletableFuture<List<StreamingRequestOutcome>> bulk = context.sendRequests(
+                Collections.singletonList(StreamingRequest.subscribeCandle("A", CandleInterval._1MIN)));
+        final FakeWebSocketClient.FakeWebSocket socket = client.socket(0);
+        socket.open();
+
+        context.close();
+        context.close();
+
+        assertTrue(socket.closed);
+        assertTrue(client.socket(1).closed);
+        assertTrue(bulk.isCompletedExceptionally());
+        assertThrows(IllegalStateException.class, context::warmUp);
+        socket.receive(candle("A", "1"));
+        assertTrue(subscriber.received.isEmpty());
+    }
+
+    @Test
+    public void rejectedTokenClosesEverySocket() {
+        final StreamingContextImpl context = context(config(2));
+        context.warmUp();
+
+        client.socket(0).fail(401);
+
+        assertTrue(client.socket(0).closed);
+        assertTrue(client.socket(1).closed);
+        assertThrows(IllegalStateException.class, context::warmUp);
+    }
+}
@@ -0,0 +1,115 @@
+package ru.tinkoff.invest.openapi.okhttp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEventEnvelope;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingHealthMonitorTest {
+
+    private static final long STALE_MILLIS = 100;
+    private static final String FIGI = "BBG0013HGFT4";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @NotNull
+    private PreparedRequest prepare(@NotNull final StreamingRequest request) throws Exception {
+        return PreparedRequest.prepare(request, mapper);
+    }
+
+    @NotNull
+    private static StreamingEventEnvelope candle(@NotNull final CandleInterval interval) {
+        return StreamingEventEnvelope.of(new StreamingEvent.Candle(BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE,
+                BigDecimal.ONE, BigDecimal.ONE, 0L, interval, FIGI));
+    }
+
+    @NotNull
+    private static StreamingHealthMonitor monitor(@NotNull final List<PreparedRequest> subscriptions) {
+        final StreamingHealthMonitor monitor = new StreamingHealthMonitor(1, STALE_MILLIS, 0, "");
+        monitor.connected(0);
+        for (final PreparedRequest prepared : subscriptions) {
+            monitor.activated(prepared.onOffPairId);
+        }
+        return monitor;
+    }
+
+    // Lets the grace period run out while the connection itself keeps receiving messages
+    private static void waitActive(@NotNull final StreamingHealthMonitor monitor, final long millis)
+            throws InterruptedException {
+        Thread.sleep(millis);
+        monitor.recordMessage(0);
+    }
+
+    @Test
+    public void subscriptionsOfOneFigiAreTrackedSeparately() throws Exception {
+        final PreparedRequest minute = prepare(StreamingRequest.subscribeCandle(FIGI, CandleInterval._1MIN));
+        final PreparedRequest fiveMinutes = prepare(StreamingRequest.subscribeCandle(FIGI, CandleInterval._5MIN));
+        final List<PreparedRequest> subscriptions = Arrays.asList(minute, fiveMinutes);
+        final StreamingHealthMonitor monitor = monitor(subscriptions);
+
+        waitActive(monitor, STALE_MILLIS + 20);
+        monitor.recordEvent(0, candle(CandleInterval._1MIN));
+
+        assertEquals(Collections.singletonList(fiveMinutes.onOffPairId), monitor.staleSubscriptions(0, subscriptions));
+    }
+
+    @Test
+    public void hedgedCopyIsNotKeptFreshByItsPartner() throws Exception {
+        final PreparedRequest original = prepare(StreamingRequest.subscribeCandle(FIGI, CandleInterval._1MIN));
+        final PreparedRequest copy = original.hedgeCopy();
+        final StreamingHealthMonitor monitor = new StreamingHealthMonitor(2, STALE_MILLIS, 0, "");
+        monitor.connected(0);
+        monitor.connected(1);
+        monitor.activated(original.onOffPairId);
+        monitor.activated(copy.onOffPairId);
+
+        Thread.sleep(STALE_MILLIS + 20);
+        monitor.recordMessage(0);
+        monitor.recordMessage(1);
+        monitor.recordEvent(0, candle(CandleInterval._1MIN));
+
+        assertTrue(monitor.staleSubscriptions(0, Collections.singletonList(original)).isEmpty());
+        assertEquals(Collections.singletonList(copy.onOffPairId),
+                monitor.staleSubscriptions(1, Collections.singletonList(copy)));
+    }
+
+    @Test
+    public void quietConnectionReportsNoStaleSubscriptions() throws Exception {
+        final List<PreparedRequest> subscriptions =
+                Collections.singletonList(prepare(StreamingRequest.subscribeOrderbook(FIGI, 10)));
+        final StreamingHealthMonitor monitor = monitor(subscriptions);
+
+        Thread.sleep(STALE_MILLIS + 20);
+
+        assertTrue(monitor.staleSubscriptions(0, subscriptions).isEmpty());
+    }
+
+    @Test
+    public void silentResubscriptionWaitsLonger() throws Exception {
+        final PreparedRequest orderbook = prepare(StreamingRequest.subscribeOrderbook(FIGI, 10));
+        final List<PreparedRequest> subscriptions = Collections.singletonList(orderbook);
+        final StreamingHealthMonitor monitor = monitor(subscriptions);
+
+        waitActive(monitor, STALE_MILLIS + 20);
+        assertEquals(Collections.singletonList(orderbook.onOffPairId), monitor.staleSubscriptions(0, subscriptions));
+        monitor.resubscribed(orderbook.onOffPairId);
+
+        waitActive(monitor, STALE_MILLIS + 20);
+        assertTrue(monitor.staleSubscriptions(0, subscriptions).isEmpty());
+
+        waitActive(monitor, STALE_MILLIS);
+        assertEquals(Collections.singletonList(orderbook.onOffPairId), monitor.staleSubscriptions(0, subscriptions));
+    }
+}